@@ -4,14 +4,33 @@
  * @version 1.0
  */
 
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.NoSuchElementException;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.Iterator;
+import java.util.Collections;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Random;
 import java.util.TreeSet;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -20,19 +39,66 @@ import static org.junit.Assert.*;
  * This class defines the black-red balanced tree
  * It implements from BinSearchTree12 interface and contains an inner class
  * that defines the Node
+ * Every Node knows the size of its subtree, which makes numChildren, rank
+ * and select O(log n), and its height, which makes height O(1).
+ * A Comparator given to the constructor replaces the natural order, and
+ * every descent compares an element with a Node only once. The Nodes of
+ * the lowest and the highest element are kept, so first, last and the
+ * polls need no descent.
+ * Under InsertionPolicy.DEFERRED up to DEFERRED_BATCH appended Nodes hang
+ * from the highest one as an unbalanced chain. Reads never balance it, so
+ * while it is pending height counts the chain, contains, rank and select
+ * may walk it, and a spliterator splits it unevenly. Each costs at most
+ * DEFERRED_BATCH more steps. Any change other than an append, or a new
+ * policy, balances it first.
  */
 public class BST12RB<E extends Comparable<? super E>> 
-    implements BinSearchTree12<E>{
+    implements BinSearchTree12<E>, Iterable<E>{
     //Instance varialbe(the root)
     private Node root;
     private int size;
+    //Number of changes, lets the iterators fail fast
+    private int modCount;
+    //The order of the elements, null for their natural order
+    private final Comparator<? super E> comparator;
+    //How add treats an element above the highest one
+    private InsertionPolicy policy = InsertionPolicy.BALANCED;
+    //The Nodes with the lowest and the highest element, null when empty
+    private Node leftmost;
+    private Node rightmost;
+    //Black depth of the subtree the last join returned
+    private int joinedBlack;
+    //First Node of the chain appended under DEFERRED, and its length
+    private Node pending;
+    private int pendingCount;
+
+    //Set operations run by SetTask
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+    //Below this many Nodes a SetTask does not fork any more
+    private static final int PARALLEL_CUTOFF = 1 << 12;
+    //No valid tree is higher than this, a longer walk saw a change
+    static final int MAX_WALK = 2 * 32 + 1;
+    //Nodes appended under DEFERRED before they are balanced
+    static final int DEFERRED_BATCH = 32;
 
     /**
      * no-arg Constructor
      */
     public BST12RB(){
+        this((Comparator<? super E>)null);
+    }
+
+    /**
+     * Constructor with an order of its own
+     * @param comparator the order of the elements, null for their natural
+     * order
+     */
+    public BST12RB(Comparator<? super E> comparator){
         this.root = null;
         this.size = 0;
+        this.comparator = comparator;
     }
 
     /**
@@ -40,12 +106,24 @@ public class BST12RB<E extends Comparable<? super E>>
      * @param c the collection with elements to be copied
      */
     public BST12RB(Collection<? extends E> c) 
+            throws NullPointerException, ClassCastException{
+            this(c, null);
+    }
+
+    /**
+     * Constructor that copies a whole collection into an order of its own
+     * @param c the collection with elements to be copied
+     * @param comparator the order of the elements, null for their natural
+     * order
+     */
+    public BST12RB(Collection<? extends E> c, Comparator<? super E> comparator)
             throws NullPointerException, ClassCastException{
             if(c == null){
                 throw new NullPointerException();
             }
             this.root = null;
             this.size = 0;
+            this.comparator = comparator;
             this.addAll(c);
     }
 
@@ -61,41 +139,69 @@ public class BST12RB<E extends Comparable<? super E>>
             throw new NullPointerException();
         }
 
-        //Create a Node to add
-        Node toAdd = new Node(e);
-        //If the class is still empty
-        if(this.isEmpty()){
-            this.root = toAdd;
-            toAdd.parent = null;
-            toAdd.color = true;
-            this.size++;
-            return true;
+        //An element above the highest one needs no descent
+        if(policy != InsertionPolicy.BALANCED && root != null){
+            Node highest = rightmost;
+            int cmp = compare(e, highest.element);
+            if(cmp == 0){
+                return false;
+            }
+            if(cmp > 0){
+                append(highest, e);
+                return true;
+            }
         }
-        //If not, find the place to add the toAdd node
-        Node parent = searchParent(e);
-        //When the elment already exists
-        if(parent == null){
-            return false;
+        flush();
+
+        //One descent finds the slot, the last comparison tells the side
+        Node curParent = null;
+        Node current = root;
+        int cmp = 0;
+        while(current != null){
+            curParent = current;
+            cmp = compare(e, current.element);
+            if(cmp == 0){
+                return false;
+            }
+            current = cmp < 0 ? current.left : current.right;
         }
 
-        if(e.compareTo((E)parent.element) < 0){
-            //Add to the left
-            parent.left = toAdd;
-            toAdd.parent = parent;
+        Node toAdd = new Node(e);
+        toAdd.parent = curParent;
+        if(curParent == null){
+            this.root = toAdd;
+        }else if(cmp < 0){
+            curParent.left = toAdd;
         }else{
-            //Add to the right
-            parent.right = toAdd;
-            toAdd.parent = parent;
+            curParent.right = toAdd;
+        }
+        //A new lowest or highest Node hangs off the old one
+        if(curParent == null || cmp < 0 && curParent == leftmost){
+            leftmost = toAdd;
+        }
+        if(curParent == null || cmp > 0 && curParent == rightmost){
+            rightmost = toAdd;
+        }
+        //Every subtree on the way down gained one Node
+        for(Node n = curParent; n != null; n = n.parent){
+            n.size++;
+            reheight(n);
         }
         //Balance the effects brought by the newly added Node
         balanceRB(toAdd);
 
         size++;
+        modCount++;
         return true;
     }
 
     /**
      * addAll elements from a given Collection to the balanced tree
+     * An empty tree is built bottom-up in O(n) when c is sorted, and in
+     * O(n log n) for the sort otherwise, instead of n separate adds.
+     * For a non-empty tree the sorted batch is either inserted in order,
+     * each search starting from the previous insertion, or merged with
+     * the flattened tree and rebuilt, whichever costs less
      * @param c collection with elements
      * @return true if the set is changed based on this call
      */
@@ -104,12 +210,28 @@ public class BST12RB<E extends Comparable<? super E>>
             if(c == null){
                 throw new NullPointerException();
             }
+            if(c.isEmpty()){
+                return true;
+            }
+            flush();
+            if(c.size() == 1){
+                return this.add(c.iterator().next());
+            }
 
-            boolean result = true;
-            for(E each: c){
-                result &= this.add(each);
+            Object[] batch = c.toArray();
+            int unique = sortUnique(batch, c instanceof SortedSet
+                    && Objects.equals(((SortedSet<?>)c).comparator(), comparator));
+            int added;
+            if(this.isEmpty()){
+                build(batch, unique);
+                added = unique;
+            }else if((long)unique * (32 - Integer.numberOfLeadingZeros(size))
+                    >= size + unique){
+                added = mergeRebuild(batch, unique);
+            }else{
+                added = insertSorted(batch, unique);
             }
-            return result;
+            return added == batch.length;
     }
 
     /**
@@ -117,7 +239,12 @@ public class BST12RB<E extends Comparable<? super E>>
      */
     public void clear(){
         this.root = null;
+        this.leftmost = null;
+        this.rightmost = null;
         this.size = 0;
+        this.pending = null;
+        this.pendingCount = 0;
+        this.modCount++;
     }
 
     /**
@@ -130,33 +257,26 @@ public class BST12RB<E extends Comparable<? super E>>
             throw new NullPointerException();
         }
 
-        //Check root
-        if(root != null && root.element.compareTo((E)o) == 0){
-            return true;
-        }
-        //Make use of helper method
-        Node parent = searchParent(o);
-        if(parent == null){
-            return true;
-        }else{
-            return false;
+        Node current = root;
+        while(current != null){
+            int cmp = compare(o, current.element);
+            if(cmp == 0){
+                return true;
+            }
+            current = cmp < 0 ? current.left : current.right;
         }
+        return false;
     }
 
     /**
-     * return the lowest element in the tree
+     * return the lowest element in the tree, O(1)
      * @return lowest element
      */
     public E first() throws NoSuchElementException{
         if(this.isEmpty()){
             throw new NoSuchElementException();
         }
-
-        Node current = root;
-        while(current.left != null){
-            current = current.left;
-        }
-        return current.element;
+        return leftmost.element;
     }
 
     /**
@@ -172,19 +292,14 @@ public class BST12RB<E extends Comparable<? super E>>
     }
 
     /**
-     * gives the last element in the tree
+     * gives the last element in the tree, O(1)
      * @return the last element
      */
     public E last() throws NoSuchElementException{
         if(this.isEmpty()){
             throw new NoSuchElementException();
         }
-
-        Node current = root;
-        while(current.right != null){
-            current = current.right;
-        }
-        return current.element;
+        return rightmost.element;
     }
 
     /**
@@ -198,7 +313,52 @@ public class BST12RB<E extends Comparable<? super E>>
      * @return an iterator that traverses the tree
      */
     public Iterator<E> iterator(){
-        return new RBIterator(this);
+        return new RBIterator();
+    }
+
+    /**
+     * The spliterator splits at subtree roots, so the halves are as even
+     * as the tree is balanced, and every part knows its exact size. A
+     * chain pending under DEFERRED is split one Node at a time
+     * @return a spliterator over the elements in ascending order
+     */
+    public Spliterator<E> spliterator(){
+        return new RBSpliterator(leftmost, null, size, 0);
+    }
+
+    /**
+     * @return a sequential Stream over the elements in ascending order
+     */
+    public Stream<E> stream(){
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel Stream over the elements in ascending order
+     */
+    public Stream<E> parallelStream(){
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * The iterator starts at the highest element and walks predecessors,
+     * so the k highest elements cost O(log n + k) and no copy
+     * @return an iterator over the elements in descending order
+     */
+    public Iterator<E> descendingIterator(){
+        return new RBIterator(rightmost, null, false, true);
+    }
+
+    /**
+     * A reverse range scan, starting with one descent
+     * @param from the lowest element of the range
+     * @param to the element above the highest one of the range
+     * @return an iterator from the highest element lower than to down to
+     * from
+     */
+    public Iterator<E> descendingIterator(E from, E to)
+            throws NullPointerException, IllegalArgumentException{
+            return all().narrow(from, true, to, false).descendingIterator();
     }
 
     /**
@@ -216,31 +376,23 @@ public class BST12RB<E extends Comparable<? super E>>
             throw new NullPointerException();
         }
 
-        if(root.element.compareTo(e) == 0){
-            //When the element is stored in the root
-            //System.out.println("Calling remove root");
-            remove(this.root);
-            this.size--;
-            return true;
-        }
-
-        //Find the parent of the node to be removed
         Node toRemove = search(e);
         if(toRemove == null){
             return false;
         }
 
-        remove(toRemove);
-        this.size--;
+        unlink(toRemove);
         return true;
     }
 
     /**
      * height: 0(empty); 1(one element)
+     * Every Node keeps the height of its subtree, so this is O(1)
+     * A chain pending under DEFERRED is counted as it hangs
      * @return the height of current tree
      */
     public int height(){
-        return height(root);
+        return heightOf(root);
     }
 
     /**
@@ -263,815 +415,2804 @@ public class BST12RB<E extends Comparable<? super E>>
     }
 
     /**
-     * @return String representation of the tree
+     * remove every element that is also in c
+     * Few elements are removed one by one, many are dropped while the
+     * tree is walked once in order and rebuilt
+     * @param c the elements to be removed
+     * @return true if the tree changed
      */
-    public String toString(){
-        Iterator iter = iterator();
-        String result = "[";
-        if(iter.hasNext()){
-            result += iter.next().toString();
-        }
-        while(iter.hasNext()){
-            result += ", ";
-            result += iter.next();
-        }
-        result += "]";
-        return result;
+    public boolean removeAll(Collection<?> c)
+            throws NullPointerException, ClassCastException{
+            if(c == null){
+                throw new NullPointerException();
+            }
+            if(this.isEmpty() || c.isEmpty()){
+                return false;
+            }
+            flush();
+
+            Object[] batch = c.toArray();
+            int count = sortUnique(batch, false);
+            if((long)count * (32 - Integer.numberOfLeadingZeros(size)) < size){
+                boolean changed = false;
+                for(int i = 0; i < count && !this.isEmpty(); i++){
+                    changed |= this.remove(element(batch[i]));
+                }
+                return changed;
+            }
+            return filter(batch, count, false);
     }
 
-    /*--------------------------Helper methods--------------------------*/
     /**
-     * private helper method for remove
-     * @param toRemove node to remove
-     * @return true if the Node is removed
+     * remove every element that is not in c, walking the tree once
+     * @param c the elements to be kept
+     * @return true if the tree changed
      */
-    private boolean remove(Node toRemove) throws NullPointerException{
-        if(toRemove == null){
-            throw new NullPointerException();
-        }
+    public boolean retainAll(Collection<?> c)
+            throws NullPointerException, ClassCastException{
+            if(c == null){
+                throw new NullPointerException();
+            }
+            if(this.isEmpty()){
+                return false;
+            }
+            flush();
 
+            Object[] batch = c.toArray();
+            int count = sortUnique(batch, false);
+            return filter(batch, count, true);
+    }
 
-        //Start the long process
-        //When the toRemove node is red
-        if(!toRemove.color){
-            //System.out.println("removing red Node");
-            //When it's a red leaf to be removed
-            //Red node can be leaf only when both children are null
-            if(toRemove.left == null && toRemove.right == null){
-                //Directly forget this Node
-                Node curParent = toRemove.parent;
-                if(curParent.left == toRemove){
-                    curParent.left = null;
-                }else{
-                    curParent.right = null;
-                }
-                return true;
-            }else{
-                //When it's an inner red node
-                Node successor = getNext(toRemove);
-                //Replace the element in the Node that will be removed
-                toRemove.element = successor.element;
-                //Remove successor from its original position
-                return remove(successor);
+    /**
+     * remove the elements from from, inclusive, to to, exclusive
+     * The range is split off and the two outer parts joined again, so it
+     * costs O(log n) however many elements are removed
+     * @param from the lowest element to be removed
+     * @param to the element above the highest one to be removed
+     * @return the number of elements removed
+     */
+    public int removeRange(E from, E to)
+            throws NullPointerException, IllegalArgumentException{
+            if(from == null || to == null){
+                throw new NullPointerException();
             }
-        }
-        //When toRemove is the root Node
-        else if(toRemove == root){
-            //System.out.println("removing root");
-            //root Node must be black
-            //If there's no Child
-            if(toRemove.left == null && toRemove.right == null){
-                this.root = null;
-                return true;
+            if(compare(from, to) > 0){
+                throw new IllegalArgumentException();
             }
-            //If there's only one Child
-            if(toRemove.left == null && toRemove.right != null){
-                this.root = toRemove.right;
-                this.root.parent = null;
-                balanceRB(this.root);
-                return true;
+
+            BST12RB<E> range = this.split(from);
+            BST12RB<E> above = range.split(to);
+            this.root = join(this.root, above.root);
+            findEdges();
+            this.size = sizeOf(this.root);
+            this.modCount++;
+            return range.size;
+    }
+
+    /**
+     * Concatenate two trees around a pivot in O(log n). Both trees are
+     * left empty, their Nodes now belong to the returned tree
+     * @param lower a tree whose elements are all lower than pivot
+     * @param pivot the element between the two trees
+     * @param upper a tree whose elements are all higher than pivot
+     * @return a tree with the elements of lower, pivot and upper
+     */
+    public static <E extends Comparable<? super E>> BST12RB<E> join(
+            BST12RB<E> lower, E pivot, BST12RB<E> upper)
+            throws NullPointerException, IllegalArgumentException{
+            if(lower == null || pivot == null || upper == null){
+                throw new NullPointerException();
             }
-            if(toRemove.right == null && toRemove.left != null){
-                this.root = toRemove.left;
-                this.root.parent = null;
-                balanceRB(this.root);
-                return true;
+            if(lower == upper && !lower.isEmpty()
+                    || !Objects.equals(lower.comparator, upper.comparator)){
+                throw new IllegalArgumentException();
+            }
+            lower.flush();
+            upper.flush();
+            if(!lower.isEmpty() && lower.compare(lower.last(), pivot) >= 0){
+                throw new IllegalArgumentException();
             }
-            //If there are two Children
-            Node successor = getNext(root);
-            root.element = successor.element;
-            remove(successor);
+            if(!upper.isEmpty() && upper.compare(upper.first(), pivot) <= 0){
+                throw new IllegalArgumentException();
+            }
+
+            BST12RB<E> joined = new BST12RB<E>(lower.comparator);
+            joined.root = joined.join(lower.root, joined.new Node(pivot),
+                    upper.root);
+            joined.findEdges();
+            joined.size = lower.size + upper.size + 1;
+            lower.clear();
+            upper.clear();
+            return joined;
+    }
+
+    /**
+     * Cut the tree in two in O(log n). This tree keeps the elements lower
+     * than key, the others move to the returned tree
+     * @param key where to cut, does not have to be in the tree
+     * @return a tree with the elements higher than or equal to key
+     */
+    public BST12RB<E> split(E key) throws NullPointerException{
+        if(key == null){
+            throw new NullPointerException();
         }
-        //Black Node to be removed
-        else{
-            //System.out.println("removing black Node");
-            //When at least one child is null(base case)
-            if(toRemove.left == null || toRemove.right == null){
-                Node curParent = toRemove.parent;
-                //When there's a red child
-                if(toRemove.left!=null || toRemove.right!=null){
-                    if(toRemove.left != null){
-                        toRemove.element = toRemove.left.element;
-                        toRemove.left = null;
-                    }else{
-                        toRemove.element = toRemove.right.element;
-                        toRemove.right = null;
-                    }
-                }
-                //When the parent is red(easy)
-                else if(curParent.color == false){
-                    if(toRemove == curParent.left){
-                        //Before rotation, remember the left Child of sibling
-                        Node nephew = curParent.right.left;
-                        //Rotate with curParent as pivot
-                        rotateCClockWise(curParent);
-                        //Adopt the child of toRemove and resolve 2-red defect
-                        curParent.left = 
-                            toRemove.left==null? toRemove.right : toRemove.left;
-                        if(curParent.left != null){
-                            curParent.left.parent = curParent;
-                            balanceRB(curParent.left);  
-                        }
+        flush();
 
-                        //Whereever the nephew is now balance it
-                        if(nephew != null && nephew.color == false){
-                            balanceRB(nephew);
-                        }
-                        return true;
-                    }else{
-                        //Before rotation, remember the right Child of sibling
-                        Node nephew = curParent.left.right;
-                        //Rotate with curParent as pivot
-                        rotateClockWise(toRemove.parent);
-                        //Adopt the child of toRemove and resolve 2-red defect
-                        curParent.right = 
-                            toRemove.left==null? toRemove.right : toRemove.left;
-                        if(curParent.right != null){
-                            curParent.right.parent = curParent;
-                            balanceRB(curParent.right);
-                        }
+        Node[] parts = newParts();
+        int[] black = new int[2];
+        Node found = split(root, blackDepth(root), key, parts, black);
+        Node lower = parts[0];
+        Node higher = found == null ? parts[1]
+            : join(null, 0, found, parts[1], black[1]);
 
-                        //Whereever the nephew is now, balance it
-                        if(nephew != null){
-                            balanceRB(nephew);
-                        }
-                        return true;
-                    }
-                }
-                //When the parent Node is black and there's no red Child
-                //There are 2 situations, when the sibling is red
-                //or when the sibling is black
-                //sibling cannot be null
-                else{
-                    Node sibling = 
-                        toRemove == curParent.left? curParent.right : curParent.left;
-                    //If parent is root and the sibling is black
-                    if(curParent == root && sibling.color == true){
-                        //System.out.println("temp1");
-                        //Stop parentship
-                        Node child = 
-                            toRemove.left==null?toRemove.right:toRemove.left;
-                        if(sibling == curParent.left){
-                            curParent.right = child;
-                        }else{
-                            curParent.left = child;
-                        }
-                        if(child!=null) child.parent = curParent;
+        BST12RB<E> upper = new BST12RB<E>(comparator);
+        upper.root = higher;
+        upper.findEdges();
+        upper.size = sizeOf(higher);
+        this.root = lower;
+        findEdges();
+        this.size = sizeOf(lower);
+        this.modCount++;
+        return upper;
+    }
 
-                        sibling.color = false;
-                        Node nephew1 = sibling.left;
-                        Node nephew2 = sibling.right;
-                        if(nephew1 != null) balanceRB(nephew1);
-                        if(nephew2 != null) balanceRB(nephew2);
-                        return true;
-                    }
-                    //When the sibling is red, it's quite easy and doesn't
-                    //matter if the parent his root
-                    if(sibling.color == false){
-                        if(toRemove == curParent.right){
-                            //Stop parentship
-                            curParent.right = 
-                                toRemove.left==null?toRemove.right:toRemove.left;
-                            if(curParent.right!=null) 
-                                curParent.right.parent = curParent;
-                            rotateClockWise(curParent);
-                        }else{
-                            //Stop parentship
-                            curParent.left =
-                                toRemove.left==null?toRemove.right:toRemove.left;
-                            if(curParent.left!=null) 
-                                curParent.left.parent = curParent;
-                            rotateCClockWise(curParent);
-                        }
-                        //Recolor
-                        sibling.color = true;
+    /**
+     * The union of two trees, computed in parallel on the common
+     * ForkJoinPool in O(m log(n/m + 1)) work for sizes m <= n. Both trees
+     * are left empty, their Nodes now belong to the returned tree
+     * @param first a tree
+     * @param second another tree
+     * @return a tree with the elements in first or second
+     */
+    public static <E extends Comparable<? super E>> BST12RB<E> union(
+            BST12RB<E> first, BST12RB<E> second)
+            throws NullPointerException, IllegalArgumentException{
+            return combine(first, second, UNION);
+    }
 
-                        Node child1 = curParent.left;
-                        Node child2 = curParent.right;
-                        if(child1 != null) child1.color = false;
-                        if(child2 != null) child2.color = false;
-                        if(child1!=null){
-                            Node grandChild1 = child1.left;
-                            Node grandChild2 = child1.right;
-                            if(grandChild1 != null) balanceRB(grandChild1);
-                            if(grandChild2 != null) balanceRB(grandChild2);
-                        }
-                        if(child2 != null){
-                            Node grandChild1 = child2.left;
-                            Node grandChild2 = child2.right;
-                            if(grandChild1 != null) balanceRB(grandChild1);
-                            if(grandChild2 != null) balanceRB(grandChild2);;
-                        }
-                        return true;
-                    }
-                    //When the sibling is black and curParent is not root
-                    else{
-                        //When the sibling still has a red child
-                        boolean siblingOnLeft = 
-                            curParent.left==sibling? true : false;
-                        boolean redOnLeft = 
-                            sibling.left!=null && !sibling.left.color;
-                        boolean redOnRight = 
-                            sibling.right!=null && !sibling.right.color;
-                        if(redOnLeft || redOnRight){
-                            if(toRemove == curParent.right){
-                                //Stop parentship
-                                curParent.right = 
-                                    toRemove.left==null?toRemove.right:toRemove.left;
-                                if(curParent.right!=null) 
-                                    curParent.right.parent = curParent;
-                            }else{
-                                //Stop parentship
-                                curParent.left =
-                                    toRemove.left==null?toRemove.right:toRemove.left;
-                                if(curParent.left!=null) 
-                                    curParent.left.parent = curParent;
-                            }
-                            if(siblingOnLeft){
-                                if(!redOnLeft){
-                                    rotateCClockWise(sibling);
-                                    sibling.parent.color = true;
-                                    rotateClockWise(curParent);
-                                }else{
-                                    sibling.left.color = true;
-                                    rotateClockWise(curParent);
-                                }
-                                return true;
-                            }else{
-                                if(!redOnRight){
-                                    rotateClockWise(sibling);
-                                    sibling.parent.color = true;
-                                    rotateCClockWise(curParent);
-                                }else{
-                                    sibling.right.color = true;
-                                    rotateCClockWise(curParent);
-                                }
-                                return true;
-                            }
-                        }
-                        //When sibling has no red child
-                        //Sadly, you are surrounded by black!!!
-                        //In Chinese we call this '四面楚歌'
-                        else{
-                            //Stop parentship
-                            if(siblingOnLeft){
-                                curParent.right = null;
-                            }else{
-                                curParent.left = null;
-                            }
-                            //Balance the black number under this parent
-                            sibling.color = false;
-                            //ask the parent to figure out what to do
-                            hasLessBlack(curParent);
-                            return true;
-                        }
+    /**
+     * The intersection of two trees, see union
+     * @param first a tree
+     * @param second another tree
+     * @return a tree with the elements in both first and second
+     */
+    public static <E extends Comparable<? super E>> BST12RB<E> intersection(
+            BST12RB<E> first, BST12RB<E> second)
+            throws NullPointerException, IllegalArgumentException{
+            return combine(first, second, INTERSECTION);
+    }
 
-                    }
-                }
+    /**
+     * The difference of two trees, see union
+     * @param first a tree
+     * @param second the elements to leave out
+     * @return a tree with the elements in first but not in second
+     */
+    public static <E extends Comparable<? super E>> BST12RB<E> difference(
+            BST12RB<E> first, BST12RB<E> second)
+            throws NullPointerException, IllegalArgumentException{
+            return combine(first, second, DIFFERENCE);
+    }
+
+    /**
+     * The rank of an element is the number of elements lower than it, so
+     * the lowest element has rank 0. e does not have to be in the tree
+     * @param e the element to be ranked
+     * @return the number of elements in the tree lower than e
+     */
+    public int rank(E e) throws NullPointerException, ClassCastException{
+        if(e == null){
+            throw new NullPointerException();
+        }
+
+        int lower = 0;
+        Node current = root;
+        while(current != null){
+            int cmp = compare(e, current.element);
+            if(cmp <= 0){
+                current = current.left;
             }else{
-                //When the toRemove black Node is inner
-                Node successor = getNext(toRemove);
-                toRemove.element = successor.element;
-                return remove(successor);
+                lower += sizeOf(current.left) + 1;
+                current = current.right;
             }
         }
-        return false;
+        return lower;
     }
 
     /**
-     * Helper method to balance a Node when paths through it has one less
-     * black then others
-     * Precondition: defect is itself black(or why not sacrificing yourself!)
-     * defect is one less black than its sibling!
-     * It's not a parent of branches with different blacks!!
-     * @param defect the Node with 1 black Node less
+     * select is the reverse of rank
+     * @param k the rank of the wanted element, from 0 to size()-1
+     * @return the element with k elements lower than it
      */
-    private void hasLessBlack(Node defect) 
-            throws NullPointerException, IllegalStateException{
-            //System.out.println("Entering hasLessBlack");
-            if(defect == null){
-                throw new NullPointerException();
-            }
-            if(defect.color == false){
-                //throw new IllegalStateException();
-                defect.color = true;
-                return;
-            }
-
-            //Base case
-            if(defect == root){
-                return;
-            }
-            Node curParent = defect.parent;
-            Node sibling = defect==curParent.left?curParent.right:curParent.left;
-            //Also a base case(curParent is red)
-            if(!curParent.color){
-                //Remember the nephew that will be taken by CurParent
-                Node stepSibling;
-                if(curParent.left == sibling){
-                    stepSibling = sibling.right;
-                    rotateClockWise(curParent);
-                }else{
-                    stepSibling = sibling.left;
-                    rotateCClockWise(curParent);
-                }
-                balanceRB(stepSibling);
-                return;
-            }
-            //Another base case that repels the previous one
-            //(sibling is red)
-            if(sibling.color == false){
-                if(sibling == curParent.left){
-                    rotateClockWise(curParent);
-                    sibling.color = true;
-                    curParent.color = false;
-                    hasLessBlack(defect);
-                    return;
-                }else{
-                    rotateCClockWise(curParent);
-                    sibling.color = true;
-                    curParent.color = false;
-                    hasLessBlack(defect);
-                    return;
-                }
+    public E select(int k) throws IndexOutOfBoundsException{
+        if(k < 0 || k >= size){
+            throw new IndexOutOfBoundsException(k + " out of " + size);
+        }
+        return selectNode(k).element;
+    }
+
+    /**
+     * @param e the element to be compared
+     * @return the highest element lower than or equal to e, null if none
+     */
+    public E floor(E e) throws NullPointerException, ClassCastException{
+        return elementOf(floorNode(e, true));
+    }
+
+    /**
+     * @param e the element to be compared
+     * @return the lowest element higher than or equal to e, null if none
+     */
+    public E ceiling(E e) throws NullPointerException, ClassCastException{
+        return elementOf(ceilingNode(e, true));
+    }
+
+    /**
+     * @param e the element to be compared
+     * @return the highest element strictly lower than e, null if none
+     */
+    public E lower(E e) throws NullPointerException, ClassCastException{
+        return elementOf(floorNode(e, false));
+    }
+
+    /**
+     * @param e the element to be compared
+     * @return the lowest element strictly higher than e, null if none
+     */
+    public E higher(E e) throws NullPointerException, ClassCastException{
+        return elementOf(ceilingNode(e, false));
+    }
+
+    /**
+     * A view of the elements from from, inclusive, to to, exclusive. The
+     * view is backed by the tree, its iterator starts with one descent
+     * and its size is counted with rank in O(log n)
+     * @param from the lowest element of the view
+     * @param to the element above the highest one of the view
+     * @return the view
+     */
+    public NavigableSet<E> subSet(E from, E to)
+            throws NullPointerException, IllegalArgumentException{
+            return subSet(from, true, to, false);
+    }
+
+    /**
+     * @param to the element above the highest one of the view
+     * @return a view of the elements lower than to, see subSet
+     */
+    public NavigableSet<E> headSet(E to) throws NullPointerException{
+        return headSet(to, false);
+    }
+
+    /**
+     * @param from the lowest element of the view
+     * @return a view of the elements higher than or equal to from, see subSet
+     */
+    public NavigableSet<E> tailSet(E from) throws NullPointerException{
+        return tailSet(from, true);
+    }
+
+    /**
+     * @param from the lower bound of the view
+     * @param fromInclusive true if from belongs to the view
+     * @param to the upper bound of the view
+     * @param toInclusive true if to belongs to the view
+     * @return a view of the elements between the two bounds, see subSet
+     */
+    public NavigableSet<E> subSet(E from, boolean fromInclusive,
+            E to, boolean toInclusive)
+            throws NullPointerException, IllegalArgumentException{
+            if(from == null || to == null){
+                throw new NullPointerException();
             }
-            //Or if the sibling is not black but both its children are red
-            if(sibling.left!=null&&sibling.left.color==false
-                    &&sibling.right!=null&&sibling.right.color==false){
-                sibling.color = false;
-                sibling.left.color = true;
-                sibling.right.color = true;
-                //Now fits in the previous situation
-                hasLessBlack(defect);
-                return;
-                    }
-            //Surprisingly, if one of its child is red, it's still base case(almost)
-            if(sibling == curParent.right){
-                if(sibling.left!=null && sibling.left.color == false){
-                    sibling.left.color = true;
-                    rotateClockWise(sibling);
-                    rotateCClockWise(curParent);
-                    return;
-                }
-                if(sibling.right!=null && sibling.right.color == false){
-                    sibling.right.color = true;
-                    rotateCClockWise(curParent);
-                    return;
-                }
+            return all().narrow(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     * @param to the upper bound of the view
+     * @param inclusive true if to belongs to the view
+     * @return a view of the elements below to, see subSet
+     */
+    public NavigableSet<E> headSet(E to, boolean inclusive)
+            throws NullPointerException{
+            if(to == null){
+                throw new NullPointerException();
             }
-            if(sibling == curParent.left){
-                if(sibling.left!=null && sibling.left.color == false){
-                    sibling.left.color = true;
-                    rotateClockWise(curParent);
-                    return;
-                }
-                if(sibling.right!=null && sibling.right.color == false){
-                    sibling.right.color = true;
-                    rotateCClockWise(sibling);
-                    rotateClockWise(curParent);
-                    return;
-                }
+            return all().narrow(null, false, to, inclusive);
+    }
+
+    /**
+     * @param from the lower bound of the view
+     * @param inclusive true if from belongs to the view
+     * @return a view of the elements above from, see subSet
+     */
+    public NavigableSet<E> tailSet(E from, boolean inclusive)
+            throws NullPointerException{
+            if(from == null){
+                throw new NullPointerException();
             }
+            return all().narrow(from, inclusive, null, false);
+    }
 
-            //When the parent,sibling, nephews are all black
-            sibling.color = false;
-            hasLessBlack(curParent);
+    /**
+     * @return a view of the whole tree in descending order
+     */
+    public NavigableSet<E> descendingSet(){
+        return new DescendingView(all());
     }
 
     /**
-     * Another very important helper method, find the successor of current Node
-     * @param curNode the node whose successor is needed
-     * @return the node with value that is JUST after the passed in Node
+     * The tree cannot be a Set itself: contains(E) and remove(E) of
+     * BinSearchTree12 clash with contains(Object) and remove(Object).
+     * This view is what to hand to code that wants a NavigableSet, it is
+     * created in O(1) and every change goes through to the tree
+     * @return a view of the whole tree
      */
-    private Node getNext(Node curNode) throws NullPointerException{
-        if(curNode == null){
+    public NavigableSet<E> asSet(){
+        return all();
+    }
+
+    /**
+     * @return the order of the elements, null for their natural order
+     */
+    public Comparator<? super E> comparator(){
+        return comparator;
+    }
+
+    /**
+     * Choose how add treats an element above the highest one, see
+     * InsertionPolicy. Nodes still waiting under DEFERRED are balanced now
+     * @param policy the new policy
+     */
+    public void setInsertionPolicy(InsertionPolicy policy) throws NullPointerException{
+        if(policy == null){
             throw new NullPointerException();
         }
+        flush();
+        this.policy = policy;
+    }
 
-        Node parent = curNode.parent;
-        //The best choice is the biggest Child of right Child
-        if(curNode.right != null){
-            Node tempLeft = curNode.right;
-            while(tempLeft != null){
-                curNode = tempLeft;
-                tempLeft = curNode.left;
+    /**
+     * @return how add treats an element above the highest one
+     */
+    public InsertionPolicy getInsertionPolicy(){
+        return policy;
+    }
+
+    /**
+     * remove the lowest element without a descent, only the rebalancing
+     * of one removal is left
+     * @return the element removed, null if the tree is empty
+     */
+    public E pollFirst(){
+        return poll(leftmost);
+    }
+
+    /**
+     * remove the highest element without a descent, only the rebalancing
+     * of one removal is left
+     * @return the element removed, null if the tree is empty
+     */
+    public E pollLast(){
+        return poll(rightmost);
+    }
+
+    /**
+     * @return String representation of the tree
+     */
+    public String toString(){
+        Iterator iter = iterator();
+        String result = "[";
+        if(iter.hasNext()){
+            result += iter.next().toString();
+        }
+        while(iter.hasNext()){
+            result += ", ";
+            result += iter.next();
+        }
+        result += "]";
+        return result;
+    }
+
+    /*-------------------Walks for readers without a lock-------------------*/
+    /**
+     * contains for a reader that holds no lock while a writer may be
+     * changing the tree. The walk stops after MAX_WALK steps, since only a
+     * rotation in progress can make a path that long or make it loop. The
+     * answer is only right if the caller checks afterwards that no writer
+     * ran in the meantime
+     * @param e the element to be searched
+     * @return true if e was seen on the way down
+     */
+    boolean containsUnlocked(E e){
+        Node current = root;
+        for(int steps = 0; current != null && steps < MAX_WALK; steps++){
+            E element = current.element;
+            if(element == null){
+                //A Node that is not completely visible yet
+                return false;
             }
-            return curNode;
+            int cmp = compare(e, element);
+            if(cmp == 0){
+                return true;
+            }
+            current = cmp < 0 ? current.left : current.right;
         }
-        //Or its parent if curNode is left Child
-        else if(parent != null && curNode == parent.left){
-            return parent;
+        return false;
+    }
+
+    /**
+     * first or last for a reader that holds no lock, see containsUnlocked
+     * @param lowest true for the lowest element, false for the highest
+     * @return the element seen at the end of the spine, null if the tree
+     * is empty or the walk was cut off
+     */
+    E edgeUnlocked(boolean lowest){
+        Node current = root;
+        for(int steps = 0; current != null && steps < MAX_WALK; steps++){
+            Node next = lowest ? current.left : current.right;
+            if(next == null){
+                return current.element;
+            }
+            current = next;
         }
-        //or if the curNode is the right Child of its parent(sad :( )
-        else{
-            while(parent != null){
-                Node tempGrand = parent.parent;
-                if(tempGrand != null && parent == tempGrand.left){
-                    return tempGrand;
+        return null;
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * Sort the elements of a batch and move the distinct ones to the front
+     * @param batch elements of type E in any order, possibly repeated
+     * @param sorted true if batch is known to be in ascending order
+     * @return the number of distinct elements
+     */
+    private int sortUnique(Object[] batch, boolean sorted)
+            throws NullPointerException, ClassCastException{
+            for(Object each: batch){
+                if(each == null){
+                    throw new NullPointerException();
                 }
-                parent = tempGrand;
             }
-            //If the while loop ends and no successor is found
-            //Unfortunately, you are the last in the tree
-            return null;
-        }
+            //A batch not known to be sorted is checked first and only
+            //sorted when it has to be
+            if(!sorted && !isSorted(batch)){
+                if(comparator == null){
+                    Arrays.sort(batch);
+                }else{
+                    Arrays.sort(batch, (a, b) -> compare(element(a), element(b)));
+                }
+            }
+
+            //Squeeze out repeated elements
+            int unique = batch.length == 0 ? 0 : 1;
+            for(int i = 1; i < batch.length; i++){
+                if(compare(element(batch[i]), element(batch[unique - 1])) != 0){
+                    batch[unique++] = batch[i];
+                }
+            }
+            return unique;
     }
 
     /**
-     * Temporary Stringalize method to see the structure
-     * @return string representation of the tree
+     * Replace the content of the tree by sorted distinct elements
+     * @param sorted the elements in ascending order
+     * @param count number of elements to use from sorted
      */
-    private void printFamily(Node n){
-        Queue<Node> nodes = new ArrayDeque<Node>();
-        if(n!=null) nodes.add(n);
-        while(!nodes.isEmpty()){
-            Node toPrint = nodes.poll();
-            System.out.print(toPrint);
-            System.out.print("h("+this.height(toPrint)+") ");
-            if(toPrint.left != null) nodes.add(toPrint.left);
-            if(toPrint.right != null) nodes.add(toPrint.right);
+    private void build(Object[] sorted, int count){
+        this.pending = null;
+        this.pendingCount = 0;
+        this.root = buildFromSorted(sorted, 0, count - 1, 0, redLevel(count));
+        if(this.root != null) this.root.parent = null;
+        findEdges();
+        this.size = count;
+        this.modCount++;
+    }
+
+    /**
+     * Run a set operation over the Nodes of two trees and empty them
+     * @param first a tree
+     * @param second another tree
+     * @param operation UNION, INTERSECTION or DIFFERENCE
+     * @return a new tree holding the result
+     */
+    private static <E extends Comparable<? super E>> BST12RB<E> combine(
+            BST12RB<E> first, BST12RB<E> second, int operation)
+            throws NullPointerException, IllegalArgumentException{
+            if(first == null || second == null){
+                throw new NullPointerException();
+            }
+            if(first == second || !Objects.equals(first.comparator, second.comparator)){
+                throw new IllegalArgumentException();
+            }
+
+            first.flush();
+            second.flush();
+            BST12RB<E> result = new BST12RB<E>(first.comparator);
+            result.absorb(first.root, second.root, operation);
+            first.clear();
+            second.clear();
+            return result;
+    }
+
+    /**
+     * Make this tree the result of a set operation over two subtrees
+     * @param first root of a valid subtree, may be null
+     * @param second root of a valid subtree, may be null
+     * @param operation UNION, INTERSECTION or DIFFERENCE
+     */
+    private void absorb(Node first, Node second, int operation){
+        this.root = ForkJoinPool.commonPool().invoke(
+                new SetTask(first, second, operation));
+        if(this.root != null){
+            this.root.parent = null;
+            this.root.color = true;
         }
-        System.out.println();
+        findEdges();
+        this.size = sizeOf(this.root);
     }
 
     /**
-     * This method searches for the appropriate parent for the given element
-     * Precondition: The tree should not be empty
-     * !!!This method cannot be used to search an element stored in the root
-     * @param e the element who needs a parent
-     * @param the parent for the passed in element
-     * (null if the element already exists)
+     * Cut a subtree around a key. Only the Nodes on the search path are
+     * moved, the joins on the way up cost O(log n) together because the
+     * black heights only grow. The black depth of every subtree off the
+     * path follows from its parent on the way down, so no spine is walked
+     * @param top root of a valid subtree, may be null
+     * @param topBlack the black depth of top
+     * @param key where to cut
+     * @param parts receives the subtree lower than key at 0 and the one
+     * higher than key at 1
+     * @param black receives the black depths of the two parts
+     * @return the unlinked Node holding key, null if there is none
      */
-    private Node searchParent(E e) throws NullPointerException{
-        if(this.isEmpty() || e==null){
-            throw new NullPointerException();
+    private Node split(Node top, int topBlack, E key, Node[] parts,
+            int[] black){
+        //Record the search path, each Node on it is a pivot for one side,
+        //with the black depth of its children
+        List<Node> path = new ArrayList<Node>();
+        List<Integer> below = new ArrayList<Integer>();
+        Node found = null;
+        int depth = topBlack;
+        for(Node current = top; current != null; ){
+            if(current.color) depth--;
+            int cmp = compare(key, current.element);
+            if(cmp == 0){
+                found = current;
+                break;
+            }
+            path.add(current);
+            below.add(depth);
+            current = cmp < 0 ? current.left : current.right;
         }
 
-        Node curParent = null;
-        Node current = root;
-        while(current != null){
-            curParent = current;
-            if(e.compareTo(curParent.element) < 0){
-                current = curParent.left;
-            }else if(e.compareTo(curParent.element) > 0){
-                current = curParent.right;
+        //Bottom-up, glue every pivot and the subtree off the path to the
+        //side it belongs to
+        Node lower = found == null ? null : found.left;
+        Node higher = found == null ? null : found.right;
+        int lowerBlack = found == null ? 0 : depth;
+        int higherBlack = lowerBlack;
+        for(int i = path.size() - 1; i >= 0; i--){
+            Node pivot = path.get(i);
+            if(compare(key, pivot.element) < 0){
+                higher = join(higher, higherBlack, pivot, pivot.right,
+                        below.get(i));
+                higherBlack = joinedBlack;
             }else{
-                return null;
+                lower = join(pivot.left, below.get(i), pivot, lower,
+                        lowerBlack);
+                lowerBlack = joinedBlack;
             }
         }
+        if(lower != null) lower.parent = null;
+        if(higher != null) higher.parent = null;
+        parts[0] = lower;
+        parts[1] = higher;
+        black[0] = lowerBlack;
+        black[1] = higherBlack;
+        return found;
+    }
 
-        return curParent;
+    /**
+     * Link two subtrees under a middle Node, finding their black depths
+     * first
+     * @param lower root of a valid subtree lower than middle, may be null
+     * @param middle the Node between them, its links are reset
+     * @param upper root of a valid subtree higher than middle, may be null
+     * @return the root of the joined subtree
+     */
+    private Node join(Node lower, Node middle, Node upper){
+        return join(lower, blackDepth(lower), middle, upper, blackDepth(upper));
     }
 
     /**
-     * Unlike searchParent, this searches the Node itself
-     * @param e the element in the tree
-     * @return the Node that stores e
+     * Link two subtrees under a middle Node. The root of this tree is used
+     * as scratch while the result is balanced, the caller stores it
+     * The lower subtree hangs from the right spine of the upper one, or
+     * the other way around, at the first black Node of the same black
+     * height, and only that spine is touched. The black depth of the
+     * result is left in joinedBlack
+     * @param lower root of a valid subtree lower than middle, may be null
+     * @param lowerBlack the black depth of lower
+     * @param middle the Node between them, its links are reset
+     * @param upper root of a valid subtree higher than middle, may be null
+     * @param upperBlack the black depth of upper
+     * @return the root of the joined subtree
      */
-    private Node search(E e) throws NullPointerException{
-        if(this.isEmpty() || e==null){
-            throw new NullPointerException();
+    private Node join(Node lower, int lowerBlack, Node middle, Node upper,
+            int upperBlack){
+        middle.parent = null;
+        middle.left = null;
+        middle.right = null;
+        middle.color = false;
+        //A subtree with a black root is still valid, a red one gets one
+        //black Node deeper
+        if(lower != null){
+            lower.parent = null;
+            if(!lower.color) lowerBlack++;
+            lower.color = true;
+        }
+        if(upper != null){
+            upper.parent = null;
+            if(!upper.color) upperBlack++;
+            upper.color = true;
         }
 
-        Node current = root;
-        while(current!=null && current.element.compareTo(e) != 0){
-            if(current.element.compareTo(e) < 0){
+        int added = sizeOf(lower) + sizeOf(upper) + 1;
+        Node curParent = null;
+        if(lowerBlack >= upperBlack){
+            this.root = lower;
+            Node current = lower;
+            int black = lowerBlack;
+            while(current != null && (!current.color || black > upperBlack)){
+                if(current.color) black--;
+                current.size += sizeOf(upper) + 1;
+                curParent = current;
                 current = current.right;
-            }else{
+            }
+            middle.left = current;
+            middle.right = upper;
+            if(curParent != null) curParent.right = middle;
+        }else{
+            this.root = upper;
+            Node current = upper;
+            int black = upperBlack;
+            while(current != null && (!current.color || black > lowerBlack)){
+                if(current.color) black--;
+                current.size += sizeOf(lower) + 1;
+                curParent = current;
                 current = current.left;
             }
+            middle.left = lower;
+            middle.right = current;
+            if(curParent != null) curParent.left = middle;
+        }
+        if(middle.left != null) middle.left.parent = middle;
+        if(middle.right != null) middle.right.parent = middle;
+        middle.parent = curParent;
+        middle.size = sizeOf(middle.left) + sizeOf(middle.right) + 1;
+        if(curParent == null) this.root = middle;
+        //Only the spine walked down changed its height
+        for(Node n = middle; n != null; n = n.parent){
+            reheight(n);
         }
 
-        return current;
+        //middle is red like a new Node and may sit under a red one. Only
+        //turning a red root black makes the result deeper
+        joinedBlack = Math.max(lowerBlack, upperBlack);
+        if(balanceRB(middle)){
+            joinedBlack++;
+        }
+        return this.root;
     }
 
     /**
-     * This is a critical method when adding some new Nodes to the tree
-     * It balances the possible 2-red defect brought by the new Node
-     * @param newNode the newly implemanted Node
-     * (might exist before but property being changed)
+     * Link two subtrees without a middle element. The lowest Node of
+     * upper is taken out of it and used as the middle
+     * @param lower root of a valid subtree, may be null
+     * @param upper root of a valid subtree higher than lower, may be null
+     * @return the root of the joined subtree
      */
-    private void balanceRB(Node newNode) throws IllegalStateException{
-        //System.out.println("Entering balanceRB");
-        if(newNode.color){
-            return;
+    private Node join(Node lower, Node upper){
+        if(upper == null){
+            if(lower != null) lower.parent = null;
+            return lower;
         }
-        //If the node itself is the root, simply change it to black
-        if(root == newNode){
-            newNode.color = true;
-            return;
+
+        this.root = upper;
+        upper.parent = null;
+        upper.color = true;
+        Node least = detachLeast();
+        return join(lower, least, this.root);
+    }
+
+    /**
+     * Splice the lowest Node out of the subtree under this.root and fix
+     * the sizes, heights and colours left behind. The Node keeps its
+     * element, unlike remove it is never swapped with another Node
+     * @return the Node taken out, with its links cleared
+     */
+    private Node detachLeast(){
+        Node least = this.root;
+        while(least.left != null){
+            least = least.left;
         }
-        //If the parent Node is black, return
-        if(newNode.parent.color){
-            return;
+        for(Node n = least; n != null; n = n.parent){
+            n.size--;
         }
 
-        //When both the newNode and its parent Node is red, 
-        //it depends on the newNode's uncle Node
-        Node curParent = newNode.parent;
-        Node grandParent = curParent.parent;
-        Node uncle = 
-            curParent==grandParent.left ? grandParent.right : grandParent.left;
-
-        //If the uncle is black or null
-        if(curParent.color == false && (uncle == null || uncle.color == true)){
-            //grandParent.color = false;
-            //curParent.color = true;
-            newNode.color = true;
-            Node recursiveBalance = curParent;
-            //Rotate, make parent become the new root of this partial tree
-            if(grandParent.left == curParent){
-                //To make sure 2-red defects do not appear after rotating, make
-                //new red node, parent red node and grandparent on one line
-                if(curParent.right == newNode){
-                    rotateCClockWise(curParent);
-                    curParent.color = true;
-                    newNode.color = false;
-                    recursiveBalance = newNode;
-                }
-                rotateClockWise(grandParent);
+        //The lowest Node has at most a red leaf on its right, which takes
+        //its place and its black. A leaf is unlinked as it is, detach
+        //never moves elements out of one
+        Node only = least.right;
+        if(only != null){
+            Node curParent = least.parent;
+            if(curParent == null){
+                this.root = only;
             }else{
-                if(curParent.left == newNode){
-                    rotateClockWise(curParent);
-                    curParent.color = true;
-                    newNode.color = false;
-                    recursiveBalance = newNode;
-                }
-                rotateCClockWise(grandParent);
+                curParent.left = only;
             }
-            balanceRB(recursiveBalance);
-            return;
+            only.parent = curParent;
+            only.color = true;
+        }else{
+            detach(least);
         }
-
-        //If the uncle is red, change both parent and uncle to black, 
-        //change grandparent to red
-        //and recursively call
-        if(curParent.color == false && uncle.color == false){
-            curParent.color = true;
-            uncle.color = true;
-            grandParent.color = false;
-            balanceRB(grandParent);
-            return;
+        //least keeps its last parent, every height that changed is above it
+        for(Node n = least.parent; n != null; n = n.parent){
+            reheight(n);
         }
+        least.parent = null;
+        least.left = null;
+        least.right = null;
+        return least;
+    }
 
+    /**
+     * @param n the root of a valid subtree, may be null
+     * @return the number of black Nodes on a path from n down to null
+     */
+    private int blackDepth(Node n){
+        int black = 0;
+        for(; n != null; n = n.left){
+            if(n.color) black++;
+        }
+        return black;
     }
 
     /**
-     * This method rotates a part of the tree based on the pivot given clockwisely
-     * Notice that this method does not promise the property of RB tree 
-     * so it should only be called when you are sure
-     * @param pivot the Node that will be readopted by its child
+     * Keep the elements that are, or are not, in a sorted batch and
+     * rebuild the tree from them, O(n + k)
+     * @param batch distinct elements in ascending order
+     * @param count number of elements to use from batch
+     * @param keepFound true to keep the elements found in batch, false to
+     * keep the others
+     * @return true if any element was dropped
      */
-    private void rotateClockWise(Node pivot) throws IllegalStateException{
-        if(pivot.left == null){
-            throw new IllegalStateException();
+    private boolean filter(Object[] batch, int count, boolean keepFound){
+        Object[] kept = new Object[size];
+        int length = 0;
+        int i = 0;
+        for(Node n = firstNode(); n != null; n = getNext(n)){
+            while(i < count && compare(element(batch[i]), n.element) < 0){
+                i++;
+            }
+            boolean found = i < count
+                && compare(element(batch[i]), n.element) == 0;
+            if(found == keepFound){
+                kept[length++] = n.element;
+            }
+        }
+        if(length == size){
+            return false;
         }
+        build(kept, length);
+        return true;
+    }
 
-        Node curParent = pivot.parent;
-        //The pivot is the root element
-        if(curParent == null){
-            //current parent adopt current left child
-            root = pivot.left;
-            root.parent = curParent;
-            //pivot adopt the right child of its previous left child
-            pivot.left = root.right;
-            if(pivot.left != null) pivot.left.parent = pivot;
-            //previous left child adopt pivot
-            root.right = pivot;
-            pivot.parent = root;
+    /**
+     * @param k the rank of a Node, from 0 to size-1
+     * @return the Node with k elements lower than it
+     */
+    private Node selectNode(int k){
+        Node current = root;
+        while(true){
+            int leftSize = sizeOf(current.left);
+            if(k < leftSize){
+                current = current.left;
+            }else if(k > leftSize){
+                k -= leftSize + 1;
+                current = current.right;
+            }else{
+                return current;
+            }
+        }
+    }
 
-            return;
+    /**
+     * Merge a sorted batch with the elements of the tree and rebuild it,
+     * O(n + k) for a tree of n and a batch of k elements
+     * @param batch distinct elements in ascending order
+     * @param count number of elements to use from batch
+     * @return the number of elements that were not in the tree yet
+     */
+    private int mergeRebuild(Object[] batch, int count){
+        Object[] merged = new Object[size + count];
+        int length = 0;
+        int i = 0;
+        Node current = firstNode();
+        while(current != null || i < count){
+            int cmp = current == null ? 1 :
+                i == count ? -1 : compare(current.element, element(batch[i]));
+            if(cmp <= 0){
+                merged[length++] = current.element;
+                current = getNext(current);
+                if(cmp == 0) i++;
+            }else{
+                merged[length++] = batch[i++];
+            }
         }
-        //If parent is child of some other parent
-        if(curParent.left == pivot){
-            //current parent adopt current left child
-            curParent.left = pivot.left;
-            curParent.left.parent = curParent;
-            //pivot adopt the right child of its previous left child
-            pivot.left = curParent.left.right;
-            if(pivot.left != null) pivot.left.parent = pivot;
-            //previous left child adopt pivot
-            curParent.left.right = pivot;
-            pivot.parent = curParent.left;
+        int added = length - size;
+        build(merged, length);
+        return added;
+    }
+
+    /**
+     * Insert a sorted batch one element at a time. Each search starts from
+     * the Node added before instead of the root, climbing only as far as
+     * needed to reach a subtree that can hold the next element
+     * @param batch distinct elements in ascending order
+     * @param count number of elements to use from batch
+     * @return the number of elements that were not in the tree yet
+     */
+    private int insertSorted(Object[] batch, int count){
+        int before = size;
+        Node finger = null;
+        for(int i = 0; i < count; i++){
+            E e = element(batch[i]);
+            Node start = root;
+            if(finger != null){
+                //Every element under a left child is lower than its parent,
+                //and all of them are above finger, which is below e
+                start = finger;
+                while(start.parent != null && !(start == start.parent.left
+                            && compare(e, start.parent.element) < 0)){
+                    start = start.parent;
+                }
+            }
+            finger = insertUnder(start, e);
+        }
+        return size - before;
+    }
+
+    /**
+     * Add an element below a Node known to cover its place
+     * @param start the Node where the search starts
+     * @param e the element to add
+     * @return the Node holding e, new or already present
+     */
+    private Node insertUnder(Node start, E e){
+        Node curParent = start;
+        int cmp;
+        while(true){
+            cmp = compare(e, curParent.element);
+            if(cmp == 0){
+                return curParent;
+            }
+            Node next = cmp < 0 ? curParent.left : curParent.right;
+            if(next == null){
+                break;
+            }
+            curParent = next;
+        }
+
+        Node toAdd = new Node(e);
+        toAdd.parent = curParent;
+        if(cmp < 0){
+            curParent.left = toAdd;
         }else{
-            //current parent adopt current left child
-            curParent.right = pivot.left;
-            curParent.right.parent = curParent;
-            //pivot adopt the right child of its previous left child
-            pivot.left = curParent.right.right;
-            if(pivot.left != null) pivot.left.parent = pivot;
-            //previous left child adopt pivot
-            curParent.right.right = pivot;
-            pivot.parent = curParent.right;
+            curParent.right = toAdd;
         }
+        if(cmp < 0 && curParent == leftmost){
+            leftmost = toAdd;
+        }
+        if(cmp > 0 && curParent == rightmost){
+            rightmost = toAdd;
+        }
+        for(Node n = curParent; n != null; n = n.parent){
+            n.size++;
+            reheight(n);
+        }
+        balanceRB(toAdd);
+        size++;
+        modCount++;
+        return toAdd;
     }
 
     /**
-     * This method rotates a part of the tree based on the pivot 
-     * given counter clockwisely
-     * Notice that this method does not promise the property of RB tree 
-     * so it should only be called when you are sure
-     * @param pivot the Node that will be readopted by its child
+     * @param e the bound
+     * @param inclusive true if the Node holding e qualifies
+     * @return the Node with the lowest element above e, or equal to it
+     * when inclusive, null if there is none
      */
-    private void rotateCClockWise(Node pivot) throws IllegalStateException{
-        if(pivot.right == null){
-            throw new IllegalStateException();
+    private Node ceilingNode(E e, boolean inclusive) throws NullPointerException{
+        if(e == null){
+            throw new NullPointerException();
         }
 
-        Node curParent = pivot.parent;
-        if(curParent == null){
-            //current parent adopt current right child
-            root = pivot.right;
-            root.parent = curParent;
-            //pivot adopt the left child of its previous right child
-            pivot.right = root.left;
-            if(pivot.right != null) pivot.right.parent = pivot;
-            //previous left child adopt pivot
-            root.left = pivot;
-            pivot.parent = root;
+        Node best = null;
+        Node current = root;
+        while(current != null){
+            int cmp = compare(e, current.element);
+            if(cmp == 0 && inclusive){
+                return current;
+            }
+            if(cmp < 0){
+                best = current;
+                current = current.left;
+            }else{
+                current = current.right;
+            }
+        }
+        return best;
+    }
 
-            return;
+    /**
+     * @param e the bound
+     * @param inclusive true if the Node holding e qualifies
+     * @return the Node with the highest element below e, or equal to it
+     * when inclusive, null if there is none
+     */
+    private Node floorNode(E e, boolean inclusive) throws NullPointerException{
+        if(e == null){
+            throw new NullPointerException();
         }
-        if(curParent.left == pivot){
-            //current parent adopt current right child
-            curParent.left = pivot.right;
-            curParent.left.parent = curParent;
-            //pivot adopt the left child of its previous right child
-            pivot.right = curParent.left.left;
-            if(pivot.right != null) pivot.right.parent = pivot;
-            //previous left child adopt pivot
-            curParent.left.left = pivot;
-            pivot.parent = curParent.left;
-        }else{
-            //current parent adopt current right child
-            curParent.right = pivot.right;
-            curParent.right.parent = curParent;
-            //pivot adopt the left child of its previous right child
-            pivot.right = curParent.right.left;
-            if(pivot.right != null) pivot.right.parent = pivot;
-            //previous left child adopt pivot
-            curParent.right.left = pivot;
-            pivot.parent = curParent.right;
+
+        Node best = null;
+        Node current = root;
+        while(current != null){
+            int cmp = compare(e, current.element);
+            if(cmp == 0 && inclusive){
+                return current;
+            }
+            if(cmp > 0){
+                best = current;
+                current = current.right;
+            }else{
+                current = current.left;
+            }
         }
+        return best;
     }
 
     /**
-     * find the height of a given node
-     * @return the height of the given node
+     * @param n a Node, may be null
+     * @return the element of n, null for null
      */
-    private int height(Node n){
-        if(n == null){
-            return 0;
-        }else{
-            return 1+Math.max(height(n.left), height(n.right));
+    private E elementOf(Node n){
+        return n == null ? null : n.element;
+    }
+
+    /**
+     * @param bound an element
+     * @param inclusive true to count bound itself
+     * @return the number of elements lower than bound, or equal to it
+     * when inclusive
+     */
+    private int countBelow(E bound, boolean inclusive){
+        int lower = rank(bound);
+        if(inclusive && !this.isEmpty() && this.contains(bound)){
+            lower++;
         }
+        return lower;
     }
 
     /**
-     * find the number of children under current given Node
-     * @return the number of children
+     * @return the Node holding the lowest element, null if empty
      */
-    private int numChildren(Node n){
+    private Node firstNode(){
+        Node current = root;
+        if(current != null){
+            while(current.left != null){
+                current = current.left;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @param n a Node of the tree
+     * @return the number of elements lower than the one in n, O(log n)
+     */
+    private int rankOf(Node n){
+        int lower = sizeOf(n.left);
+        for(Node child = n; child.parent != null; child = child.parent){
+            if(child == child.parent.right){
+                lower += sizeOf(child.parent.left) + 1;
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * @return the Node holding the highest element, null if empty
+     */
+    private Node lastNode(){
+        Node current = root;
+        if(current != null){
+            while(current.right != null){
+                current = current.right;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @param array elements of type E
+     * @return true if the array is in ascending order
+     */
+    private boolean isSorted(Object[] array){
+        for(int i = 1; i < array.length; i++){
+            if(compare(element(array[i - 1]), element(array[i])) > 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Link a balanced subtree over a sorted range of distinct elements.
+     * All levels are full and black except the deepest one, which is red
+     * when it is not complete, so every path has the same black count
+     * @param sorted the elements in ascending order
+     * @param lo first index of the range
+     * @param hi last index of the range
+     * @param level depth of the subtree root, the root of the tree is 0
+     * @param redLevel the depth to color red
+     * @return the root of the subtree, null for an empty range
+     */
+    private Node buildFromSorted(Object[] sorted, int lo, int hi,
+            int level, int redLevel){
+        if(lo > hi){
+            return null;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        Node middle = new Node(element(sorted[mid]));
+        middle.color = level != redLevel;
+        middle.size = hi - lo + 1;
+        middle.left = buildFromSorted(sorted, lo, mid - 1, level + 1, redLevel);
+        if(middle.left != null) middle.left.parent = middle;
+        middle.right = buildFromSorted(sorted, mid + 1, hi, level + 1, redLevel);
+        if(middle.right != null) middle.right.parent = middle;
+        reheight(middle);
+        return middle;
+    }
+
+    /**
+     * @param n number of Nodes of a tree built by buildFromSorted
+     * @return the depth of its deepest level, the one that is colored red
+     */
+    private static int redLevel(int n){
+        int level = 0;
+        for(int m = n - 1; m >= 0; m = m / 2 - 1){
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * A generic array of Nodes cannot be created directly
+     * @return an array for the two parts of a split
+     */
+    private Node[] newParts(){
+        return newNodes(2);
+    }
+
+    /**
+     * @param n the length of the array
+     * @return an array for n Nodes
+     */
+    @SuppressWarnings("unchecked")
+    private Node[] newNodes(int n){
+        return (Node[])new BST12RB<?>.Node[n];
+    }
+
+    /**
+     * Every comparison of the tree goes through here
+     * @param a an element
+     * @param b another element
+     * @return the sign of a - b in the order of the tree
+     */
+    private int compare(E a, E b){
+        return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E element(Object o){
+        return (E)o;
+    }
+
+    /**
+     * remove keeps the Node of a successor and moves its element, so the
+     * element has to be taken first
+     * @param n a Node of the tree, or null
+     * @return the element n held, null if n is null
+     */
+    private E poll(Node n){
         if(n == null){
-            return 0;
-        }else{
-            int directChild = 0;
-            if(n.left != null) directChild++;
-            if(n.right != null) directChild++;
-            return numChildren(n.left)+numChildren(n.right)+directChild;
+            return null;
         }
+        E polled = n.element;
+        unlink(n);
+        return polled;
     }
 
     /**
-     * This method tests if there are two continuous red Nodes
-     * @param n the Node whose subfamily will be tested
-     * @return true if there are two continuos red Node
+     * @return a view without bounds
      */
-    private boolean hasTwoRed(Node n){
-        //base cases
-        if(n == null) return false;
-        if(n.left == null && n.right == null) return false;
-        if(n.left != null && (!n.left.color && !n.color)) return true;
-        if(n.right != null && (!n.right.color && !n.color)) return true;
+    private RangeView all(){
+        return new RangeView(null, false, null, false);
+    }
 
-        //recurse
-        return hasTwoRed(n.left) || hasTwoRed(n.right);   
+    /**
+     * Find the lowest and the highest Node again after the tree was put
+     * together from other trees or from scratch
+     */
+    private void findEdges(){
+        leftmost = firstNode();
+        rightmost = lastNode();
     }
 
     /**
-     * This helper method calculates the black height of a Node
-     * null is considered as 0
-     * @param n the Node whose black height is expected
-     * @return the black height of n
+     * Link an element above the highest one as the right child of the
+     * highest Node. Under DEFERRED the new Node is left unbalanced at the
+     * end of the pending chain until the batch is full
+     * @param highest the Node with the highest element
+     * @param e the element to be added
      */
-    private int blackHeight(Node n) throws IllegalStateException{
-        //base case
-        if(n == null) return 0;
+    private void append(Node highest, E e){
+        Node toAdd = new Node(e);
+        toAdd.parent = highest;
+        highest.right = toAdd;
+        rightmost = toAdd;
+        for(Node n = highest; n != null; n = n.parent){
+            n.size++;
+            reheight(n);
+        }
+        if(policy == InsertionPolicy.DEFERRED){
+            if(pending == null){
+                pending = toAdd;
+            }
+            pendingCount++;
+        }else{
+            balanceRB(toAdd);
+        }
 
-        int leftBlack = blackHeight(n.left);
-        int rightBlack = blackHeight(n.right);
-        if(leftBlack != rightBlack){
-            throw new IllegalStateException();
+        size++;
+        modCount++;
+        if(pendingCount >= DEFERRED_BATCH){
+            flush();
+        }
+    }
+
+    /**
+     * Balance the chain appended under DEFERRED. It is cut off the tree,
+     * its own Nodes are relinked as a balanced subtree and that is joined
+     * back in O(log n). Every Node keeps its element, so neither the
+     * iterators nor the cached lowest and highest Nodes notice
+     */
+    private void flush(){
+        if(pending == null){
+            return;
+        }
+
+        int count = pendingCount;
+        Node[] chain = newNodes(count);
+        Node current = pending;
+        for(int i = 0; i < count; i++){
+            chain[i] = current;
+            current = current.right;
+        }
+        Node curParent = pending.parent;
+        if(curParent == null){
+            this.root = null;
         }else{
-            if(n.color == false) return leftBlack;
-            else return 1+leftBlack;
+            curParent.right = null;
+            for(Node n = curParent; n != null; n = n.parent){
+                n.size -= count;
+                reheight(n);
+            }
         }
+        pending = null;
+        pendingCount = 0;
+
+        //The lowest Node of the chain is the middle of the join
+        Node upper = linkBalanced(chain, 1, count - 1, 0, redLevel(count - 1));
+        if(upper != null) upper.parent = null;
+        this.root = join(this.root, chain[0], upper);
     }
 
     /**
-     * This class defines the elements that constitute of a BST12RBTree
+     * buildFromSorted for Nodes that already exist
+     * @param nodes Nodes in ascending order of their elements
+     * @param lo first index of the range
+     * @param hi last index of the range
+     * @param level depth of the subtree root
+     * @param redLevel the depth to color red
+     * @return the root of the subtree, null for an empty range
      */
-    private class Node{
-        //Instance variables are of default scope 
-        //so in BST12RB they can be direcly accessed
-        Node parent;
-        Node left;
-        Node right;
-        boolean color;
-        E element;
+    private Node linkBalanced(Node[] nodes, int lo, int hi, int level, int redLevel){
+        if(lo > hi){
+            return null;
+        }
 
-        /**
-         * default constructor which will initialize the element and make it red
-         * @param e the element to be assigned
-         */
-        public Node(E e){
-            //default setting for new Node
-            this.parent = null;
-            this.left = null;
-            this.right = null;
-            //Color is initialized to be red
-            this.color = false;
-            this.element = e;
+        int mid = (lo + hi) >>> 1;
+        Node middle = nodes[mid];
+        middle.color = level != redLevel;
+        middle.size = hi - lo + 1;
+        middle.left = linkBalanced(nodes, lo, mid - 1, level + 1, redLevel);
+        if(middle.left != null) middle.left.parent = middle;
+        middle.right = linkBalanced(nodes, mid + 1, hi, level + 1, redLevel);
+        if(middle.right != null) middle.right.parent = middle;
+        reheight(middle);
+        return middle;
+    }
+
+    /**
+     * Remove a Node already found and account for it
+     * @param toRemove a Node of the tree
+     */
+    private void unlink(Node toRemove){
+        flush();
+        remove(toRemove);
+        this.size--;
+        this.modCount++;
+    }
+
+    /**
+     * private helper method for remove
+     * @param toRemove node to remove
+     * @return true if the Node is removed
+     */
+    private boolean remove(Node toRemove) throws NullPointerException{
+        if(toRemove == null){
+            throw new NullPointerException();
+        }
+
+        //A Node with two children keeps its place and takes the element of
+        //its successor, found by going on down from it, which is removed
+        //instead
+        if(toRemove.left != null && toRemove.right != null){
+            Node successor = toRemove.right;
+            while(successor.left != null){
+                successor = successor.left;
+            }
+            toRemove.element = successor.element;
+            toRemove = successor;
+        }
+
+        //The cached edges follow their elements. Rotations keep every
+        //element in its Node, only the copies below move one: a leaf hands
+        //an edge to its parent, a root gives its place to its only child,
+        //and any other Node takes the element of its only child
+        Node only = toRemove.left != null ? toRemove.left : toRemove.right;
+        if(only == null){
+            if(toRemove == leftmost) leftmost = toRemove.parent;
+            if(toRemove == rightmost) rightmost = toRemove.parent;
+        }else if(toRemove == root){
+            if(toRemove == leftmost) leftmost = only;
+            if(toRemove == rightmost) rightmost = only;
+        }else{
+            if(only == leftmost) leftmost = toRemove;
+            if(only == rightmost) rightmost = toRemove;
+        }
+
+        //A Node with at most one child is the one that leaves the tree:
+        //itself if it is a leaf, its only child otherwise. Either way every
+        //subtree from here up loses one Node. A leaf drops to size 0 and
+        //stays so while rotations move it around until it is unlinked
+        for(Node n = toRemove; n != null; n = n.parent){
+            n.size--;
+        }
+
+        //The Node that leaves is toRemove, or its only child when that
+        //moves its element up. It keeps its parent, and every height that
+        //changed is on the way up from there
+        Node gone = only != null && toRemove != root ? only : toRemove;
+        boolean removed = detach(toRemove);
+        for(Node n = gone.parent; n != null; n = n.parent){
+            reheight(n);
+        }
+        return removed;
+    }
+
+    /**
+     * Unlink a Node with at most one child and balance what it leaves
+     * behind
+     * @param toRemove node to remove, with at most one child
+     * @return true if the Node is removed
+     */
+    private boolean detach(Node toRemove){
+        //Start the long process
+        //When the toRemove node is red
+        if(!toRemove.color){
+            //System.out.println("removing red Node");
+            //A red Node with at most one child is a leaf
+            //Directly forget this Node
+            Node curParent = toRemove.parent;
+            if(curParent.left == toRemove){
+                curParent.left = null;
+            }else{
+                curParent.right = null;
+            }
+            return true;
+        }
+        //When toRemove is the root Node
+        else if(toRemove == root){
+            //System.out.println("removing root");
+            //root Node must be black
+            //If there's no Child
+            if(toRemove.left == null && toRemove.right == null){
+                this.root = null;
+                return true;
+            }
+            //If there's only one Child
+            if(toRemove.left == null && toRemove.right != null){
+                this.root = toRemove.right;
+                this.root.parent = null;
+                balanceRB(this.root);
+                return true;
+            }
+            if(toRemove.right == null && toRemove.left != null){
+                this.root = toRemove.left;
+                this.root.parent = null;
+                balanceRB(this.root);
+                return true;
+            }
+        }
+        //Black Node to be removed
+        else{
+            //System.out.println("removing black Node");
+            //The Node has at most one child
+            Node curParent = toRemove.parent;
+            //When there's a red child
+            if(toRemove.left!=null || toRemove.right!=null){
+                if(toRemove.left != null){
+                    toRemove.element = toRemove.left.element;
+                    toRemove.left = null;
+                }else{
+                    toRemove.element = toRemove.right.element;
+                    toRemove.right = null;
+                }
+            }
+            //When the parent is red(easy)
+            else if(curParent.color == false){
+                if(toRemove == curParent.left){
+                    //Before rotation, remember the left Child of sibling
+                    Node nephew = curParent.right.left;
+                    //Rotate with curParent as pivot
+                    rotateCClockWise(curParent);
+                    //Adopt the child of toRemove and resolve 2-red defect
+                    curParent.left = 
+                        toRemove.left==null? toRemove.right : toRemove.left;
+                    if(curParent.left != null){
+                        curParent.left.parent = curParent;
+                        balanceRB(curParent.left);  
+                    }
+
+                    //Whereever the nephew is now balance it
+                    if(nephew != null && nephew.color == false){
+                        balanceRB(nephew);
+                    }
+                    return true;
+                }else{
+                    //Before rotation, remember the right Child of sibling
+                    Node nephew = curParent.left.right;
+                    //Rotate with curParent as pivot
+                    rotateClockWise(toRemove.parent);
+                    //Adopt the child of toRemove and resolve 2-red defect
+                    curParent.right = 
+                        toRemove.left==null? toRemove.right : toRemove.left;
+                    if(curParent.right != null){
+                        curParent.right.parent = curParent;
+                        balanceRB(curParent.right);
+                    }
+
+                    //Whereever the nephew is now, balance it
+                    if(nephew != null){
+                        balanceRB(nephew);
+                    }
+                    return true;
+                }
+            }
+            //When the parent Node is black and there's no red Child
+            //There are 2 situations, when the sibling is red
+            //or when the sibling is black
+            //sibling cannot be null
+            else{
+                Node sibling = 
+                    toRemove == curParent.left? curParent.right : curParent.left;
+                //If parent is root and the sibling is black
+                if(curParent == root && sibling.color == true){
+                    //System.out.println("temp1");
+                    //Stop parentship
+                    Node child = 
+                        toRemove.left==null?toRemove.right:toRemove.left;
+                    if(sibling == curParent.left){
+                        curParent.right = child;
+                    }else{
+                        curParent.left = child;
+                    }
+                    if(child!=null) child.parent = curParent;
+
+                    sibling.color = false;
+                    Node nephew1 = sibling.left;
+                    Node nephew2 = sibling.right;
+                    if(nephew1 != null) balanceRB(nephew1);
+                    if(nephew2 != null) balanceRB(nephew2);
+                    return true;
+                }
+                //When the sibling is red, it's quite easy and doesn't
+                //matter if the parent his root
+                if(sibling.color == false){
+                    if(toRemove == curParent.right){
+                        //Stop parentship
+                        curParent.right = 
+                            toRemove.left==null?toRemove.right:toRemove.left;
+                        if(curParent.right!=null) 
+                            curParent.right.parent = curParent;
+                        rotateClockWise(curParent);
+                    }else{
+                        //Stop parentship
+                        curParent.left =
+                            toRemove.left==null?toRemove.right:toRemove.left;
+                        if(curParent.left!=null) 
+                            curParent.left.parent = curParent;
+                        rotateCClockWise(curParent);
+                    }
+                    //Recolor
+                    sibling.color = true;
+
+                    Node child1 = curParent.left;
+                    Node child2 = curParent.right;
+                    if(child1 != null) child1.color = false;
+                    if(child2 != null) child2.color = false;
+                    if(child1!=null){
+                        Node grandChild1 = child1.left;
+                        Node grandChild2 = child1.right;
+                        if(grandChild1 != null) balanceRB(grandChild1);
+                        if(grandChild2 != null) balanceRB(grandChild2);
+                    }
+                    if(child2 != null){
+                        Node grandChild1 = child2.left;
+                        Node grandChild2 = child2.right;
+                        if(grandChild1 != null) balanceRB(grandChild1);
+                        if(grandChild2 != null) balanceRB(grandChild2);;
+                    }
+                    return true;
+                }
+                //When the sibling is black and curParent is not root
+                else{
+                    //When the sibling still has a red child
+                    boolean siblingOnLeft = 
+                        curParent.left==sibling? true : false;
+                    boolean redOnLeft = 
+                        sibling.left!=null && !sibling.left.color;
+                    boolean redOnRight = 
+                        sibling.right!=null && !sibling.right.color;
+                    if(redOnLeft || redOnRight){
+                        if(toRemove == curParent.right){
+                            //Stop parentship
+                            curParent.right = 
+                                toRemove.left==null?toRemove.right:toRemove.left;
+                            if(curParent.right!=null) 
+                                curParent.right.parent = curParent;
+                        }else{
+                            //Stop parentship
+                            curParent.left =
+                                toRemove.left==null?toRemove.right:toRemove.left;
+                            if(curParent.left!=null) 
+                                curParent.left.parent = curParent;
+                        }
+                        if(siblingOnLeft){
+                            if(!redOnLeft){
+                                rotateCClockWise(sibling);
+                                sibling.parent.color = true;
+                                rotateClockWise(curParent);
+                            }else{
+                                sibling.left.color = true;
+                                rotateClockWise(curParent);
+                            }
+                            return true;
+                        }else{
+                            if(!redOnRight){
+                                rotateClockWise(sibling);
+                                sibling.parent.color = true;
+                                rotateCClockWise(curParent);
+                            }else{
+                                sibling.right.color = true;
+                                rotateCClockWise(curParent);
+                            }
+                            return true;
+                        }
+                    }
+                    //When sibling has no red child
+                    //Sadly, you are surrounded by black!!!
+                    //In Chinese we call this '四面楚歌'
+                    else{
+                        //Stop parentship
+                        if(siblingOnLeft){
+                            curParent.right = null;
+                        }else{
+                            curParent.left = null;
+                        }
+                        //Balance the black number under this parent
+                        sibling.color = false;
+                        //ask the parent to figure out what to do
+                        hasLessBlack(curParent);
+                        return true;
+                    }
+
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to balance a Node when paths through it has one less
+     * black then others
+     * Precondition: defect is itself black(or why not sacrificing yourself!)
+     * defect is one less black than its sibling!
+     * It's not a parent of branches with different blacks!!
+     * It runs as a loop, the defect only ever moves up
+     * @param defect the Node with 1 black Node less
+     */
+    private void hasLessBlack(Node defect) 
+            throws NullPointerException, IllegalStateException{
+            //System.out.println("Entering hasLessBlack");
+            if(defect == null){
+                throw new NullPointerException();
+            }
+
+            //Every step either ends or moves the defect up the tree
+            while(true){
+                if(defect.color == false){
+                    //throw new IllegalStateException();
+                    defect.color = true;
+                    return;
+                }
+
+                //Base case
+                if(defect == root){
+                    return;
+                }
+                Node curParent = defect.parent;
+                Node sibling = defect==curParent.left?curParent.right:curParent.left;
+                //Also a base case(curParent is red)
+                if(!curParent.color){
+                    //Remember the nephew that will be taken by CurParent
+                    Node stepSibling;
+                    if(curParent.left == sibling){
+                        stepSibling = sibling.right;
+                        rotateClockWise(curParent);
+                    }else{
+                        stepSibling = sibling.left;
+                        rotateCClockWise(curParent);
+                    }
+                    balanceRB(stepSibling);
+                    return;
+                }
+                //Another base case that repels the previous one
+                //(sibling is red)
+                if(sibling.color == false){
+                    if(sibling == curParent.left){
+                        rotateClockWise(curParent);
+                        sibling.color = true;
+                        curParent.color = false;
+                        continue;
+                    }else{
+                        rotateCClockWise(curParent);
+                        sibling.color = true;
+                        curParent.color = false;
+                        continue;
+                    }
+                }
+                //Or if the sibling is not black but both its children are red
+                if(sibling.left!=null&&sibling.left.color==false
+                        &&sibling.right!=null&&sibling.right.color==false){
+                    sibling.color = false;
+                    sibling.left.color = true;
+                    sibling.right.color = true;
+                    //Now fits in the previous situation
+                    continue;
+                        }
+                //Surprisingly, if one of its child is red, it's still base case(almost)
+                if(sibling == curParent.right){
+                    if(sibling.left!=null && sibling.left.color == false){
+                        sibling.left.color = true;
+                        rotateClockWise(sibling);
+                        rotateCClockWise(curParent);
+                        return;
+                    }
+                    if(sibling.right!=null && sibling.right.color == false){
+                        sibling.right.color = true;
+                        rotateCClockWise(curParent);
+                        return;
+                    }
+                }
+                if(sibling == curParent.left){
+                    if(sibling.left!=null && sibling.left.color == false){
+                        sibling.left.color = true;
+                        rotateClockWise(curParent);
+                        return;
+                    }
+                    if(sibling.right!=null && sibling.right.color == false){
+                        sibling.right.color = true;
+                        rotateCClockWise(sibling);
+                        rotateClockWise(curParent);
+                        return;
+                    }
+                }
+
+                //When the parent,sibling, nephews are all black
+                sibling.color = false;
+                defect = curParent;
+            }
+    }
+
+    /**
+     * Another very important helper method, find the successor of current Node
+     * @param curNode the node whose successor is needed
+     * @return the node with value that is JUST after the passed in Node
+     */
+    private Node getNext(Node curNode) throws NullPointerException{
+        if(curNode == null){
+            throw new NullPointerException();
+        }
+
+        Node parent = curNode.parent;
+        //The best choice is the biggest Child of right Child
+        if(curNode.right != null){
+            Node tempLeft = curNode.right;
+            while(tempLeft != null){
+                curNode = tempLeft;
+                tempLeft = curNode.left;
+            }
+            return curNode;
+        }
+        //Or its parent if curNode is left Child
+        else if(parent != null && curNode == parent.left){
+            return parent;
+        }
+        //or if the curNode is the right Child of its parent(sad :( )
+        else{
+            while(parent != null){
+                Node tempGrand = parent.parent;
+                if(tempGrand != null && parent == tempGrand.left){
+                    return tempGrand;
+                }
+                parent = tempGrand;
+            }
+            //If the while loop ends and no successor is found
+            //Unfortunately, you are the last in the tree
+            return null;
+        }
+    }
+
+    /**
+     * The mirror of getNext, find the predecessor of current Node
+     * @param curNode the node whose predecessor is needed
+     * @return the node with value that is JUST before the passed in Node
+     */
+    private Node getPrev(Node curNode) throws NullPointerException{
+        if(curNode == null){
+            throw new NullPointerException();
+        }
+
+        //The biggest Child of left Child
+        if(curNode.left != null){
+            Node current = curNode.left;
+            while(current.right != null){
+                current = current.right;
+            }
+            return current;
+        }
+        //Or the first ancestor that curNode is on the right of
+        Node child = curNode;
+        Node parent = curNode.parent;
+        while(parent != null && child == parent.left){
+            child = parent;
+            parent = parent.parent;
+        }
+        return parent;
+    }
+
+    /**
+     * Temporary Stringalize method to see the structure
+     * @return string representation of the tree
+     */
+    private void printFamily(Node n){
+        Queue<Node> nodes = new ArrayDeque<Node>();
+        if(n!=null) nodes.add(n);
+        while(!nodes.isEmpty()){
+            Node toPrint = nodes.poll();
+            System.out.print(toPrint);
+            System.out.print("h("+heightOf(toPrint)+") ");
+            if(toPrint.left != null) nodes.add(toPrint.left);
+            if(toPrint.right != null) nodes.add(toPrint.right);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Search the Node holding an element, one comparison per level
+     * @param e the element in the tree
+     * @return the Node that stores e, null if there is none
+     */
+    private Node search(E e) throws NullPointerException{
+        if(this.isEmpty() || e==null){
+            throw new NullPointerException();
+        }
+
+        Node current = root;
+        int cmp;
+        while(current != null && (cmp = compare(e, current.element)) != 0){
+            current = cmp < 0 ? current.left : current.right;
+        }
+
+        return current;
+    }
+
+    /**
+     * This is a critical method when adding some new Nodes to the tree
+     * It balances the possible 2-red defect brought by the new Node
+     * It runs as a loop, so a long way up cannot overflow the stack
+     * @param newNode the newly implemanted Node
+     * (might exist before but property being changed)
+     * @return true if a red root was turned black, which makes every path
+     * one black Node longer
+     */
+    private boolean balanceRB(Node newNode) throws IllegalStateException{
+        //System.out.println("Entering balanceRB");
+        //Every step either ends or moves the defect up the tree
+        while(true){
+            if(newNode.color){
+                return false;
+            }
+            //If the node itself is the root, simply change it to black
+            if(root == newNode){
+                newNode.color = true;
+                return true;
+            }
+            //If the parent Node is black, return
+            if(newNode.parent.color){
+                return false;
+            }
+
+            //When both the newNode and its parent Node is red, 
+            //it depends on the newNode's uncle Node
+            Node curParent = newNode.parent;
+            Node grandParent = curParent.parent;
+            Node uncle = 
+                curParent==grandParent.left ? grandParent.right : grandParent.left;
+
+            //If the uncle is black or null
+            if(curParent.color == false && (uncle == null || uncle.color == true)){
+                //grandParent.color = false;
+                //curParent.color = true;
+                newNode.color = true;
+                Node nextBalance = curParent;
+                //Rotate, make parent become the new root of this partial tree
+                if(grandParent.left == curParent){
+                    //To make sure 2-red defects do not appear after rotating, make
+                    //new red node, parent red node and grandparent on one line
+                    if(curParent.right == newNode){
+                        rotateCClockWise(curParent);
+                        curParent.color = true;
+                        newNode.color = false;
+                        nextBalance = newNode;
+                    }
+                    rotateClockWise(grandParent);
+                }else{
+                    if(curParent.left == newNode){
+                        rotateClockWise(curParent);
+                        curParent.color = true;
+                        newNode.color = false;
+                        nextBalance = newNode;
+                    }
+                    rotateCClockWise(grandParent);
+                }
+                newNode = nextBalance;
+                continue;
+            }
+
+            //If the uncle is red, change both parent and uncle to black, 
+            //change grandparent to red
+            //and go on with it
+            if(curParent.color == false && uncle.color == false){
+                curParent.color = true;
+                uncle.color = true;
+                grandParent.color = false;
+                newNode = grandParent;
+                continue;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * This method rotates a part of the tree based on the pivot given clockwisely
+     * Notice that this method does not promise the property of RB tree 
+     * so it should only be called when you are sure
+     * @param pivot the Node that will be readopted by its child
+     */
+    private void rotateClockWise(Node pivot) throws IllegalStateException{
+        if(pivot.left == null){
+            throw new IllegalStateException();
+        }
+
+        Node curParent = pivot.parent;
+        //The pivot is the root element
+        if(curParent == null){
+            //current parent adopt current left child
+            root = pivot.left;
+            root.parent = curParent;
+            //pivot adopt the right child of its previous left child
+            pivot.left = root.right;
+            if(pivot.left != null) pivot.left.parent = pivot;
+            //previous left child adopt pivot
+            root.right = pivot;
+            pivot.parent = root;
+
+            resize(pivot, root);
+            return;
+        }
+        //If parent is child of some other parent
+        if(curParent.left == pivot){
+            //current parent adopt current left child
+            curParent.left = pivot.left;
+            curParent.left.parent = curParent;
+            //pivot adopt the right child of its previous left child
+            pivot.left = curParent.left.right;
+            if(pivot.left != null) pivot.left.parent = pivot;
+            //previous left child adopt pivot
+            curParent.left.right = pivot;
+            pivot.parent = curParent.left;
+        }else{
+            //current parent adopt current left child
+            curParent.right = pivot.left;
+            curParent.right.parent = curParent;
+            //pivot adopt the right child of its previous left child
+            pivot.left = curParent.right.right;
+            if(pivot.left != null) pivot.left.parent = pivot;
+            //previous left child adopt pivot
+            curParent.right.right = pivot;
+            pivot.parent = curParent.right;
+        }
+        resize(pivot, pivot.parent);
+    }
+
+    /**
+     * This method rotates a part of the tree based on the pivot 
+     * given counter clockwisely
+     * Notice that this method does not promise the property of RB tree 
+     * so it should only be called when you are sure
+     * @param pivot the Node that will be readopted by its child
+     */
+    private void rotateCClockWise(Node pivot) throws IllegalStateException{
+        if(pivot.right == null){
+            throw new IllegalStateException();
+        }
+
+        Node curParent = pivot.parent;
+        if(curParent == null){
+            //current parent adopt current right child
+            root = pivot.right;
+            root.parent = curParent;
+            //pivot adopt the left child of its previous right child
+            pivot.right = root.left;
+            if(pivot.right != null) pivot.right.parent = pivot;
+            //previous left child adopt pivot
+            root.left = pivot;
+            pivot.parent = root;
+
+            resize(pivot, root);
+            return;
+        }
+        if(curParent.left == pivot){
+            //current parent adopt current right child
+            curParent.left = pivot.right;
+            curParent.left.parent = curParent;
+            //pivot adopt the left child of its previous right child
+            pivot.right = curParent.left.left;
+            if(pivot.right != null) pivot.right.parent = pivot;
+            //previous left child adopt pivot
+            curParent.left.left = pivot;
+            pivot.parent = curParent.left;
+        }else{
+            //current parent adopt current right child
+            curParent.right = pivot.right;
+            curParent.right.parent = curParent;
+            //pivot adopt the left child of its previous right child
+            pivot.right = curParent.right.left;
+            if(pivot.right != null) pivot.right.parent = pivot;
+            //previous left child adopt pivot
+            curParent.right.left = pivot;
+            pivot.parent = curParent.right;
+        }
+        resize(pivot, pivot.parent);
+    }
+
+    /**
+     * Fix the subtree sizes and heights after a rotation. The Node that
+     * moved up now holds everything pivot used to hold. The heights above
+     * are fixed only as long as they change
+     * @param pivot the Node that moved down
+     * @param raised the Node that took its place
+     */
+    private void resize(Node pivot, Node raised){
+        raised.size = pivot.size;
+        pivot.size = sizeOf(pivot.left) + sizeOf(pivot.right) + 1;
+        int before = pivot.height;
+        reheight(pivot);
+        reheight(raised);
+        if(raised.height != before){
+            for(Node n = raised.parent; n != null && reheight(n); n = n.parent);
+        }
+    }
+
+    /**
+     * Take the height of a Node from the heights of its children
+     * @param n a Node
+     * @return true if the height of n changed
+     */
+    private boolean reheight(Node n){
+        int height = Math.max(heightOf(n.left), heightOf(n.right)) + 1;
+        if(height == n.height){
+            return false;
+        }
+        n.height = height;
+        return true;
+    }
+
+    /**
+     * @param n a Node, may be null
+     * @return the number of Nodes in the subtree under n
+     */
+    private int sizeOf(Node n){
+        return n == null ? 0 : n.size;
+    }
+
+    /**
+     * @param n a Node, may be null
+     * @return the number of levels of the subtree under n
+     */
+    private int heightOf(Node n){
+        return n == null ? 0 : n.height;
+    }
+
+    /**
+     * find the number of children under current given Node
+     * @return the number of children
+     */
+    private int numChildren(Node n){
+        return n == null ? 0 : n.size - 1;
+    }
+
+    /**
+     * This method tests if there are two continuous red Nodes
+     * @param n the Node whose subfamily will be tested
+     * @return true if there are two continuos red Node
+     */
+    private boolean hasTwoRed(Node n){
+        Deque<Node> stack = new ArrayDeque<Node>();
+        if(n != null) stack.push(n);
+        while(!stack.isEmpty()){
+            Node current = stack.pop();
+            if(current.left != null){
+                if(!current.left.color && !current.color) return true;
+                stack.push(current.left);
+            }
+            if(current.right != null){
+                if(!current.right.color && !current.color) return true;
+                stack.push(current.right);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This helper method checks the subtree sizes and heights kept by the
+     * Nodes
+     * @param n the Node whose subtree is checked
+     * @return the number of Nodes under n
+     */
+    private int checkSize(Node n) throws IllegalStateException{
+        if(n == null) return 0;
+
+        int counted = checkSize(n.left) + checkSize(n.right) + 1;
+        if(counted != n.size){
+            throw new IllegalStateException();
+        }
+        if(n.height != Math.max(heightOf(n.left), heightOf(n.right)) + 1){
+            throw new IllegalStateException();
+        }
+        return counted;
+    }
+
+    /**
+     * This helper method calculates the black height of a Node
+     * null is considered as 0
+     * @param n the Node whose black height is expected
+     * @return the black height of n
+     */
+    private int blackHeight(Node n) throws IllegalStateException{
+        //Every path from n down to a null link has to meet as many black
+        //Nodes as the first one did
+        int expected = -1;
+        Deque<Node> stack = new ArrayDeque<Node>();
+        Deque<Integer> blacks = new ArrayDeque<Integer>();
+        if(n == null) return 0;
+        stack.push(n);
+        blacks.push(0);
+        while(!stack.isEmpty()){
+            Node current = stack.pop();
+            int black = blacks.pop() + (current.color ? 1 : 0);
+            if(current.left == null || current.right == null){
+                if(expected < 0){
+                    expected = black;
+                }else if(black != expected){
+                    throw new IllegalStateException();
+                }
+            }
+            if(current.left != null){
+                stack.push(current.left);
+                blacks.push(black);
+            }
+            if(current.right != null){
+                stack.push(current.right);
+                blacks.push(black);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * How add treats an element above the highest one, for keys that
+     * mostly arrive in increasing order such as timestamps
+     */
+    public enum InsertionPolicy{
+        //Every add descends from the root and rebalances at once
+        BALANCED,
+        //The element is compared with the cached highest Node only and
+        //linked under it, then rebalanced as usual
+        APPEND,
+        //Like APPEND, but the appended Nodes form a chain that is
+        //balanced every DEFERRED_BATCH elements or before any other
+        //change, with one join instead of a rotation walk per element
+        DEFERRED
+    }
+
+    /**
+     * This class defines the elements that constitute of a BST12RBTree
+     */
+    private class Node{
+        //Instance variables are of default scope 
+        //so in BST12RB they can be direcly accessed
+        Node parent;
+        Node left;
+        Node right;
+        boolean color;
+        E element;
+        //Number of Nodes in the subtree rooted here, including this one
+        int size;
+        //Number of levels of the subtree rooted here
+        int height;
+
+        /**
+         * default constructor which will initialize the element and make it red
+         * @param e the element to be assigned
+         */
+        public Node(E e){
+            //default setting for new Node
+            this.parent = null;
+            this.left = null;
+            this.right = null;
+            //Color is initialized to be red
+            this.color = false;
+            this.element = e;
+            this.size = 1;
+            this.height = 1;
+        }
+
+        /**
+         * toString method that prints out basic information of the Node
+         * @return String representation of the Node
+         */
+        public String toString(){
+            String result = this.element.toString()+"(";
+            result += color ? "B" : "R";
+            result += ")";
+
+            return result;
+        }
+        //There are no getters and setters 
+        //because the class is already made private and the
+        //instance variables are visible for the BST12RB class
+    }
+
+    /**
+     * this class defines the iterator for this tree
+     * It starts at the lowest, or highest, Node in one descent and fails
+     * fast when the tree is changed by anything but its own remove
+     */
+    private class RBIterator implements Iterator<E>{
+        Node cursor = null;
+        //The Node returned by the last next, null after a remove
+        Node lastReturned = null;
+        int expectedModCount;
+        //Where a range iterator stops, null for none
+        E end;
+        boolean endInclusive;
+        //true to walk from high to low with getPrev
+        boolean descending;
+
+        /**
+         * Constructor
+         */
+        public RBIterator(){
+            this(leftmost, null, false, false);
+        }
+
+        /**
+         * Constructor for the iterator of a range
+         * @param start the Node with the first element of the range
+         * @param end the bound where the range ends, null for none
+         * @param endInclusive true if end belongs to the range
+         * @param descending true to walk towards lower elements
+         */
+        public RBIterator(Node start, E end, boolean endInclusive,
+                boolean descending){
+            this.cursor = start;
+            this.end = end;
+            this.endInclusive = endInclusive;
+            this.descending = descending;
+            this.expectedModCount = modCount;
+        }
+
+        /**
+         * @return true if there's still next element
+         */
+        public boolean hasNext(){
+            if(cursor == null){
+                return false;
+            }
+            if(end != null){
+                int cmp = compare(cursor.element, end);
+                if(descending){
+                    cmp = -cmp;
+                }
+                return cmp < 0 || cmp == 0 && endInclusive;
+            }
+            return true;
+        }
+
+        /**
+         * @return next value in ascending, or descending, order
+         */
+        public E next() throws NoSuchElementException,
+                ConcurrentModificationException{
+                if(modCount != expectedModCount){
+                    throw new ConcurrentModificationException();
+                }
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+
+                lastReturned = cursor;
+                cursor = descending ? getPrev(cursor) : getNext(cursor);
+                return lastReturned.element;
+        }
+
+        /**
+         * remove the element returned by the last next, without searching
+         * for it. Rebalancing is amortized O(1), the subtree sizes on the
+         * way to the root make it O(log n)
+         */
+        public void remove() throws IllegalStateException,
+                ConcurrentModificationException{
+                if(lastReturned == null){
+                    throw new IllegalStateException();
+                }
+                if(modCount != expectedModCount){
+                    throw new ConcurrentModificationException();
+                }
+
+                //Removing a Node with two children moves its successor
+                //into it, and removing one with a red child moves that
+                //child's element up. When the moved element is the next
+                //one, in either direction, lastReturned now holds it and
+                //the old cursor Node may be gone. Every other Node keeps
+                //its element
+                E nextElement = cursor == null ? null : cursor.element;
+                unlink(lastReturned);
+                if(nextElement != null && lastReturned.element == nextElement){
+                    cursor = lastReturned;
+                }
+                lastReturned = null;
+                expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * this class defines the spliterator for this tree. Like TreeMap's, it
+     * covers the Nodes from current up to fence and splits at the root of
+     * the tree first, then at the subtree roots on the side it was split
+     * from. The ranks of the Nodes give the exact size of both halves
+     */
+    private class RBSpliterator implements Spliterator<E>{
+        //First Node not visited yet, null when done
+        Node current;
+        //First Node after the range, null for the end of the tree
+        Node fence;
+        //Exact number of Nodes left
+        int remaining;
+        //0 for the whole tree, -1 for a lower half, 1 for an upper half
+        int side;
+        int expectedModCount;
+
+        /**
+         * Constructor
+         * @param current the first Node of the range
+         * @param fence the first Node after the range, null for none
+         * @param remaining the number of Nodes in the range
+         * @param side where the range came from
+         */
+        public RBSpliterator(Node current, Node fence, int remaining, int side){
+            this.current = current;
+            this.fence = fence;
+            this.remaining = remaining;
+            this.side = side;
+            this.expectedModCount = modCount;
+        }
+
+        public Spliterator<E> trySplit(){
+            if(modCount != expectedModCount){
+                throw new ConcurrentModificationException();
+            }
+            if(current == null || current == fence || remaining < 2){
+                return null;
+            }
+
+            Node middle = side == 0 ? root
+                : side > 0 ? current.right
+                : fence == null ? null : fence.left;
+            if(middle == null){
+                return null;
+            }
+            //middle has to fall strictly inside the range
+            int first = rankOf(current);
+            int lowerPart = rankOf(middle) - first;
+            if(lowerPart <= 0 || lowerPart >= remaining){
+                return null;
+            }
+
+            RBSpliterator prefix = new RBSpliterator(current, middle, lowerPart, -1);
+            current = middle;
+            remaining -= lowerPart;
+            side = 1;
+            return prefix;
+        }
+
+        public boolean tryAdvance(Consumer<? super E> action){
+            if(action == null){
+                throw new NullPointerException();
+            }
+            if(current == null || current == fence){
+                return false;
+            }
+            if(modCount != expectedModCount){
+                throw new ConcurrentModificationException();
+            }
+
+            E e = current.element;
+            current = getNext(current);
+            remaining--;
+            action.accept(e);
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super E> action){
+            if(action == null){
+                throw new NullPointerException();
+            }
+            for(; current != null && current != fence; current = getNext(current)){
+                action.accept(current.element);
+                remaining--;
+            }
+            if(modCount != expectedModCount){
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public long estimateSize(){
+            return remaining;
+        }
+
+        public int characteristics(){
+            return Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.ORDERED
+                | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+
+        /**
+         * @return the order of the tree, null for the natural order
+         */
+        public Comparator<? super E> getComparator(){
+            return comparator;
+        }
+    }
+
+    /**
+     * This class defines a view of the elements between two bounds. It
+     * holds no elements, everything goes through the tree
+     */
+    private class RangeView extends AbstractSet<E> implements NavigableSet<E>{
+        //The bounds, null for none
+        E lo;
+        boolean loInclusive;
+        E hi;
+        boolean hiInclusive;
+
+        /**
+         * Constructor
+         * @param lo the lower bound, null for none
+         * @param loInclusive true if lo belongs to the view
+         * @param hi the upper bound, null for none
+         * @param hiInclusive true if hi belongs to the view
+         */
+        public RangeView(E lo, boolean loInclusive, E hi, boolean hiInclusive){
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+        }
+
+        public Iterator<E> iterator(){
+            return new RBIterator(lowestNode(), hi, hiInclusive, false);
+        }
+
+        /**
+         * @return an iterator over the view from the highest element down
+         */
+        public Iterator<E> descendingIterator(){
+            return new RBIterator(highestNode(), lo, loInclusive, true);
+        }
+
+        public int size(){
+            if(lo == null && hi == null){
+                return BST12RB.this.size;
+            }
+            int below = lo == null ? 0 : countBelow(lo, !loInclusive);
+            int upTo = hi == null ? BST12RB.this.size : countBelow(hi, hiInclusive);
+            return Math.max(0, upTo - below);
+        }
+
+        public boolean isEmpty(){
+            return inRange(lowestNode()) == null;
+        }
+
+        public boolean contains(Object o){
+            E e = element(o);
+            return inRange(e) && !BST12RB.this.isEmpty() && BST12RB.this.contains(e);
+        }
+
+        public boolean add(E e){
+            if(!inRange(e)){
+                throw new IllegalArgumentException();
+            }
+            return BST12RB.this.add(e);
+        }
+
+        public boolean remove(Object o){
+            E e = element(o);
+            return inRange(e) && !BST12RB.this.isEmpty() && BST12RB.this.remove(e);
+        }
+
+        public void clear(){
+            if(lo == null && hi == null){
+                BST12RB.this.clear();
+            }else{
+                super.clear();
+            }
+        }
+
+        public Comparator<? super E> comparator(){
+            return comparator;
+        }
+
+        public E first(){
+            Node lowest = inRange(lowestNode());
+            if(lowest == null){
+                throw new NoSuchElementException();
+            }
+            return lowest.element;
+        }
+
+        public E last(){
+            Node highest = inRange(highestNode());
+            if(highest == null){
+                throw new NoSuchElementException();
+            }
+            return highest.element;
+        }
+
+        public E lower(E e){
+            return elementOf(below(e, false));
+        }
+
+        public E floor(E e){
+            return elementOf(below(e, true));
+        }
+
+        public E ceiling(E e){
+            return elementOf(above(e, true));
+        }
+
+        public E higher(E e){
+            return elementOf(above(e, false));
+        }
+
+        public E pollFirst(){
+            return poll(inRange(lowestNode()));
+        }
+
+        public E pollLast(){
+            return poll(inRange(highestNode()));
+        }
+
+        public NavigableSet<E> descendingSet(){
+            return new DescendingView(this);
+        }
+
+        public NavigableSet<E> subSet(E from, boolean fromInclusive,
+                E to, boolean toInclusive){
+            if(from == null || to == null){
+                throw new NullPointerException();
+            }
+            return narrow(from, fromInclusive, to, toInclusive);
+        }
+
+        public NavigableSet<E> headSet(E to, boolean inclusive){
+            if(to == null){
+                throw new NullPointerException();
+            }
+            return narrow(null, false, to, inclusive);
+        }
+
+        public NavigableSet<E> tailSet(E from, boolean inclusive){
+            if(from == null){
+                throw new NullPointerException();
+            }
+            return narrow(from, inclusive, null, false);
+        }
+
+        public SortedSet<E> subSet(E from, E to){
+            return subSet(from, true, to, false);
+        }
+
+        public SortedSet<E> headSet(E to){
+            return headSet(to, false);
+        }
+
+        public SortedSet<E> tailSet(E from){
+            return tailSet(from, true);
+        }
+
+        /**
+         * A view within this one, a null bound keeps the bound of this view
+         * @param from the new lower bound, or null
+         * @param fromInclusive true if from belongs to the new view
+         * @param to the new upper bound, or null
+         * @param toInclusive true if to belongs to the new view
+         * @return the narrower view
+         */
+        RangeView narrow(E from, boolean fromInclusive, E to, boolean toInclusive)
+                throws IllegalArgumentException{
+                if(from != null && to != null && compare(from, to) > 0
+                        || from != null && outside(from, fromInclusive)
+                        || to != null && outside(to, toInclusive)){
+                    throw new IllegalArgumentException();
+                }
+                return new RangeView(from == null ? lo : from,
+                        from == null ? loInclusive : fromInclusive,
+                        to == null ? hi : to, to == null ? hiInclusive : toInclusive);
+        }
+
+        /**
+         * @param e the element to be compared
+         * @param inclusive true if e itself may be found
+         * @return the Node with the highest element below e in the view
+         */
+        private Node below(E e, boolean inclusive){
+            if(hi != null){
+                int cmp = compare(e, hi);
+                if(cmp > 0 || cmp == 0 && inclusive){
+                    return inRange(highestNode());
+                }
+            }
+            return inRange(floorNode(e, inclusive));
+        }
+
+        /**
+         * @param e the element to be compared
+         * @param inclusive true if e itself may be found
+         * @return the Node with the lowest element above e in the view
+         */
+        private Node above(E e, boolean inclusive){
+            if(lo != null){
+                int cmp = compare(e, lo);
+                if(cmp < 0 || cmp == 0 && inclusive){
+                    return inRange(lowestNode());
+                }
+            }
+            return inRange(ceilingNode(e, inclusive));
+        }
+
+        /**
+         * @return the Node with the lowest element not below lo, its
+         * element may still be above hi
+         */
+        private Node lowestNode(){
+            return lo == null ? leftmost : ceilingNode(lo, loInclusive);
+        }
+
+        /**
+         * @return the Node with the highest element not above hi, its
+         * element may still be below lo
+         */
+        private Node highestNode(){
+            return hi == null ? rightmost : floorNode(hi, hiInclusive);
+        }
+
+        /**
+         * @param n a Node, or null
+         * @return n if its element is in the view, null otherwise
+         */
+        private Node inRange(Node n){
+            return n != null && inRange(n.element) ? n : null;
+        }
+
+        /**
+         * @param e an element
+         * @return true if e is between the bounds
+         */
+        private boolean inRange(E e){
+            if(lo != null){
+                int cmp = compare(e, lo);
+                if(cmp < 0 || cmp == 0 && !loInclusive) return false;
+            }
+            if(hi != null){
+                int cmp = compare(e, hi);
+                if(cmp > 0 || cmp == 0 && !hiInclusive) return false;
+            }
+            return true;
+        }
+
+        /**
+         * A narrower view may use an exclusive bound of this one, as long
+         * as it leaves that bound out as well
+         * @param e the bound of a narrower view
+         * @param inclusive true if e belongs to the narrower view
+         * @return true if e is beyond the bounds
+         */
+        private boolean outside(E e, boolean inclusive){
+            if(lo != null){
+                int cmp = compare(e, lo);
+                if(cmp < 0 || cmp == 0 && inclusive && !loInclusive) return true;
+            }
+            if(hi != null){
+                int cmp = compare(e, hi);
+                if(cmp > 0 || cmp == 0 && inclusive && !hiInclusive) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * This class defines a RangeView read from the highest element down.
+     * Every bound and every question is turned around and handed over
+     */
+    private class DescendingView extends AbstractSet<E> implements NavigableSet<E>{
+        RangeView forward;
+
+        /**
+         * Constructor
+         * @param forward the view in ascending order
+         */
+        public DescendingView(RangeView forward){
+            this.forward = forward;
+        }
+
+        public Iterator<E> iterator(){
+            return forward.descendingIterator();
+        }
+
+        public Iterator<E> descendingIterator(){
+            return forward.iterator();
+        }
+
+        public int size(){
+            return forward.size();
+        }
+
+        public boolean isEmpty(){
+            return forward.isEmpty();
+        }
+
+        public boolean contains(Object o){
+            return forward.contains(o);
+        }
+
+        public boolean add(E e){
+            return forward.add(e);
+        }
+
+        public boolean remove(Object o){
+            return forward.remove(o);
+        }
+
+        public void clear(){
+            forward.clear();
+        }
+
+        public Comparator<? super E> comparator(){
+            return Collections.reverseOrder(comparator);
+        }
+
+        public E first(){
+            return forward.last();
+        }
+
+        public E last(){
+            return forward.first();
+        }
+
+        public E lower(E e){
+            return forward.higher(e);
+        }
+
+        public E floor(E e){
+            return forward.ceiling(e);
+        }
+
+        public E ceiling(E e){
+            return forward.floor(e);
+        }
+
+        public E higher(E e){
+            return forward.lower(e);
+        }
+
+        public E pollFirst(){
+            return forward.pollLast();
         }
 
-        /**
-         * toString method that prints out basic information of the Node
-         * @return String representation of the Node
-         */
-        public String toString(){
-            String result = this.element.toString()+"(";
-            result += color ? "B" : "R";
-            result += ")";
+        public E pollLast(){
+            return forward.pollFirst();
+        }
 
-            return result;
+        public NavigableSet<E> descendingSet(){
+            return forward;
         }
-        //There are no getters and setters 
-        //because the class is already made private and the
-        //instance variables are visible for the BST12RB class
-    }
 
-    /**
-     * this class defines the iterator for this tree
-     * It implements Iterator class
-     */
-    private class RBIterator implements Iterator{
-        Node cursor = null;
-        /**
-         * Constructor
-         * @param tree the tree that the iterator iterates through
-         */
-        public RBIterator(BST12RB tree) throws NullPointerException{
-            if(tree == null){
+        public NavigableSet<E> subSet(E from, boolean fromInclusive,
+                E to, boolean toInclusive){
+            if(from == null || to == null){
                 throw new NullPointerException();
             }
+            return new DescendingView(
+                    forward.narrow(to, toInclusive, from, fromInclusive));
+        }
 
-            if(tree.isEmpty()){
-                cursor = null;
-            }else{
-                cursor = search((E)tree.first());
+        public NavigableSet<E> headSet(E to, boolean inclusive){
+            if(to == null){
+                throw new NullPointerException();
             }
+            return new DescendingView(forward.narrow(to, inclusive, null, false));
         }
 
-        /**
-         * @return true if there's still next element
-         */
-        public boolean hasNext(){
-            if(cursor == null){
-                return false;
-            }else{
-                return true;
+        public NavigableSet<E> tailSet(E from, boolean inclusive){
+            if(from == null){
+                throw new NullPointerException();
             }
+            return new DescendingView(forward.narrow(null, false, from, inclusive));
+        }
+
+        public SortedSet<E> subSet(E from, E to){
+            return subSet(from, true, to, false);
+        }
+
+        public SortedSet<E> headSet(E to){
+            return headSet(to, false);
+        }
+
+        public SortedSet<E> tailSet(E from){
+            return tailSet(from, true);
         }
+    }
+
+    /**
+     * This class runs a set operation over two subtrees. The root of one
+     * side splits the other, the two halves are done in parallel and
+     * joined back around that root. Every task has its own scratch tree
+     * because join and split use the root of the tree they run in
+     */
+    private class SetTask extends RecursiveTask<Node>{
+        private static final long serialVersionUID = 1L;
+        Node first;
+        Node second;
+        int operation;
 
         /**
-         * @return next value in ascending order
+         * Constructor
+         * @param first root of a valid subtree, may be null
+         * @param second root of a valid subtree, may be null
+         * @param operation UNION, INTERSECTION or DIFFERENCE
          */
-        public E next() throws NoSuchElementException{
-            if(cursor == null){
-                throw new NoSuchElementException();
-            }
-
-            E toReturn = cursor.element;
-            cursor = getNext(cursor);
-            return toReturn;
+        public SetTask(Node first, Node second, int operation){
+            this.first = first;
+            this.second = second;
+            this.operation = operation;
         }
 
         /**
-         * remove method that will be disabled
-         * @return true if successfully removed(never)
+         * @return root of the resulting subtree, its parent and color are
+         * left for the caller to fix
          */
-        public void remove() throws UnsupportedOperationException{
-            throw new UnsupportedOperationException();
+        protected Node compute(){
+            //Base cases
+            if(first == null || second == null){
+                if(operation == UNION){
+                    return first == null ? second : first;
+                }
+                return operation == DIFFERENCE && second == null ? first : null;
+            }
+
+            BST12RB<E> scratch = new BST12RB<E>(comparator);
+            boolean parallel = sizeOf(first) + sizeOf(second) > PARALLEL_CUTOFF;
+            Node[] parts = newParts();
+            int[] black = new int[2];
+            Node pivot;
+            boolean keepPivot;
+            SetTask lower;
+            SetTask higher;
+            if(operation == DIFFERENCE){
+                //The root of second is dropped from first
+                pivot = second;
+                scratch.split(first, scratch.blackDepth(first), second.element,
+                        parts, black);
+                keepPivot = false;
+                lower = new SetTask(parts[0], second.left, operation);
+                higher = new SetTask(parts[1], second.right, operation);
+            }else{
+                pivot = first;
+                Node found = scratch.split(second, scratch.blackDepth(second),
+                        first.element, parts, black);
+                keepPivot = operation == UNION || found != null;
+                lower = new SetTask(first.left, parts[0], operation);
+                higher = new SetTask(first.right, parts[1], operation);
+            }
+
+            Node low;
+            Node high;
+            if(parallel){
+                lower.fork();
+                high = higher.compute();
+                low = lower.join();
+            }else{
+                low = lower.compute();
+                high = higher.compute();
+            }
+            return keepPivot ? scratch.join(low, pivot, high) : scratch.join(low, high);
         }
     }
 
@@ -1113,6 +3254,7 @@ public class BST12RB<E extends Comparable<? super E>>
                     assertTrue(tree.toString(),!tree.hasTwoRed(tree.root));
                     try{
                         tree.blackHeight(tree.root);
+                        tree.checkSize(tree.root);
                     }catch(IllegalStateException ex){
                         tree.printFamily(tree.root);
                         fail(tree.toString());
@@ -1127,6 +3269,7 @@ public class BST12RB<E extends Comparable<? super E>>
                     assertTrue(tree.toString(),!tree.hasTwoRed(tree.root));
                     try{
                         tree.blackHeight(tree.root);
+                        tree.checkSize(tree.root);
                     }catch(IllegalStateException ex){
                         tree.printFamily(tree.root);
                         fail(tree.toString());
@@ -1134,5 +3277,841 @@ public class BST12RB<E extends Comparable<? super E>>
                 }
             }
         }
+
+        @Test
+        public void testRankAndSelect(){
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            for(int i = 0; i < 3000; i++){
+                Integer e = generator.nextInt(1000);
+                if(generator.nextInt(3) == 0 && !tree.isEmpty()){
+                    assertEquals(model.remove(e), tree.remove(e));
+                }else{
+                    assertEquals(model.add(e), tree.add(e));
+                }
+                tree.checkSize(tree.root);
+                Integer probe = generator.nextInt(1000);
+                assertEquals(model.headSet(probe).size(), tree.rank(probe));
+                if(!model.isEmpty()){
+                    int k = generator.nextInt(model.size());
+                    assertEquals(model.headSet(tree.select(k)).size(), k);
+                    assertTrue(model.contains(tree.select(k)));
+                }
+            }
+            try{
+                tree.select(tree.size());
+                fail("No Exception");
+            }catch(IndexOutOfBoundsException e){
+                //correct
+            }
+        }
+
+        @Test
+        public void testBulkBuild(){
+            Random generator = new Random();
+            for(int n = 0; n < 300; n++){
+                List<Integer> input = new ArrayList<Integer>();
+                for(int i = 0; i < n; i++){
+                    input.add(generator.nextInt(2 * n + 1));
+                }
+                TreeSet<Integer> model = new TreeSet<Integer>(input);
+                List<BST12RB<Integer>> built = new ArrayList<BST12RB<Integer>>();
+                built.add(new BST12RB<Integer>(input));
+                built.add(new BST12RB<Integer>(model));
+                built.add(new BST12RB<Integer>(new ArrayList<Integer>(model)));
+                for(BST12RB<Integer> tree: built){
+                    assertEquals(model.toString(), tree.toString());
+                    assertEquals(model.size(), tree.size());
+                    assertFalse(tree.hasTwoRed(tree.root));
+                    tree.blackHeight(tree.root);
+                    tree.checkSize(tree.root);
+                    //It still behaves after the bulk build
+                    tree.add(-1);
+                    tree.remove(n);
+                    assertFalse(tree.hasTwoRed(tree.root));
+                    tree.blackHeight(tree.root);
+                    tree.checkSize(tree.root);
+                }
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                assertEquals(model.size() == input.size(), tree.addAll(input));
+            }
+        }
+
+        @Test
+        public void testBulkMerge(){
+            Random generator = new Random();
+            for(int round = 0; round < 200; round++){
+                int n = generator.nextInt(500);
+                int k = generator.nextInt(round % 2 == 0 ? 10 : 1000);
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                TreeSet<Integer> model = new TreeSet<Integer>();
+                for(int i = 0; i < n; i++){
+                    Integer e = generator.nextInt(2000);
+                    tree.add(e);
+                    model.add(e);
+                }
+                List<Integer> batch = new ArrayList<Integer>();
+                for(int i = 0; i < k; i++){
+                    batch.add(generator.nextInt(2000));
+                }
+                int before = model.size();
+                model.addAll(batch);
+                assertEquals(before + batch.size() == model.size(),
+                        tree.addAll(batch));
+                assertEquals(model.toString(), tree.toString());
+                assertEquals(model.size(), tree.size());
+                assertFalse(tree.hasTwoRed(tree.root));
+                tree.blackHeight(tree.root);
+                tree.checkSize(tree.root);
+            }
+        }
+
+        @Test
+        public void testBulkRemoval(){
+            Random generator = new Random();
+            for(int round = 0; round < 300; round++){
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                TreeSet<Integer> model = new TreeSet<Integer>();
+                for(int i = generator.nextInt(500); i > 0; i--){
+                    Integer e = generator.nextInt(1000);
+                    tree.add(e);
+                    model.add(e);
+                }
+                List<Integer> batch = new ArrayList<Integer>();
+                for(int i = generator.nextInt(round % 2 == 0 ? 5 : 800); i > 0; i--){
+                    batch.add(generator.nextInt(1000));
+                }
+                switch(round % 3){
+                    case 0:
+                        assertEquals(model.removeAll(batch), tree.removeAll(batch));
+                        break;
+                    case 1:
+                        assertEquals(model.retainAll(batch), tree.retainAll(batch));
+                        break;
+                    default:
+                        int from = generator.nextInt(1000);
+                        int to = from + generator.nextInt(round % 2 == 0 ? 20 : 1000);
+                        int before = model.size();
+                        model.subSet(from, to).clear();
+                        assertEquals(before - model.size(), tree.removeRange(from, to));
+                }
+                assertEquals(model.toString(), tree.toString());
+                assertEquals(model.size(), tree.size());
+                assertFalse(tree.hasTwoRed(tree.root));
+                tree.blackHeight(tree.root);
+                tree.checkSize(tree.root);
+            }
+        }
+
+        @Test
+        public void testJoinAndSplit(){
+            Random generator = new Random();
+            for(int round = 0; round < 300; round++){
+                TreeSet<Integer> model = new TreeSet<Integer>();
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                for(int i = generator.nextInt(round % 2 == 0 ? 10 : 2000); i > 0; i--){
+                    Integer e = generator.nextInt(5000);
+                    model.add(e);
+                    tree.add(e);
+                }
+                Integer key = generator.nextInt(5200) - 100;
+                BST12RB<Integer> upper = tree.split(key);
+                assertEquals(model.headSet(key).toString(), tree.toString());
+                assertEquals(model.tailSet(key).toString(), upper.toString());
+                for(BST12RB<Integer> part: Arrays.asList(tree, upper)){
+                    assertFalse(part.hasTwoRed(part.root));
+                    part.blackHeight(part.root);
+                    assertEquals(part.size(), part.checkSize(part.root));
+                    if(part.root != null) assertNull(part.root.parent);
+                }
+
+                //Glue the parts back around a fresh pivot
+                BST12RB<Integer> higher = upper.split(key + 1);
+                model.add(key);
+                BST12RB<Integer> joined = BST12RB.join(tree, key, higher);
+                assertEquals(model.toString(), joined.toString());
+                assertEquals(model.size(), joined.size());
+                assertTrue(tree.isEmpty());
+                assertTrue(higher.isEmpty());
+                assertFalse(joined.hasTwoRed(joined.root));
+                joined.blackHeight(joined.root);
+                joined.checkSize(joined.root);
+                assertTrue(joined.height() <= 2 * (32 -
+                        Integer.numberOfLeadingZeros(joined.size() + 1)));
+            }
+
+            //Pivot out of order
+            BST12RB<Integer> lower = new BST12RB<Integer>(Arrays.asList(1, 2, 3));
+            try{
+                BST12RB.join(lower, 3, new BST12RB<Integer>());
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+            assertEquals(3, lower.size());
+        }
+
+        @Test
+        //A split walks one spine and the joins on its way up only go down
+        //by the difference of the black depths it carries, so it stays
+        //O(log n) as long as those depths are the real ones
+        public void testSplitSteps(){
+            Random generator = new Random();
+            for(int bits = 8; bits <= 16; bits += 4){
+                int n = 1 << bits;
+                for(int round = 0; round < 20; round++){
+                    BST12RB<Integer> tree = new BST12RB<Integer>();
+                    for(int i = 0; i < n; i++){
+                        tree.add(generator.nextInt(4 * n));
+                    }
+                    int depth = tree.blackHeight(tree.root);
+                    BST12RB<Integer>.Node[] parts = tree.newParts();
+                    int[] black = new int[2];
+                    tree.split(tree.root, tree.blackDepth(tree.root),
+                            generator.nextInt(4 * n), parts, black);
+                    for(int i = 0; i < 2; i++){
+                        assertEquals(tree.blackHeight(parts[i]), black[i]);
+                        assertTrue(black[i] <= depth + 1);
+                        assertFalse(tree.hasTwoRed(parts[i]));
+                        tree.checkSize(parts[i]);
+                    }
+                }
+            }
+
+            //Joining without a middle reuses the Node that leaves the tree
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            for(int i = 0; i < 3000; i++){
+                tree.add(generator.nextInt(10000));
+            }
+            Set<Object> before = Collections.newSetFromMap(
+                new IdentityHashMap<Object, Boolean>());
+            for(BST12RB<Integer>.Node n = tree.firstNode(); n != null; n = tree.getNext(n)){
+                before.add(n);
+            }
+            TreeSet<Integer> model = new TreeSet<Integer>(tree.asSet());
+            for(int round = 0; round < 50; round++){
+                int from = generator.nextInt(10000);
+                int to = from + generator.nextInt(300);
+                tree.removeRange(from, to);
+                model.subSet(from, to).clear();
+                assertEquals(model.toString(), tree.toString());
+                assertFalse(tree.hasTwoRed(tree.root));
+                tree.blackHeight(tree.root);
+                assertEquals(tree.size(), tree.checkSize(tree.root));
+            }
+            for(BST12RB<Integer>.Node n = tree.firstNode(); n != null; n = tree.getNext(n)){
+                assertTrue(before.contains(n));
+            }
+        }
+
+        @Test
+        public void testSetAlgebra(){
+            Random generator = new Random();
+            for(int round = 0; round < 60; round++){
+                int range = round % 3 == 0 ? 50 : 200000;
+                TreeSet<Integer> left = new TreeSet<Integer>();
+                TreeSet<Integer> right = new TreeSet<Integer>();
+                for(int i = generator.nextInt(round % 2 == 0 ? 40 : 30000); i > 0; i--){
+                    left.add(generator.nextInt(range));
+                }
+                for(int i = generator.nextInt(round % 5 == 0 ? 40 : 30000); i > 0; i--){
+                    right.add(generator.nextInt(range));
+                }
+
+                TreeSet<Integer> model = new TreeSet<Integer>(left);
+                BST12RB<Integer> result;
+                BST12RB<Integer> first = new BST12RB<Integer>(left);
+                BST12RB<Integer> second = new BST12RB<Integer>(right);
+                switch(round % 3){
+                    case 0:
+                        model.addAll(right);
+                        result = BST12RB.union(first, second);
+                        break;
+                    case 1:
+                        model.retainAll(right);
+                        result = BST12RB.intersection(first, second);
+                        break;
+                    default:
+                        model.removeAll(right);
+                        result = BST12RB.difference(first, second);
+                }
+                assertEquals(model.toString(), result.toString());
+                assertEquals(model.size(), result.size());
+                assertTrue(first.isEmpty());
+                assertTrue(second.isEmpty());
+                assertFalse(result.hasTwoRed(result.root));
+                result.blackHeight(result.root);
+                result.checkSize(result.root);
+            }
+        }
+
+        @Test
+        public void testIteratorRemove(){
+            Random generator = new Random();
+            for(int round = 0; round < 200; round++){
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                TreeSet<Integer> model = new TreeSet<Integer>();
+                for(int i = generator.nextInt(round % 2 == 0 ? 20 : 3000); i > 0; i--){
+                    Integer e = generator.nextInt(5000);
+                    tree.add(e);
+                    model.add(e);
+                }
+                //Sweep out a random part of the elements while iterating
+                int modulus = 1 + generator.nextInt(4);
+                Iterator<Integer> iter = tree.iterator();
+                Iterator<Integer> expected = model.iterator();
+                while(iter.hasNext()){
+                    Integer e = iter.next();
+                    assertEquals(expected.next(), e);
+                    if(e % modulus == 0){
+                        iter.remove();
+                        expected.remove();
+                    }
+                }
+                assertFalse(expected.hasNext());
+                assertEquals(model.toString(), tree.toString());
+                assertEquals(model.size(), tree.size());
+                assertFalse(tree.hasTwoRed(tree.root));
+                tree.blackHeight(tree.root);
+                tree.checkSize(tree.root);
+            }
+
+            //Removing everything
+            BST12RB<Integer> tree = new BST12RB<Integer>(Arrays.asList(3, 1, 2));
+            Iterator<Integer> iter = tree.iterator();
+            while(iter.hasNext()){
+                iter.next();
+                iter.remove();
+            }
+            assertTrue(tree.isEmpty());
+        }
+
+        @Test
+        public void testIteratorFailFast(){
+            BST12RB<Integer> tree = new BST12RB<Integer>(Arrays.asList(1, 2, 3));
+            Iterator<Integer> iter = tree.iterator();
+            try{
+                iter.remove();
+                fail();
+            }catch(IllegalStateException ex){
+            }
+            iter.next();
+            iter.remove();
+            try{
+                iter.remove();
+                fail();
+            }catch(IllegalStateException ex){
+            }
+
+            tree.add(4);
+            try{
+                iter.next();
+                fail();
+            }catch(ConcurrentModificationException ex){
+            }
+        }
+
+        @Test
+        public void testNavigation(){
+            Random generator = new Random();
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            assertNull(tree.floor(1));
+            assertNull(tree.higher(1));
+            for(int i = 0; i < 2000; i++){
+                Integer e = 3 * generator.nextInt(1000);
+                tree.add(e);
+                model.add(e);
+            }
+            for(int i = -5; i < 3005; i++){
+                assertEquals(model.floor(i), tree.floor(i));
+                assertEquals(model.ceiling(i), tree.ceiling(i));
+                assertEquals(model.lower(i), tree.lower(i));
+                assertEquals(model.higher(i), tree.higher(i));
+            }
+        }
+
+        @Test
+        public void testRangeViews(){
+            Random generator = new Random();
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            for(int i = 0; i < 3000; i++){
+                Integer e = generator.nextInt(5000);
+                tree.add(e);
+                model.add(e);
+            }
+            for(int round = 0; round < 300; round++){
+                int from = generator.nextInt(5200) - 100;
+                int to = from + 1 + generator.nextInt(800);
+                SortedSet<Integer> view;
+                SortedSet<Integer> expected;
+                switch(round % 3){
+                    case 0:
+                        view = tree.subSet(from, to);
+                        expected = model.subSet(from, to);
+                        break;
+                    case 1:
+                        view = tree.headSet(to);
+                        expected = model.headSet(to);
+                        break;
+                    default:
+                        view = tree.tailSet(from);
+                        expected = model.tailSet(from);
+                }
+                assertEquals(expected.toString(), view.toString());
+                assertEquals(expected.size(), view.size());
+                assertEquals(expected.isEmpty(), view.isEmpty());
+                if(!expected.isEmpty()){
+                    assertEquals(expected.first(), view.first());
+                    assertEquals(expected.last(), view.last());
+                }
+                assertEquals(expected.contains(from), view.contains(from));
+                assertEquals(expected.contains(to - 1), view.contains(to - 1));
+
+                //Narrower views, and changes made through a view
+                int middle = from + (to - from) / 2;
+                if(round % 3 == 0){
+                    assertEquals(expected.headSet(middle).toString(),
+                            view.headSet(middle).toString());
+                    assertEquals(expected.tailSet(middle).toString(),
+                            view.tailSet(middle).toString());
+                    try{
+                        view.add(to);
+                        fail();
+                    }catch(IllegalArgumentException ex){
+                    }
+                }
+                assertEquals(expected.add(middle), view.add(middle));
+                Iterator<Integer> iter = view.iterator();
+                Iterator<Integer> modelIter = expected.iterator();
+                while(iter.hasNext()){
+                    Integer e = iter.next();
+                    assertEquals(modelIter.next(), e);
+                    if(e % 7 == 0){
+                        iter.remove();
+                        modelIter.remove();
+                    }
+                }
+                assertEquals(model.size(), tree.size());
+            }
+            assertEquals(model.toString(), tree.toString());
+            tree.checkSize(tree.root);
+        }
+
+        @Test
+        public void testDescending(){
+            Random generator = new Random();
+            for(int round = 0; round < 100; round++){
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                TreeSet<Integer> model = new TreeSet<Integer>();
+                for(int i = generator.nextInt(round % 2 == 0 ? 20 : 2000); i > 0; i--){
+                    Integer e = generator.nextInt(3000);
+                    tree.add(e);
+                    model.add(e);
+                }
+
+                //The top k, then a sweep that removes while walking down
+                Iterator<Integer> iter = tree.descendingIterator();
+                Iterator<Integer> expected = model.descendingIterator();
+                for(int k = 0; k < 10 && expected.hasNext(); k++){
+                    assertEquals(expected.next(), iter.next());
+                }
+                int modulus = 1 + generator.nextInt(3);
+                while(iter.hasNext()){
+                    Integer e = iter.next();
+                    assertEquals(expected.next(), e);
+                    if(e % modulus == 0){
+                        iter.remove();
+                        expected.remove();
+                    }
+                }
+                assertFalse(expected.hasNext());
+                assertEquals(model.toString(), tree.toString());
+                tree.checkSize(tree.root);
+                tree.blackHeight(tree.root);
+
+                //Reverse range scan
+                int from = generator.nextInt(3000);
+                int to = from + 1 + generator.nextInt(500);
+                List<Integer> seen = new ArrayList<Integer>();
+                Iterator<Integer> range = tree.descendingIterator(from, to);
+                while(range.hasNext()){
+                    seen.add(range.next());
+                }
+                assertEquals(new ArrayList<Integer>(
+                            model.subSet(from, true, to, false).descendingSet()), seen);
+            }
+        }
+
+        @Test
+        public void testSpliterator(){
+            Random generator = new Random();
+            for(int round = 0; round < 50; round++){
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                TreeSet<Integer> model = new TreeSet<Integer>();
+                for(int i = generator.nextInt(round % 2 == 0 ? 10 : 5000); i > 0; i--){
+                    Integer e = generator.nextInt(20000);
+                    tree.add(e);
+                    model.add(e);
+                }
+
+                //Split down to small parts, some after a few advances
+                List<Spliterator<Integer>> parts = new ArrayList<Spliterator<Integer>>();
+                List<Integer> seen = new ArrayList<Integer>();
+                Spliterator<Integer> whole = tree.spliterator();
+                assertTrue(whole.hasCharacteristics(Spliterator.SORTED
+                            | Spliterator.DISTINCT | Spliterator.SUBSIZED));
+                assertEquals(model.size(), whole.getExactSizeIfKnown());
+                if(generator.nextBoolean()){
+                    whole.tryAdvance(e -> seen.add(e));
+                }
+                splitAll(whole, parts);
+                for(Spliterator<Integer> part: parts){
+                    long size = part.estimateSize();
+                    int before = seen.size();
+                    part.forEachRemaining(e -> seen.add(e));
+                    assertEquals(size, seen.size() - before);
+                }
+                assertEquals(new ArrayList<Integer>(model), seen);
+                if(model.size() > 100){
+                    assertTrue(parts.size() > 8);
+                }
+            }
+
+            List<Integer> elements = new ArrayList<Integer>();
+            for(int i = 0; i < 200000; i++){
+                elements.add(i);
+            }
+            BST12RB<Integer> tree = new BST12RB<Integer>(elements);
+            assertEquals(199999L * 200000 / 2,
+                    tree.parallelStream().mapToLong(e -> e).sum());
+            assertEquals(elements, tree.parallelStream()
+                    .collect(java.util.stream.Collectors.toList()));
+            assertEquals(100000, tree.stream().filter(e -> e % 2 == 0).count());
+        }
+
+        /**
+         * Split a spliterator until the parts stop splitting, in order
+         * @param s the spliterator
+         * @param parts receives the parts from low to high
+         */
+        private static void splitAll(Spliterator<Integer> s,
+                List<Spliterator<Integer>> parts){
+            if(s.estimateSize() > 4){
+                Spliterator<Integer> prefix = s.trySplit();
+                if(prefix != null){
+                    splitAll(prefix, parts);
+                    splitAll(s, parts);
+                    return;
+                }
+            }
+            parts.add(s);
+        }
+
+        @Test
+        public void testComparator(){
+            //Reverse order, counting every comparison
+            final int[] compares = new int[1];
+            Comparator<Integer> reverse = new Comparator<Integer>(){
+                public int compare(Integer a, Integer b){
+                    compares[0]++;
+                    return b.compareTo(a);
+                }
+            };
+            BST12RB<Integer> tree = new BST12RB<Integer>(reverse);
+            TreeSet<Integer> model = new TreeSet<Integer>(reverse);
+            Random generator = new Random();
+            for(int i = 0; i < 20000; i++){
+                Integer e = generator.nextInt(3000);
+                if(generator.nextInt(3) == 0){
+                    assertEquals(model.remove(e), !tree.isEmpty() && tree.remove(e));
+                }else{
+                    assertEquals(model.add(e), tree.add(e));
+                }
+            }
+            assertFalse(tree.hasTwoRed(tree.root));
+            tree.blackHeight(tree.root);
+            assertEquals(model.toString(), tree.toString());
+            assertEquals(model.first(), tree.first());
+            assertSame(reverse, tree.comparator());
+            for(int e = -5; e < 3005; e += 7){
+                assertEquals(model.floor(e), tree.floor(e));
+                assertEquals(model.higher(e), tree.higher(e));
+                assertEquals(model.headSet(e).size(), tree.headSet(e).size());
+            }
+            assertEquals(model.subSet(2000, 1000), tree.subSet(2000, 1000));
+            assertEquals(model.descendingSet().toString(), tree.descendingSet().toString());
+
+            //One comparison per level on the way down
+            int height = tree.height();
+            for(int e = 0; e < 3000; e++){
+                boolean expected = model.contains(e);
+                compares[0] = 0;
+                assertEquals(expected, tree.contains(e));
+                assertTrue(compares[0] <= height + 1);
+                compares[0] = 0;
+                tree.numChildren(tree.first());
+                assertTrue(compares[0] <= height);
+            }
+
+            //Bulk operations keep the order
+            BST12RB<Integer> copy = new BST12RB<Integer>(model, reverse);
+            assertEquals(model.toString(), copy.toString());
+            BST12RB<Integer> other = new BST12RB<Integer>(
+                    Arrays.asList(5000, -1, 7, 7), reverse);
+            assertEquals("[5000, 7, -1]", other.toString());
+            BST12RB<Integer> both = union(copy, other);
+            model.addAll(Arrays.asList(5000, -1, 7));
+            assertEquals(model.toString(), both.toString());
+            assertSame(reverse, both.comparator());
+            try{
+                union(both, new BST12RB<Integer>());
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+        }
+
+        @Test
+        //add, contains and remove compare with each Node on one path once
+        public void testSingleDescent(){
+            final int[] compares = new int[1];
+            Comparator<Integer> counting = new Comparator<Integer>(){
+                public int compare(Integer a, Integer b){
+                    compares[0]++;
+                    return a.compareTo(b);
+                }
+            };
+            BST12RB<Integer> tree = new BST12RB<Integer>(counting);
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            for(int i = 0; i < 20000; i++){
+                Integer e = generator.nextInt(4000);
+                int height = tree.height();
+                compares[0] = 0;
+                if(generator.nextInt(3) == 0){
+                    assertEquals(model.remove(e), !tree.isEmpty() && tree.remove(e));
+                }else if(generator.nextBoolean()){
+                    assertEquals(model.add(e), tree.add(e));
+                }else{
+                    assertEquals(model.contains(e), tree.contains(e));
+                }
+                assertTrue(compares[0] <= height);
+            }
+            assertEquals(model.toString(), tree.toString());
+            assertFalse(tree.hasTwoRed(tree.root));
+            tree.blackHeight(tree.root);
+            tree.checkSize(tree.root);
+        }
+
+        @Test
+        //The checks walk a chain far deeper than any call stack
+        public void testDegenerateChain(){
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            BST12RB<Integer>.Node last = null;
+            for(int i = 0; i < 100000; i++){
+                BST12RB<Integer>.Node n = tree.new Node(i);
+                n.color = true;
+                if(last == null){
+                    tree.root = n;
+                }else{
+                    last.right = n;
+                    n.parent = last;
+                }
+                last = n;
+            }
+            for(BST12RB<Integer>.Node n = last; n != null; n = n.parent){
+                tree.reheight(n);
+            }
+            assertEquals(100000, tree.height());
+            assertFalse(tree.hasTwoRed(tree.root));
+            try{
+                tree.blackHeight(tree.root);
+                fail();
+            }catch(IllegalStateException ex){
+            }
+            last.color = false;
+            last.parent.color = false;
+            assertTrue(tree.hasTwoRed(tree.root));
+        }
+
+        @Test
+        //Mostly increasing keys with some out of order, under every policy
+        public void testInsertionPolicy(){
+            Random generator = new Random();
+            for(InsertionPolicy policy: InsertionPolicy.values()){
+                BST12RB<Integer> tree = new BST12RB<Integer>();
+                tree.setInsertionPolicy(policy);
+                assertEquals(policy, tree.getInsertionPolicy());
+                TreeSet<Integer> model = new TreeSet<Integer>();
+                int next = 0;
+                for(int i = 0; i < 20000; i++){
+                    int choice = generator.nextInt(20);
+                    if(choice < 15){
+                        next += generator.nextInt(3);
+                        assertEquals(model.add(next), tree.add(next));
+                    }else if(choice < 17){
+                        Integer e = generator.nextInt(next + 1);
+                        assertEquals(model.add(e), tree.add(e));
+                    }else if(choice < 18){
+                        Integer e = generator.nextInt(next + 1);
+                        assertEquals(model.remove(e), !tree.isEmpty() && tree.remove(e));
+                    }else if(!model.isEmpty()){
+                        Integer e = generator.nextInt(next + 1);
+                        assertEquals(model.contains(e), tree.contains(e));
+                        assertEquals(model.headSet(e).size(), tree.rank(e));
+                        assertEquals(model.last(), tree.last());
+                    }
+                    assertEquals(model.size(), tree.size());
+                }
+                assertEquals(model.toString(), tree.toString());
+                tree.setInsertionPolicy(InsertionPolicy.BALANCED);
+                assertFalse(tree.hasTwoRed(tree.root));
+                tree.blackHeight(tree.root);
+                tree.checkSize(tree.root);
+                assertEquals(model.toString(), tree.toString());
+                assertTrue(tree.height() <= 2 * 15);
+            }
+
+            //An append compares with the highest element only
+            final int[] compares = new int[1];
+            Comparator<Integer> counting = new Comparator<Integer>(){
+                public int compare(Integer a, Integer b){
+                    compares[0]++;
+                    return a.compareTo(b);
+                }
+            };
+            for(InsertionPolicy policy: new InsertionPolicy[]{
+                    InsertionPolicy.APPEND, InsertionPolicy.DEFERRED}){
+                BST12RB<Integer> tree = new BST12RB<Integer>(counting);
+                tree.setInsertionPolicy(policy);
+                compares[0] = 0;
+                for(int i = 0; i < 10000; i++){
+                    assertTrue(tree.add(i));
+                }
+                assertEquals(10000 - 1, compares[0]);
+
+                //The chain waiting under DEFERRED is balanced by any change
+                Iterator<Integer> iter = tree.iterator();
+                assertEquals(0, (int)iter.next());
+                iter.remove();
+                assertFalse(tree.hasTwoRed(tree.root));
+                tree.blackHeight(tree.root);
+                tree.checkSize(tree.root);
+                for(int i = 1; i < 10000; i++){
+                    assertEquals(i, (int)iter.next());
+                }
+                assertFalse(iter.hasNext());
+                assertEquals(9999, (int)tree.select(9998));
+            }
+        }
+
+        @Test
+        //The cached edges stay on the lowest and highest Node through adds,
+        //removes, polls and the bulk operations
+        public void testEdges(){
+            Random rnd = new Random();
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            assertNull(tree.pollFirst());
+            assertNull(tree.pollLast());
+            for(int i = 0; i < 20000; i++){
+                int op = rnd.nextInt(10);
+                Integer e = rnd.nextInt(500);
+                if(op == 0){
+                    assertEquals(model.pollFirst(), tree.pollFirst());
+                }else if(op == 1){
+                    assertEquals(model.pollLast(), tree.pollLast());
+                }else if(op == 2 && !model.isEmpty()){
+                    assertEquals(model.remove(e), tree.remove(e));
+                }else if(op == 3){
+                    tree.setInsertionPolicy(InsertionPolicy.values()[
+                        rnd.nextInt(InsertionPolicy.values().length)]);
+                    Integer high = model.isEmpty() ? 0 : model.last() + 1;
+                    assertEquals(model.add(high), tree.add(high));
+                }else if(op == 4 && i % 50 == 0){
+                    Integer to = e + rnd.nextInt(50);
+                    tree.removeRange(e, to);
+                    model.subSet(e, to).clear();
+                }else if(op == 5 && i % 20 == 0){
+                    List<Integer> batch = new ArrayList<Integer>();
+                    for(int j = rnd.nextInt(40); j > 0; j--){
+                        batch.add(rnd.nextInt(600) - 50);
+                    }
+                    model.addAll(batch);
+                    tree.addAll(batch);
+                }else{
+                    assertEquals(model.add(e), tree.add(e));
+                }
+                assertEquals(model.size(), tree.size());
+                assertSame(tree.firstNode(), tree.leftmost);
+                assertSame(tree.lastNode(), tree.rightmost);
+                if(!model.isEmpty()){
+                    assertEquals(model.first(), tree.first());
+                    assertEquals(model.last(), tree.last());
+                }
+            }
+            BST12RB<Integer> upper = tree.split(250);
+            assertSame(tree.lastNode(), tree.rightmost);
+            assertSame(upper.firstNode(), upper.leftmost);
+            tree.clear();
+            assertNull(tree.pollLast());
+            try{
+                tree.first();
+                fail("No Exception");
+            }catch(NoSuchElementException ex){
+                //correct
+            }
+        }
+
+        @Test
+        //Every Node keeps its height through all the ways the tree changes,
+        //so height needs no walk
+        public void testHeightTracked(){
+            Random rnd = new Random();
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            for(int i = 0; i < 4000; i++){
+                int op = rnd.nextInt(8);
+                Integer e = rnd.nextInt(3000);
+                if(op == 0){
+                    tree.setInsertionPolicy(InsertionPolicy.values()[
+                        rnd.nextInt(InsertionPolicy.values().length)]);
+                    Integer high = model.isEmpty() ? 0 : model.last() + 1;
+                    model.add(high);
+                    tree.add(high);
+                }else if(op == 1 && i % 10 == 0){
+                    List<Integer> batch = new ArrayList<Integer>();
+                    for(int j = rnd.nextInt(100); j > 0; j--){
+                        batch.add(rnd.nextInt(3000));
+                    }
+                    model.addAll(batch);
+                    tree.addAll(batch);
+                }else if(op == 2 && i % 20 == 0){
+                    Integer to = e + rnd.nextInt(200);
+                    model.subSet(e, to).clear();
+                    tree.removeRange(e, to);
+                }else if(op == 3){
+                    assertEquals(model.pollFirst(), tree.pollFirst());
+                }else if(op == 4 && i % 50 == 0){
+                    BST12RB<Integer> upper = tree.split(e);
+                    upper.checkSize(upper.root);
+                    BST12RB<Integer> other = new BST12RB<Integer>();
+                    for(int j = rnd.nextInt(300); j > 0; j--){
+                        Integer o = rnd.nextInt(3000);
+                        model.add(o);
+                        other.add(o);
+                    }
+                    tree = BST12RB.union(BST12RB.union(tree, upper), other);
+                }else if(op < 6 && !model.isEmpty()){
+                    assertEquals(model.remove(e), tree.remove(e));
+                }else{
+                    assertEquals(model.add(e), tree.add(e));
+                }
+                assertEquals(model.size(), tree.size());
+                tree.checkSize(tree.root);
+            }
+            assertEquals(model.toString(), tree.toString());
+        }
     }
 }
@@ -0,0 +1,1796 @@
+/**
+ * This file contains a red-black tree that maps keys to values.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines a red-black tree whose Nodes carry a value next to
+ * the key, as a java.util.NavigableMap.
+ * get, put, putIfAbsent, computeIfAbsent, merge and remove find their key
+ * in one descent and link a new Node where that descent ended, so a
+ * lookup allocates nothing and an update never searches twice.
+ * A removed Node is unlinked rather than overwritten by its successor,
+ * so iterators and Nodes already handed out stay valid.
+ * A Comparator given to the constructor replaces the natural order of the
+ * keys, and every Node keeps its color (true for black) and the height of
+ * its subtree like the Nodes of BST12RB.
+ */
+public class BST12RBMap<K extends Comparable<? super K>, V>
+    extends AbstractMap<K, V> implements NavigableMap<K, V>{
+    private Node<K, V> root;
+    private int size;
+    //Structural changes, for the fail-fast iterators
+    private int modCount;
+    //The order of the keys, null for their natural order
+    private final Comparator<? super K> comparator;
+
+    /**
+     * no-arg Constructor
+     */
+    public BST12RBMap(){
+        this.comparator = null;
+    }
+
+    /**
+     * Constructor for keys in an order of their own
+     * @param comparator the order of the keys, null for their natural
+     * order
+     */
+    public BST12RBMap(Comparator<? super K> comparator){
+        this.comparator = comparator;
+    }
+
+    /**
+     * Constructor that copies a whole map
+     * @param m the map with entries to be copied
+     */
+    public BST12RBMap(Map<? extends K, ? extends V> m)
+            throws NullPointerException, ClassCastException{
+            this(m, null);
+    }
+
+    /**
+     * Constructor that copies a whole map into an order of its own
+     * @param m the map with entries to be copied
+     * @param comparator the order of the keys, null for their natural
+     * order
+     */
+    public BST12RBMap(Map<? extends K, ? extends V> m, Comparator<? super K> comparator)
+            throws NullPointerException, ClassCastException{
+            this.comparator = comparator;
+            putAll(m);
+    }
+
+    /*--------------------------Lookups and updates--------------------------*/
+    /**
+     * @return the number of keys in the map
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * Tests if the map is empty
+     * @return true if the map is empty
+     */
+    public boolean isEmpty(){
+        return this.root == null;
+    }
+
+    /**
+     * clear the current map
+     */
+    public void clear(){
+        this.root = null;
+        this.size = 0;
+        this.modCount++;
+    }
+
+    /**
+     * @param key the key to be searched
+     * @return true if the key is mapped, even to null
+     */
+    public boolean containsKey(Object key) throws NullPointerException, ClassCastException{
+        return getNode(key) != null;
+    }
+
+    /**
+     * @param key the key to be searched
+     * @return the value of the key, null if there is none
+     */
+    public V get(Object key) throws NullPointerException, ClassCastException{
+        Node<K, V> found = getNode(key);
+        return found == null ? null : found.value;
+    }
+
+    /**
+     * @param key the key to be searched
+     * @param defaultValue what to return for a missing key
+     * @return the value of the key, defaultValue if there is none
+     */
+    public V getOrDefault(Object key, V defaultValue)
+            throws NullPointerException, ClassCastException{
+            Node<K, V> found = getNode(key);
+            return found == null ? defaultValue : found.value;
+    }
+
+    /**
+     * map a key to a value
+     * @param key the key
+     * @param value the value
+     * @return the value the key had, null if there was none
+     */
+    public V put(K key, V value) throws NullPointerException, ClassCastException{
+        return put(key, value, true);
+    }
+
+    /**
+     * map a key to a value unless it has a non-null one
+     * @param key the key
+     * @param value the value
+     * @return the value the key had, null if there was none
+     */
+    public V putIfAbsent(K key, V value) throws NullPointerException, ClassCastException{
+        return put(key, value, false);
+    }
+
+    /**
+     * The function runs only for a missing key, and the new Node goes
+     * where the descent for that key ended
+     * @param key the key
+     * @param function gives the value of a missing key
+     * @return the value of the key after the call
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> function)
+            throws NullPointerException, ClassCastException,
+            ConcurrentModificationException{
+            if(key == null || function == null){
+                throw new NullPointerException();
+            }
+
+            Node<K, V> curParent = null;
+            Node<K, V> current = root;
+            int cmp = 0;
+            while(current != null){
+                curParent = current;
+                cmp = compare(key, current.key);
+                if(cmp < 0){
+                    current = current.left;
+                }else if(cmp > 0){
+                    current = current.right;
+                }else{
+                    if(current.value == null){
+                        current.value = function.apply(key);
+                    }
+                    return current.value;
+                }
+            }
+
+            int expectedModCount = modCount;
+            V value = function.apply(key);
+            if(value == null){
+                return null;
+            }
+            //The slot found above is stale if the function changed the map
+            if(modCount != expectedModCount){
+                throw new ConcurrentModificationException();
+            }
+            link(key, value, curParent, cmp);
+            return value;
+    }
+
+    /**
+     * A missing key takes value, a present one takes what function
+     * makes of its old value and value, and null from function removes it
+     * @param key the key
+     * @param value the value to be merged
+     * @param function combines the old value with value
+     * @return the value of the key after the call, null if it is gone
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> function)
+            throws NullPointerException, ClassCastException,
+            ConcurrentModificationException{
+            if(key == null || value == null || function == null){
+                throw new NullPointerException();
+            }
+
+            Node<K, V> curParent = null;
+            Node<K, V> current = root;
+            int cmp = 0;
+            while(current != null){
+                curParent = current;
+                cmp = compare(key, current.key);
+                if(cmp < 0){
+                    current = current.left;
+                }else if(cmp > 0){
+                    current = current.right;
+                }else{
+                    if(current.value == null){
+                        current.value = value;
+                        return value;
+                    }
+                    int expectedModCount = modCount;
+                    V merged = function.apply(current.value, value);
+                    if(modCount != expectedModCount){
+                        throw new ConcurrentModificationException();
+                    }
+                    if(merged == null){
+                        deleteNode(current);
+                    }else{
+                        current.value = merged;
+                    }
+                    return merged;
+                }
+            }
+            link(key, value, curParent, cmp);
+            return value;
+    }
+
+    /**
+     * remove the given key if it exists
+     * @param key the key to be removed
+     * @return the value it had, null if there was none
+     */
+    public V remove(Object key) throws NullPointerException, ClassCastException{
+        Node<K, V> found = getNode(key);
+        if(found == null){
+            return null;
+        }
+        V old = found.value;
+        deleteNode(found);
+        return old;
+    }
+
+    /**
+     * Every Node keeps the height of its subtree, so this is O(1)
+     * @return the height of current tree
+     */
+    public int height(){
+        return heightOf(root);
+    }
+
+    /*--------------------------Navigation--------------------------*/
+    /**
+     * @return the order of the keys, null for their natural order
+     */
+    public Comparator<? super K> comparator(){
+        return comparator;
+    }
+
+    public K firstKey() throws NoSuchElementException{
+        return key(firstNode());
+    }
+
+    public K lastKey() throws NoSuchElementException{
+        return key(lastNode());
+    }
+
+    public Map.Entry<K, V> firstEntry(){
+        return snapshot(firstNode());
+    }
+
+    public Map.Entry<K, V> lastEntry(){
+        return snapshot(lastNode());
+    }
+
+    public Map.Entry<K, V> pollFirstEntry(){
+        return poll(firstNode());
+    }
+
+    public Map.Entry<K, V> pollLastEntry(){
+        return poll(lastNode());
+    }
+
+    public Map.Entry<K, V> lowerEntry(K key){
+        return snapshot(floorNode(key, false));
+    }
+
+    public Map.Entry<K, V> floorEntry(K key){
+        return snapshot(floorNode(key, true));
+    }
+
+    public Map.Entry<K, V> ceilingEntry(K key){
+        return snapshot(ceilingNode(key, true));
+    }
+
+    public Map.Entry<K, V> higherEntry(K key){
+        return snapshot(ceilingNode(key, false));
+    }
+
+    public K lowerKey(K key){
+        return keyOrNull(floorNode(key, false));
+    }
+
+    public K floorKey(K key){
+        return keyOrNull(floorNode(key, true));
+    }
+
+    public K ceilingKey(K key){
+        return keyOrNull(ceilingNode(key, true));
+    }
+
+    public K higherKey(K key){
+        return keyOrNull(ceilingNode(key, false));
+    }
+
+    /*--------------------------Views--------------------------*/
+    /**
+     * The Nodes of the set are the ones of the tree, setValue writes
+     * through
+     * @return the entries in ascending key order
+     */
+    public Set<Map.Entry<K, V>> entrySet(){
+        return new EntrySet(null);
+    }
+
+    public Set<K> keySet(){
+        return navigableKeySet();
+    }
+
+    public NavigableSet<K> navigableKeySet(){
+        return new KeySet<K>(this);
+    }
+
+    public NavigableSet<K> descendingKeySet(){
+        return descendingMap().navigableKeySet();
+    }
+
+    public NavigableMap<K, V> descendingMap(){
+        return new SubMap(null, false, null, false, true);
+    }
+
+    public NavigableMap<K, V> subMap(K from, boolean fromInclusive,
+            K to, boolean toInclusive){
+        if(from == null || to == null){
+            throw new NullPointerException();
+        }
+        return all().narrow(from, fromInclusive, to, toInclusive);
+    }
+
+    public NavigableMap<K, V> headMap(K to, boolean inclusive){
+        if(to == null){
+            throw new NullPointerException();
+        }
+        return all().narrow(null, false, to, inclusive);
+    }
+
+    public NavigableMap<K, V> tailMap(K from, boolean inclusive){
+        if(from == null){
+            throw new NullPointerException();
+        }
+        return all().narrow(from, inclusive, null, false);
+    }
+
+    public SortedMap<K, V> subMap(K from, K to){
+        return subMap(from, true, to, false);
+    }
+
+    public SortedMap<K, V> headMap(K to){
+        return headMap(to, false);
+    }
+
+    public SortedMap<K, V> tailMap(K from){
+        return tailMap(from, true);
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * @param key the key to be searched
+     * @return the Node of the key, null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private Node<K, V> getNode(Object key) throws NullPointerException, ClassCastException{
+        if(key == null){
+            throw new NullPointerException();
+        }
+        K k = (K)key;
+        Node<K, V> current = root;
+        while(current != null){
+            int cmp = compare(k, current.key);
+            if(cmp < 0){
+                current = current.left;
+            }else if(cmp > 0){
+                current = current.right;
+            }else{
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * put and putIfAbsent share one descent
+     * @param key the key
+     * @param value the value
+     * @param replace true if a present value is replaced
+     * @return the value the key had, null if there was none
+     */
+    private V put(K key, V value, boolean replace)
+            throws NullPointerException, ClassCastException{
+            if(key == null){
+                throw new NullPointerException();
+            }
+
+            Node<K, V> curParent = null;
+            Node<K, V> current = root;
+            int cmp = 0;
+            while(current != null){
+                curParent = current;
+                cmp = compare(key, current.key);
+                if(cmp < 0){
+                    current = current.left;
+                }else if(cmp > 0){
+                    current = current.right;
+                }else{
+                    V old = current.value;
+                    if(replace || old == null){
+                        current.value = value;
+                    }
+                    return old;
+                }
+            }
+            link(key, value, curParent, cmp);
+            return null;
+    }
+
+    /**
+     * Hang a new red Node where a descent ended and rebalance
+     * @param key the key
+     * @param value the value
+     * @param curParent the last Node of the descent, null for an empty tree
+     * @param cmp the comparison of key with curParent's key
+     */
+    private void link(K key, V value, Node<K, V> curParent, int cmp){
+        Node<K, V> newNode = new Node<K, V>(key, value, curParent);
+        if(curParent == null){
+            root = newNode;
+        }else if(cmp < 0){
+            curParent.left = newNode;
+        }else{
+            curParent.right = newNode;
+        }
+        for(Node<K, V> n = curParent; n != null && reheight(n); n = n.parent){
+        }
+        balanceRB(newNode);
+        this.size++;
+        this.modCount++;
+    }
+
+    /**
+     * Unlink a Node that is in the tree and restore the red-black property.
+     * The successor is moved into its place as a Node, not copied
+     * @param toRemove the Node to be removed
+     */
+    private void deleteNode(Node<K, V> toRemove){
+        Node<K, V> moved = toRemove;
+        boolean movedWasBlack = moved.color;
+        Node<K, V> child;
+        //The child may be null, so its parent is tracked on its own
+        Node<K, V> childParent;
+        if(toRemove.left == null){
+            child = toRemove.right;
+            childParent = toRemove.parent;
+            replace(toRemove, child);
+        }else if(toRemove.right == null){
+            child = toRemove.left;
+            childParent = toRemove.parent;
+            replace(toRemove, child);
+        }else{
+            //The successor takes the place of the removed Node
+            moved = min(toRemove.right);
+            movedWasBlack = moved.color;
+            child = moved.right;
+            if(moved.parent == toRemove){
+                childParent = moved;
+            }else{
+                childParent = moved.parent;
+                replace(moved, child);
+                moved.right = toRemove.right;
+                moved.right.parent = moved;
+            }
+            replace(toRemove, moved);
+            moved.left = toRemove.left;
+            moved.left.parent = moved;
+            moved.color = toRemove.color;
+        }
+        //Every Node that changed place or lost one below it is on the way
+        //up from childParent
+        for(Node<K, V> n = childParent; n != null; n = n.parent){
+            reheight(n);
+        }
+        if(movedWasBlack){
+            hasLessBlack(child, childParent);
+        }
+        this.size--;
+        this.modCount++;
+    }
+
+    /**
+     * Hang replacement where entry used to be
+     * @param entry the Node leaving its position
+     * @param replacement the Node taking its place, may be null
+     */
+    private void replace(Node<K, V> entry, Node<K, V> replacement){
+        Node<K, V> curParent = entry.parent;
+        if(curParent == null){
+            root = replacement;
+        }else if(entry == curParent.left){
+            curParent.left = replacement;
+        }else{
+            curParent.right = replacement;
+        }
+        if(replacement != null){
+            replacement.parent = curParent;
+        }
+    }
+
+    /**
+     * balance the 2-red defect brought by a new red Node
+     * @param newNode the newly added Node
+     */
+    private void balanceRB(Node<K, V> newNode){
+        while(isRed(newNode.parent)){
+            Node<K, V> curParent = newNode.parent;
+            Node<K, V> grandParent = curParent.parent;
+            if(curParent == grandParent.left){
+                Node<K, V> uncle = grandParent.right;
+                if(isRed(uncle)){
+                    curParent.color = true;
+                    uncle.color = true;
+                    grandParent.color = false;
+                    newNode = grandParent;
+                }else{
+                    if(newNode == curParent.right){
+                        newNode = curParent;
+                        rotateCClockWise(newNode);
+                        curParent = newNode.parent;
+                    }
+                    curParent.color = true;
+                    grandParent.color = false;
+                    rotateClockWise(grandParent);
+                }
+            }else{
+                Node<K, V> uncle = grandParent.left;
+                if(isRed(uncle)){
+                    curParent.color = true;
+                    uncle.color = true;
+                    grandParent.color = false;
+                    newNode = grandParent;
+                }else{
+                    if(newNode == curParent.left){
+                        newNode = curParent;
+                        rotateClockWise(newNode);
+                        curParent = newNode.parent;
+                    }
+                    curParent.color = true;
+                    grandParent.color = false;
+                    rotateCClockWise(grandParent);
+                }
+            }
+        }
+        root.color = true;
+    }
+
+    /**
+     * balance a Node whose paths have one black Node less than its
+     * sibling's
+     * @param defect the Node with 1 black Node less, may be null
+     * @param curParent the parent of defect
+     */
+    private void hasLessBlack(Node<K, V> defect, Node<K, V> curParent){
+        while(defect != root && !isRed(defect)){
+            //A null defect is on the side whose link is null, its sibling
+            //has a black Node so it cannot be null as well
+            if(defect == curParent.left){
+                Node<K, V> sibling = curParent.right;
+                if(isRed(sibling)){
+                    sibling.color = true;
+                    curParent.color = false;
+                    rotateCClockWise(curParent);
+                    sibling = curParent.right;
+                }
+                if(!isRed(sibling.left) && !isRed(sibling.right)){
+                    sibling.color = false;
+                    defect = curParent;
+                    curParent = defect.parent;
+                }else{
+                    if(!isRed(sibling.right)){
+                        sibling.left.color = true;
+                        sibling.color = false;
+                        rotateClockWise(sibling);
+                        sibling = curParent.right;
+                    }
+                    sibling.color = curParent.color;
+                    curParent.color = true;
+                    sibling.right.color = true;
+                    rotateCClockWise(curParent);
+                    defect = root;
+                }
+            }else{
+                Node<K, V> sibling = curParent.left;
+                if(isRed(sibling)){
+                    sibling.color = true;
+                    curParent.color = false;
+                    rotateClockWise(curParent);
+                    sibling = curParent.left;
+                }
+                if(!isRed(sibling.left) && !isRed(sibling.right)){
+                    sibling.color = false;
+                    defect = curParent;
+                    curParent = defect.parent;
+                }else{
+                    if(!isRed(sibling.left)){
+                        sibling.right.color = true;
+                        sibling.color = false;
+                        rotateCClockWise(sibling);
+                        sibling = curParent.left;
+                    }
+                    sibling.color = curParent.color;
+                    curParent.color = true;
+                    sibling.left.color = true;
+                    rotateClockWise(curParent);
+                    defect = root;
+                }
+            }
+        }
+        if(defect != null){
+            defect.color = true;
+        }
+    }
+
+    /**
+     * rotate clockwisely, the left child of pivot takes its place
+     * @param pivot the Node that will be readopted by its child
+     */
+    private void rotateClockWise(Node<K, V> pivot){
+        Node<K, V> child = pivot.left;
+        pivot.left = child.right;
+        if(child.right != null){
+            child.right.parent = pivot;
+        }
+        replace(pivot, child);
+        child.right = pivot;
+        pivot.parent = child;
+        reheightUp(pivot);
+    }
+
+    /**
+     * rotate counter clockwisely, the right child of pivot takes its place
+     * @param pivot the Node that will be readopted by its child
+     */
+    private void rotateCClockWise(Node<K, V> pivot){
+        Node<K, V> child = pivot.right;
+        pivot.right = child.left;
+        if(child.left != null){
+            child.left.parent = pivot;
+        }
+        replace(pivot, child);
+        child.left = pivot;
+        pivot.parent = child;
+        reheightUp(pivot);
+    }
+
+    /**
+     * After a rotation, pivot and the child above it take their heights
+     * again, and so does every ancestor whose height changes with them
+     * @param pivot the Node that went down
+     */
+    private void reheightUp(Node<K, V> pivot){
+        reheight(pivot);
+        reheight(pivot.parent);
+        for(Node<K, V> n = pivot.parent.parent; n != null && reheight(n); n = n.parent){
+        }
+    }
+
+    /**
+     * Take the height of a Node from the heights of its children
+     * @param entry a Node
+     * @return true if the height of entry changed
+     */
+    private static boolean reheight(Node<?, ?> entry){
+        int height = Math.max(heightOf(entry.left), heightOf(entry.right)) + 1;
+        if(height == entry.height){
+            return false;
+        }
+        entry.height = height;
+        return true;
+    }
+
+    /**
+     * @param entry a Node, may be null
+     * @return the number of levels of the subtree under entry
+     */
+    private static int heightOf(Node<?, ?> entry){
+        return entry == null ? 0 : entry.height;
+    }
+
+    /**
+     * @return the order of a and b, by the comparator if there is one
+     */
+    private int compare(K a, K b){
+        return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+    }
+
+    private static boolean isRed(Node<?, ?> entry){
+        return entry != null && !entry.color;
+    }
+
+    /**
+     * @param entry the root of a subtree, not null
+     * @return the Node with the lowest key of the subtree
+     */
+    private static <K, V> Node<K, V> min(Node<K, V> entry){
+        while(entry.left != null){
+            entry = entry.left;
+        }
+        return entry;
+    }
+
+    /**
+     * @param entry the root of a subtree, not null
+     * @return the Node with the highest key of the subtree
+     */
+    private static <K, V> Node<K, V> max(Node<K, V> entry){
+        while(entry.right != null){
+            entry = entry.right;
+        }
+        return entry;
+    }
+
+    private Node<K, V> firstNode(){
+        return root == null ? null : min(root);
+    }
+
+    private Node<K, V> lastNode(){
+        return root == null ? null : max(root);
+    }
+
+    /**
+     * @param entry a Node of the tree
+     * @return the Node with the next higher key, null if none
+     */
+    private static <K, V> Node<K, V> getNext(Node<K, V> entry){
+        if(entry.right != null){
+            return min(entry.right);
+        }
+        Node<K, V> curParent = entry.parent;
+        while(curParent != null && entry == curParent.right){
+            entry = curParent;
+            curParent = curParent.parent;
+        }
+        return curParent;
+    }
+
+    /**
+     * @param entry a Node of the tree
+     * @return the Node with the next lower key, null if none
+     */
+    private static <K, V> Node<K, V> getPrev(Node<K, V> entry){
+        if(entry.left != null){
+            return max(entry.left);
+        }
+        Node<K, V> curParent = entry.parent;
+        while(curParent != null && entry == curParent.left){
+            entry = curParent;
+            curParent = curParent.parent;
+        }
+        return curParent;
+    }
+
+    /**
+     * @param key the key to be compared
+     * @param inclusive true if key itself may be found
+     * @return the Node with the lowest key above key, null if none
+     */
+    private Node<K, V> ceilingNode(K key, boolean inclusive) throws NullPointerException{
+        if(key == null){
+            throw new NullPointerException();
+        }
+        Node<K, V> found = null;
+        Node<K, V> current = root;
+        while(current != null){
+            int cmp = compare(key, current.key);
+            if(cmp < 0 || cmp == 0 && inclusive){
+                if(cmp == 0){
+                    return current;
+                }
+                found = current;
+                current = current.left;
+            }else{
+                current = current.right;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param key the key to be compared
+     * @param inclusive true if key itself may be found
+     * @return the Node with the highest key below key, null if none
+     */
+    private Node<K, V> floorNode(K key, boolean inclusive) throws NullPointerException{
+        if(key == null){
+            throw new NullPointerException();
+        }
+        Node<K, V> found = null;
+        Node<K, V> current = root;
+        while(current != null){
+            int cmp = compare(key, current.key);
+            if(cmp > 0 || cmp == 0 && inclusive){
+                if(cmp == 0){
+                    return current;
+                }
+                found = current;
+                current = current.right;
+            }else{
+                current = current.left;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param entry a Node, or null
+     * @return an immutable copy of the Node, null if entry is null
+     */
+    private static <K, V> Map.Entry<K, V> snapshot(Node<K, V> entry){
+        return entry == null ? null : new AbstractMap.SimpleImmutableEntry<K, V>(entry);
+    }
+
+    /**
+     * remove a Node already found
+     * @param entry a Node of the tree, or null
+     * @return a copy of the removed Node, null if entry is null
+     */
+    private Map.Entry<K, V> poll(Node<K, V> entry){
+        Map.Entry<K, V> polled = snapshot(entry);
+        if(entry != null){
+            deleteNode(entry);
+        }
+        return polled;
+    }
+
+    private static <K> K keyOrNull(Node<K, ?> entry){
+        return entry == null ? null : entry.key;
+    }
+
+    private static <K> K key(Node<K, ?> entry) throws NoSuchElementException{
+        if(entry == null){
+            throw new NoSuchElementException();
+        }
+        return entry.key;
+    }
+
+    /**
+     * @return a view without bounds
+     */
+    private SubMap all(){
+        return new SubMap(null, false, null, false, false);
+    }
+
+    /**
+     * @return the black height of entry, -1 if its paths disagree, if two
+     * red Nodes are adjacent, or if a parent link or a height is wrong
+     */
+    private int blackHeight(Node<K, V> entry){
+        if(entry == null){
+            return 0;
+        }
+        if(isRed(entry) && (isRed(entry.left) || isRed(entry.right))
+                || entry.left != null && entry.left.parent != entry
+                || entry.right != null && entry.right.parent != entry
+                || entry.height != Math.max(heightOf(entry.left), heightOf(entry.right)) + 1){
+            return -1;
+        }
+        int leftBlack = blackHeight(entry.left);
+        int rightBlack = blackHeight(entry.right);
+        if(leftBlack < 0 || leftBlack != rightBlack){
+            return -1;
+        }
+        return entry.color ? leftBlack + 1 : leftBlack;
+    }
+
+    /**
+     * This class defines the Node of the map, it is the Map.Entry handed
+     * out by entrySet as well
+     */
+    static final class Node<K, V> implements Map.Entry<K, V>{
+        K key;
+        V value;
+        Node<K, V> left;
+        Node<K, V> right;
+        Node<K, V> parent;
+        //true for black, a new Node is red
+        boolean color = false;
+        //Levels of the subtree under this Node
+        int height = 1;
+
+        /**
+         * Constructor
+         * @param key the key
+         * @param value the value
+         * @param parent the parent Node, null for the root
+         */
+        Node(K key, V value, Node<K, V> parent){
+            this.key = key;
+            this.value = value;
+            this.parent = parent;
+        }
+
+        public K getKey(){
+            return key;
+        }
+
+        public V getValue(){
+            return value;
+        }
+
+        public V setValue(V value){
+            V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        public boolean equals(Object o){
+            if(!(o instanceof Map.Entry)){
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>)o;
+            return key.equals(other.getKey()) && Objects.equals(value, other.getValue());
+        }
+
+        public int hashCode(){
+            return key.hashCode() ^ Objects.hashCode(value);
+        }
+
+        public String toString(){
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * this class defines the iterator over the Nodes, in either order
+     * and optionally stopping at the bounds of a view
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>>{
+        Node<K, V> next;
+        Node<K, V> lastReturned;
+        int expectedModCount = modCount;
+        boolean descending;
+        //null for the whole map
+        SubMap view;
+
+        /**
+         * Constructor
+         * @param first the first Node to return, null for none
+         * @param descending true to walk from high keys to low ones
+         * @param view the view whose bounds end the walk, null for none
+         */
+        public EntryIterator(Node<K, V> first, boolean descending, SubMap view){
+            this.next = first;
+            this.descending = descending;
+            this.view = view;
+        }
+
+        public boolean hasNext(){
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next()
+                throws NoSuchElementException, ConcurrentModificationException{
+                if(next == null){
+                    throw new NoSuchElementException();
+                }
+                if(modCount != expectedModCount){
+                    throw new ConcurrentModificationException();
+                }
+                lastReturned = next;
+                next = descending ? getPrev(next) : getNext(next);
+                if(view != null){
+                    next = view.inRange(next);
+                }
+                return lastReturned;
+        }
+
+        /**
+         * The Node after lastReturned stays in the tree, so the walk
+         * goes on from it
+         */
+        public void remove() throws IllegalStateException, ConcurrentModificationException{
+            if(lastReturned == null){
+                throw new IllegalStateException();
+            }
+            if(modCount != expectedModCount){
+                throw new ConcurrentModificationException();
+            }
+            deleteNode(lastReturned);
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * This class defines the Nodes of the map or of a view
+     */
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>>{
+        //null for the whole map
+        SubMap view;
+
+        /**
+         * Constructor
+         * @param view the view the Nodes belong to, null for the whole map
+         */
+        public EntrySet(SubMap view){
+            this.view = view;
+        }
+
+        public Iterator<Map.Entry<K, V>> iterator(){
+            return view == null ? new EntryIterator(firstNode(), false, null)
+                : view.entryIterator();
+        }
+
+        public int size(){
+            return view == null ? BST12RBMap.this.size : view.size();
+        }
+
+        public boolean isEmpty(){
+            return view == null ? BST12RBMap.this.isEmpty() : view.isEmpty();
+        }
+
+        public boolean contains(Object o){
+            return find(o) != null;
+        }
+
+        public boolean remove(Object o){
+            Node<K, V> found = find(o);
+            if(found == null){
+                return false;
+            }
+            deleteNode(found);
+            return true;
+        }
+
+        public void clear(){
+            if(view == null){
+                BST12RBMap.this.clear();
+            }else{
+                super.clear();
+            }
+        }
+
+        /**
+         * @param o an object
+         * @return the Node of the tree equal to o, null if none
+         */
+        private Node<K, V> find(Object o){
+            if(!(o instanceof Map.Entry)){
+                return null;
+            }
+            Map.Entry<?, ?> wanted = (Map.Entry<?, ?>)o;
+            Object key = wanted.getKey();
+            if(view != null && !view.containsKey(key)){
+                return null;
+            }
+            Node<K, V> found = getNode(key);
+            return found != null && Objects.equals(found.value, wanted.getValue())
+                ? found : null;
+        }
+    }
+
+    /**
+     * This class defines a view of the keys between two bounds, in either
+     * order. It holds no Nodes, everything goes through the tree
+     */
+    private class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V>{
+        //The bounds in ascending order, null for none
+        K lo;
+        boolean loInclusive;
+        K hi;
+        boolean hiInclusive;
+        boolean descending;
+
+        /**
+         * Constructor
+         * @param lo the lower bound, null for none
+         * @param loInclusive true if lo belongs to the view
+         * @param hi the upper bound, null for none
+         * @param hiInclusive true if hi belongs to the view
+         * @param descending true if the view runs from high keys to low ones
+         */
+        public SubMap(K lo, boolean loInclusive, K hi, boolean hiInclusive,
+                boolean descending){
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        /*--------------------------Lookups and updates--------------------------*/
+        /**
+         * counted with a walk, like every view of TreeMap
+         * @return the number of keys in the view
+         */
+        public int size(){
+            if(lo == null && hi == null){
+                return BST12RBMap.this.size;
+            }
+            int count = 0;
+            for(Iterator<Map.Entry<K, V>> iter = entryIterator(); iter.hasNext(); iter.next()){
+                count++;
+            }
+            return count;
+        }
+
+        public boolean isEmpty(){
+            return absLowest() == null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean containsKey(Object key){
+            return inRange((K)key) && BST12RBMap.this.containsKey(key);
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(Object key){
+            return inRange((K)key) ? BST12RBMap.this.get(key) : null;
+        }
+
+        public V put(K key, V value){
+            if(!inRange(key)){
+                throw new IllegalArgumentException();
+            }
+            return BST12RBMap.this.put(key, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        public V remove(Object key){
+            return inRange((K)key) ? BST12RBMap.this.remove(key) : null;
+        }
+
+        public Set<Map.Entry<K, V>> entrySet(){
+            return new EntrySet(this);
+        }
+
+        public Comparator<? super K> comparator(){
+            return descending ? Collections.reverseOrder(comparator) : comparator;
+        }
+
+        /*--------------------------Navigation--------------------------*/
+        public K firstKey(){
+            return key(lowest());
+        }
+
+        public K lastKey(){
+            return key(highest());
+        }
+
+        public Map.Entry<K, V> firstEntry(){
+            return snapshot(lowest());
+        }
+
+        public Map.Entry<K, V> lastEntry(){
+            return snapshot(highest());
+        }
+
+        public Map.Entry<K, V> pollFirstEntry(){
+            return poll(lowest());
+        }
+
+        public Map.Entry<K, V> pollLastEntry(){
+            return poll(highest());
+        }
+
+        public Map.Entry<K, V> lowerEntry(K key){
+            return snapshot(below(key, false));
+        }
+
+        public Map.Entry<K, V> floorEntry(K key){
+            return snapshot(below(key, true));
+        }
+
+        public Map.Entry<K, V> ceilingEntry(K key){
+            return snapshot(above(key, true));
+        }
+
+        public Map.Entry<K, V> higherEntry(K key){
+            return snapshot(above(key, false));
+        }
+
+        public K lowerKey(K key){
+            return keyOrNull(below(key, false));
+        }
+
+        public K floorKey(K key){
+            return keyOrNull(below(key, true));
+        }
+
+        public K ceilingKey(K key){
+            return keyOrNull(above(key, true));
+        }
+
+        public K higherKey(K key){
+            return keyOrNull(above(key, false));
+        }
+
+        /*--------------------------Views--------------------------*/
+        public Set<K> keySet(){
+            return navigableKeySet();
+        }
+
+        public NavigableSet<K> navigableKeySet(){
+            return new KeySet<K>(this);
+        }
+
+        public NavigableSet<K> descendingKeySet(){
+            return descendingMap().navigableKeySet();
+        }
+
+        public NavigableMap<K, V> descendingMap(){
+            return new SubMap(lo, loInclusive, hi, hiInclusive, !descending);
+        }
+
+        public NavigableMap<K, V> subMap(K from, boolean fromInclusive,
+                K to, boolean toInclusive){
+            if(from == null || to == null){
+                throw new NullPointerException();
+            }
+            return descending ? narrow(to, toInclusive, from, fromInclusive)
+                : narrow(from, fromInclusive, to, toInclusive);
+        }
+
+        public NavigableMap<K, V> headMap(K to, boolean inclusive){
+            if(to == null){
+                throw new NullPointerException();
+            }
+            return descending ? narrow(to, inclusive, null, false)
+                : narrow(null, false, to, inclusive);
+        }
+
+        public NavigableMap<K, V> tailMap(K from, boolean inclusive){
+            if(from == null){
+                throw new NullPointerException();
+            }
+            return descending ? narrow(null, false, from, inclusive)
+                : narrow(from, inclusive, null, false);
+        }
+
+        public SortedMap<K, V> subMap(K from, K to){
+            return subMap(from, true, to, false);
+        }
+
+        public SortedMap<K, V> headMap(K to){
+            return headMap(to, false);
+        }
+
+        public SortedMap<K, V> tailMap(K from){
+            return tailMap(from, true);
+        }
+
+        /*--------------------------Helper methods--------------------------*/
+        /**
+         * A view within this one in the same order, a null bound keeps the
+         * bound of this view
+         * @param from the new lower bound, or null
+         * @param fromInclusive true if from belongs to the new view
+         * @param to the new upper bound, or null
+         * @param toInclusive true if to belongs to the new view
+         * @return the narrower view
+         */
+        SubMap narrow(K from, boolean fromInclusive, K to, boolean toInclusive)
+                throws IllegalArgumentException{
+                if(from != null && to != null && compare(from, to) > 0
+                        || from != null && outside(from, fromInclusive)
+                        || to != null && outside(to, toInclusive)){
+                    throw new IllegalArgumentException();
+                }
+                return new SubMap(from == null ? lo : from,
+                        from == null ? loInclusive : fromInclusive,
+                        to == null ? hi : to, to == null ? hiInclusive : toInclusive,
+                        descending);
+        }
+
+        /**
+         * @return an iterator over the Nodes of the view in its order
+         */
+        Iterator<Map.Entry<K, V>> entryIterator(){
+            return new EntryIterator(lowest(), descending, this);
+        }
+
+        private Node<K, V> lowest(){
+            return descending ? absHighest() : absLowest();
+        }
+
+        private Node<K, V> highest(){
+            return descending ? absLowest() : absHighest();
+        }
+
+        /**
+         * @return the Node before key in the order of the view
+         */
+        private Node<K, V> below(K key, boolean inclusive){
+            return descending ? absCeiling(key, inclusive) : absFloor(key, inclusive);
+        }
+
+        /**
+         * @return the Node after key in the order of the view
+         */
+        private Node<K, V> above(K key, boolean inclusive){
+            return descending ? absFloor(key, inclusive) : absCeiling(key, inclusive);
+        }
+
+        private Node<K, V> absLowest(){
+            return inRange(lo == null ? firstNode() : ceilingNode(lo, loInclusive));
+        }
+
+        private Node<K, V> absHighest(){
+            return inRange(hi == null ? lastNode() : floorNode(hi, hiInclusive));
+        }
+
+        /**
+         * @param key the key to be compared
+         * @param inclusive true if key itself may be found
+         * @return the Node in the view with the lowest key above key
+         */
+        private Node<K, V> absCeiling(K key, boolean inclusive){
+            if(lo != null){
+                int cmp = compare(key, lo);
+                if(cmp < 0 || cmp == 0 && inclusive){
+                    return absLowest();
+                }
+            }
+            return inRange(ceilingNode(key, inclusive));
+        }
+
+        /**
+         * @param key the key to be compared
+         * @param inclusive true if key itself may be found
+         * @return the Node in the view with the highest key below key
+         */
+        private Node<K, V> absFloor(K key, boolean inclusive){
+            if(hi != null){
+                int cmp = compare(key, hi);
+                if(cmp > 0 || cmp == 0 && inclusive){
+                    return absHighest();
+                }
+            }
+            return inRange(floorNode(key, inclusive));
+        }
+
+        /**
+         * @param entry a Node, or null
+         * @return entry if its key is in the view, null otherwise
+         */
+        private Node<K, V> inRange(Node<K, V> entry){
+            return entry != null && inRange(entry.key) ? entry : null;
+        }
+
+        /**
+         * @param key a key
+         * @return true if key is between the bounds
+         */
+        private boolean inRange(K key){
+            if(lo != null){
+                int cmp = compare(key, lo);
+                if(cmp < 0 || cmp == 0 && !loInclusive) return false;
+            }
+            if(hi != null){
+                int cmp = compare(key, hi);
+                if(cmp > 0 || cmp == 0 && !hiInclusive) return false;
+            }
+            return true;
+        }
+
+        /**
+         * A narrower view may use an exclusive bound of this one, as long
+         * as it leaves that bound out as well
+         * @param key the bound of a narrower view
+         * @param inclusive true if key belongs to the narrower view
+         * @return true if key is beyond the bounds
+         */
+        private boolean outside(K key, boolean inclusive){
+            if(lo != null){
+                int cmp = compare(key, lo);
+                if(cmp < 0 || cmp == 0 && inclusive && !loInclusive) return true;
+            }
+            if(hi != null){
+                int cmp = compare(key, hi);
+                if(cmp > 0 || cmp == 0 && inclusive && !hiInclusive) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * This class defines the keys of a map as a NavigableSet, every
+     * question is handed to the map
+     */
+    private static class KeySet<K> extends AbstractSet<K> implements NavigableSet<K>{
+        NavigableMap<K, ?> map;
+
+        /**
+         * Constructor
+         * @param map the map whose keys are viewed
+         */
+        public KeySet(NavigableMap<K, ?> map){
+            this.map = map;
+        }
+
+        public Iterator<K> iterator(){
+            return new KeyIterator<K>(map.entrySet().iterator());
+        }
+
+        public Iterator<K> descendingIterator(){
+            return new KeyIterator<K>(map.descendingMap().entrySet().iterator());
+        }
+
+        public int size(){
+            return map.size();
+        }
+
+        public boolean isEmpty(){
+            return map.isEmpty();
+        }
+
+        public boolean contains(Object o){
+            return map.containsKey(o);
+        }
+
+        public boolean remove(Object o){
+            if(!map.containsKey(o)){
+                return false;
+            }
+            map.remove(o);
+            return true;
+        }
+
+        public void clear(){
+            map.clear();
+        }
+
+        public Comparator<? super K> comparator(){
+            return map.comparator();
+        }
+
+        public K first(){
+            return map.firstKey();
+        }
+
+        public K last(){
+            return map.lastKey();
+        }
+
+        public K lower(K key){
+            return map.lowerKey(key);
+        }
+
+        public K floor(K key){
+            return map.floorKey(key);
+        }
+
+        public K ceiling(K key){
+            return map.ceilingKey(key);
+        }
+
+        public K higher(K key){
+            return map.higherKey(key);
+        }
+
+        public K pollFirst(){
+            Map.Entry<K, ?> polled = map.pollFirstEntry();
+            return polled == null ? null : polled.getKey();
+        }
+
+        public K pollLast(){
+            Map.Entry<K, ?> polled = map.pollLastEntry();
+            return polled == null ? null : polled.getKey();
+        }
+
+        public NavigableSet<K> descendingSet(){
+            return new KeySet<K>(map.descendingMap());
+        }
+
+        public NavigableSet<K> subSet(K from, boolean fromInclusive,
+                K to, boolean toInclusive){
+            return new KeySet<K>(map.subMap(from, fromInclusive, to, toInclusive));
+        }
+
+        public NavigableSet<K> headSet(K to, boolean inclusive){
+            return new KeySet<K>(map.headMap(to, inclusive));
+        }
+
+        public NavigableSet<K> tailSet(K from, boolean inclusive){
+            return new KeySet<K>(map.tailMap(from, inclusive));
+        }
+
+        public SortedSet<K> subSet(K from, K to){
+            return subSet(from, true, to, false);
+        }
+
+        public SortedSet<K> headSet(K to){
+            return headSet(to, false);
+        }
+
+        public SortedSet<K> tailSet(K from){
+            return tailSet(from, true);
+        }
+    }
+
+    /**
+     * this class turns an iterator over Nodes into one over their keys
+     */
+    private static class KeyIterator<K> implements Iterator<K>{
+        Iterator<? extends Map.Entry<K, ?>> entries;
+
+        public KeyIterator(Iterator<? extends Map.Entry<K, ?>> entries){
+            this.entries = entries;
+        }
+
+        public boolean hasNext(){
+            return entries.hasNext();
+        }
+
+        public K next(){
+            return entries.next().getKey();
+        }
+
+        public void remove(){
+            entries.remove();
+        }
+    }
+
+    /**
+     * This class is used for BST12RBMap's specific tests
+     */
+    public static class MapTester extends junit.framework.TestCase{
+        @Test
+        public void testAgainstTreeMap(){
+            BST12RBMap<Integer, Integer> map = new BST12RBMap<Integer, Integer>();
+            TreeMap<Integer, Integer> model = new TreeMap<Integer, Integer>();
+            Random generator = new Random();
+            for(int i = 0; i < 30000; i++){
+                Integer key = generator.nextInt(2000);
+                Integer value = generator.nextInt(10);
+                switch(generator.nextInt(7)){
+                    case 0:
+                    case 1:
+                        assertEquals(model.put(key, value), map.put(key, value));
+                        break;
+                    case 2:
+                        assertEquals(model.remove(key), map.remove(key));
+                        break;
+                    case 3:
+                        //A zero sum removes the key
+                        assertEquals(model.merge(key, value, (a, b) -> (a + b) % 10 == 0 ? null : a + b),
+                                map.merge(key, value, (a, b) -> (a + b) % 10 == 0 ? null : a + b));
+                        break;
+                    case 4:
+                        assertEquals(model.computeIfAbsent(key, k -> k % 3 == 0 ? null : k),
+                                map.computeIfAbsent(key, k -> k % 3 == 0 ? null : k));
+                        break;
+                    case 5:
+                        assertEquals(model.putIfAbsent(key, value), map.putIfAbsent(key, value));
+                        break;
+                    default:
+                        assertEquals(model.get(key), map.get(key));
+                        assertEquals(model.containsKey(key), map.containsKey(key));
+                        assertEquals(model.floorEntry(key), map.floorEntry(key));
+                        assertEquals(model.higherKey(key), map.higherKey(key));
+                }
+                assertEquals(model.size(), map.size());
+            }
+            assertTrue(map.blackHeight(map.root) >= 0);
+            assertEquals(model, map);
+            assertEquals(map, model);
+            assertEquals(model.hashCode(), map.hashCode());
+            assertEquals(model.toString(), map.toString());
+            assertEquals(model.firstEntry(), map.firstEntry());
+            assertEquals(model.lastKey(), map.lastKey());
+            while(!model.isEmpty()){
+                assertEquals(model.pollFirstEntry(), map.pollFirstEntry());
+                assertEquals(model.pollLastEntry(), map.pollLastEntry());
+            }
+            assertTrue(map.isEmpty());
+            assertNull(map.pollFirstEntry());
+            try{
+                map.firstKey();
+                fail();
+            }catch(NoSuchElementException ex){
+            }
+        }
+
+        @Test
+        public void testViews(){
+            Random generator = new Random();
+            TreeMap<Integer, Integer> model = new TreeMap<Integer, Integer>();
+            for(int i = 0; i < 2000; i++){
+                int key = generator.nextInt(5000);
+                model.put(key, -key);
+            }
+            BST12RBMap<Integer, Integer> map = new BST12RBMap<Integer, Integer>(model);
+            checkView(model.descendingMap(), map.descendingMap(), 0, 5000);
+            for(int i = 0; i < 200; i++){
+                int from = generator.nextInt(5000);
+                int to = from + generator.nextInt(500);
+                boolean fromInclusive = generator.nextBoolean();
+                boolean toInclusive = generator.nextBoolean();
+                NavigableMap<Integer, Integer> expected =
+                    model.subMap(from, fromInclusive, to, toInclusive);
+                NavigableMap<Integer, Integer> view =
+                    map.subMap(from, fromInclusive, to, toInclusive);
+                checkView(expected, view, from, to);
+                checkView(expected.descendingMap(), view.descendingMap(), from, to);
+                checkView(model.headMap(to, toInclusive).descendingMap(),
+                        map.headMap(to, toInclusive).descendingMap(), from, to);
+                int middle = from + (to - from) / 2;
+                if(middle == from || middle == to){
+                    continue;
+                }
+                checkView(expected.descendingMap().headMap(middle, true),
+                        view.descendingMap().headMap(middle, true), from, to);
+                assertEquals(expected.descendingKeySet().tailSet(middle, false),
+                        view.descendingKeySet().tailSet(middle, false));
+            }
+
+            //Views write through
+            NavigableMap<Integer, Integer> expected = model.subMap(1000, true, 2000, false);
+            NavigableMap<Integer, Integer> view = map.subMap(1000, true, 2000, false);
+            for(int i = 0; i < 10; i++){
+                assertEquals(expected.pollFirstEntry(), view.pollFirstEntry());
+                assertEquals(expected.descendingMap().pollFirstEntry(),
+                        view.descendingMap().pollFirstEntry());
+            }
+            assertEquals(expected.navigableKeySet().pollLast(),
+                    view.navigableKeySet().pollLast());
+            assertEquals(model, map);
+            try{
+                view.put(2000, 0);
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+            try{
+                view.descendingMap().subMap(1000, 1500);
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+            view.clear();
+            expected.clear();
+            assertEquals(model, map);
+            assertTrue(map.blackHeight(map.root) >= 0);
+        }
+
+        @Test
+        public void testEntryIteration(){
+            BST12RBMap<Integer, Integer> map = new BST12RBMap<Integer, Integer>();
+            for(int i = 0; i < 1000; i++){
+                map.put(i, i);
+            }
+            assertTrue(map.height() <= 20);
+
+            //setValue writes through, remove keeps the walk going
+            Iterator<Map.Entry<Integer, Integer>> iter = map.entrySet().iterator();
+            int expected = 0;
+            while(iter.hasNext()){
+                Map.Entry<Integer, Integer> entry = iter.next();
+                assertEquals(expected, (int)entry.getKey());
+                if(expected % 2 == 0){
+                    iter.remove();
+                }else{
+                    entry.setValue(-expected);
+                }
+                expected++;
+            }
+            assertEquals(500, map.size());
+            assertEquals(-1, (int)map.get(1));
+            assertNull(map.get(2));
+            assertTrue(map.blackHeight(map.root) >= 0);
+
+            Iterator<Integer> keys = map.descendingKeySet().iterator();
+            assertEquals(999, (int)keys.next());
+            map.put(2000, 0);
+            try{
+                keys.next();
+                fail();
+            }catch(ConcurrentModificationException ex){
+            }
+
+            assertTrue(map.entrySet().contains(new AbstractMap.SimpleEntry<Integer, Integer>(3, -3)));
+            assertFalse(map.entrySet().contains(new AbstractMap.SimpleEntry<Integer, Integer>(3, 3)));
+            assertTrue(map.keySet().remove(3));
+            assertFalse(map.keySet().remove(3));
+            assertEquals(500, map.size());
+            map.clear();
+            assertEquals("{}", map.toString());
+        }
+
+        @Test
+        //Keys in an order of their own, with heights kept along the way
+        public void testComparator(){
+            Comparator<Integer> reverse = Collections.reverseOrder();
+            BST12RBMap<Integer, Integer> map = new BST12RBMap<Integer, Integer>(reverse);
+            TreeMap<Integer, Integer> model = new TreeMap<Integer, Integer>(reverse);
+            assertSame(reverse, map.comparator());
+            Random generator = new Random();
+            for(int i = 0; i < 20000; i++){
+                Integer key = generator.nextInt(1000);
+                if(generator.nextInt(3) != 0){
+                    assertEquals(model.put(key, i), map.put(key, i));
+                }else{
+                    assertEquals(model.remove(key), map.remove(key));
+                }
+                if(i % 500 == 0){
+                    assertTrue(map.blackHeight(map.root) >= 0);
+                    assertTrue(map.height() <= 2 * (32 -
+                            Integer.numberOfLeadingZeros(map.size() + 1)));
+                }
+            }
+            assertTrue(map.blackHeight(map.root) >= 0);
+            assertEquals(model.toString(), map.toString());
+            assertEquals(model.firstKey(), map.firstKey());
+            checkView(model.subMap(700, true, 200, false),
+                    map.subMap(700, true, 200, false), 200, 700);
+            checkView(model.descendingMap(), map.descendingMap(), 0, 999);
+            assertEquals(model.descendingMap().comparator().compare(1, 2),
+                    map.descendingMap().comparator().compare(1, 2));
+            try{
+                map.subMap(200, 700);
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+
+            BST12RBMap<Integer, Integer> copy = new BST12RBMap<Integer, Integer>(model, reverse);
+            assertEquals(model.toString(), copy.toString());
+            assertNull(new BST12RBMap<Integer, Integer>(model).comparator());
+        }
+
+        /**
+         * Compare a view with the TreeMap view it should behave as
+         * @param expected the TreeMap view
+         * @param view the view under test
+         * @param from the lowest key probed
+         * @param to the highest key probed
+         */
+        private static void checkView(NavigableMap<Integer, Integer> expected,
+                NavigableMap<Integer, Integer> view, int from, int to){
+            assertEquals(expected.size(), view.size());
+            assertEquals(expected.isEmpty(), view.isEmpty());
+            assertEquals(expected, view);
+            assertEquals(expected.toString(), view.toString());
+            assertEquals(expected.navigableKeySet(), view.navigableKeySet());
+            assertEquals(expected.descendingKeySet().toString(),
+                    view.descendingKeySet().toString());
+            assertEquals(expected.firstEntry(), view.firstEntry());
+            assertEquals(expected.lastEntry(), view.lastEntry());
+            for(int key = from - 2; key <= to + 2; key++){
+                assertEquals(expected.get(key), view.get(key));
+                assertEquals(expected.lowerEntry(key), view.lowerEntry(key));
+                assertEquals(expected.floorKey(key), view.floorKey(key));
+                assertEquals(expected.ceilingEntry(key), view.ceilingEntry(key));
+                assertEquals(expected.higherKey(key), view.higherKey(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,960 @@
+/**
+ * This file contains the red-black tree whose nodes are stored in arrays.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines the same black-red balanced tree as BST12RB, but the
+ * Nodes are not objects. A Node is an index into parallel arrays of left,
+ * right and parent indices, a packed color bitset and an element array,
+ * so the garbage collector only sees a handful of arrays no matter how
+ * many elements the tree holds.
+ * Slots released by remove go on a free list and are reused by add.
+ * add, remove and the rotations follow BST12RB step by step, so both trees
+ * have the same shape after the same sequence of calls.
+ */
+public class BST12RBPool<E extends Comparable<? super E>>
+    implements BinSearchTree12<E>{
+    //Index that stands for a null Node
+    private static final int NIL = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    //Parallel Node arrays
+    private Object[] elements;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    //One bit per Node, set when the Node is black
+    private long[] black;
+
+    private int root;
+    private int size;
+    //Next never used slot
+    private int nextSlot;
+    //Head of the list of released slots, chained through left
+    private int freeHead;
+
+    /**
+     * no-arg Constructor
+     */
+    public BST12RBPool(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor that reserves room for a number of elements
+     * @param capacity the number of elements held before the arrays grow
+     */
+    public BST12RBPool(int capacity) throws IllegalArgumentException{
+        if(capacity < 0){
+            throw new IllegalArgumentException();
+        }
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Constructor that copies a whole collection
+     * @param c the collection with elements to be copied
+     */
+    public BST12RBPool(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            this(c == null ? 0 : c.size());
+            if(c == null){
+                throw new NullPointerException();
+            }
+            this.addAll(c);
+    }
+
+    /*--------------------------Overriding methods--------------------------*/
+    /**
+     * adding a new element to the tree
+     * @param e the element to be added
+     * @return whether the adding is successful(w/o repetitive element)
+     */
+    public boolean add(E e) throws NullPointerException, ClassCastException{
+        if(e == null){
+            throw new NullPointerException();
+        }
+
+        //If the tree is still empty
+        if(this.isEmpty()){
+            root = newNode(e);
+            setBlack(root, true);
+            size++;
+            return true;
+        }
+        //If not, find the place to add the new Node
+        int curParent = searchParent(e);
+        //When the elment already exists
+        if(curParent == NIL){
+            return false;
+        }
+
+        int toAdd = newNode(e);
+        if(e.compareTo(element(curParent)) < 0){
+            left[curParent] = toAdd;
+        }else{
+            right[curParent] = toAdd;
+        }
+        parent[toAdd] = curParent;
+        //Balance the effects brought by the newly added Node
+        balanceRB(toAdd);
+
+        size++;
+        return true;
+    }
+
+    /**
+     * addAll elements from a given Collection to the balanced tree
+     * @param c collection with elements
+     * @return true if the set is changed based on this call
+     */
+    public boolean addAll(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            if(c == null){
+                throw new NullPointerException();
+            }
+
+            boolean result = true;
+            for(E each: c){
+                result &= this.add(each);
+            }
+            return result;
+    }
+
+    /**
+     * clear the current tree, the arrays are kept for reuse
+     */
+    public void clear(){
+        Arrays.fill(elements, 0, nextSlot, null);
+        this.root = NIL;
+        this.size = 0;
+        this.nextSlot = 0;
+        this.freeHead = NIL;
+    }
+
+    /**
+     * check if a particular element is contained in the tree
+     * @param o the element to be searched
+     * @return true if the passed-in element exists
+     */
+    public boolean contains(E o) throws NullPointerException, ClassCastException{
+        if(o == null){
+            throw new NullPointerException();
+        }
+
+        //Check root
+        if(root != NIL && element(root).compareTo(o) == 0){
+            return true;
+        }
+        return searchParent(o) == NIL;
+    }
+
+    /**
+     * return the lowest element in the tree
+     * @return lowest element
+     */
+    public E first() throws NoSuchElementException{
+        if(this.isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        int current = root;
+        while(left[current] != NIL){
+            current = left[current];
+        }
+        return element(current);
+    }
+
+    /**
+     * Tests if the tree is empty
+     * @return true if the tree is empty
+     */
+    public boolean isEmpty(){
+        return this.root == NIL;
+    }
+
+    /**
+     * gives the last element in the tree
+     * @return the last element
+     */
+    public E last() throws NoSuchElementException{
+        if(this.isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        int current = root;
+        while(right[current] != NIL){
+            current = right[current];
+        }
+        return element(current);
+    }
+
+    /**
+     * @return the number of elements in the tree
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * @return an iterator that traverses the tree
+     */
+    public Iterator<E> iterator(){
+        return new PoolIterator();
+    }
+
+    /**
+     * remove the given element if it exists
+     * @param e the element to be removed
+     * @return true if it exists and is removed
+     */
+    public boolean remove(E e) throws NullPointerException, ClassCastException{
+        if(e == null){
+            throw new NullPointerException();
+        }
+        if(root == NIL){
+            throw new NullPointerException();
+        }
+
+        if(element(root).compareTo(e) == 0){
+            //When the element is stored in the root
+            removeNode(this.root);
+            this.size--;
+            return true;
+        }
+
+        int toRemove = search(e);
+        if(toRemove == NIL){
+            return false;
+        }
+
+        removeNode(toRemove);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * height: 0(empty); 1(one element)
+     * @return the height of current tree
+     */
+    public int height(){
+        return height(root);
+    }
+
+    /**
+     * @return number of Children under current Node
+     */
+    public int numChildren(E e)
+            throws IllegalArgumentException, NoSuchElementException{
+            int storeE;
+            try{
+                storeE = search(e);
+            }catch(Exception ex){
+                throw new IllegalStateException();
+            }
+
+            if(storeE == NIL){
+                throw new NoSuchElementException();
+            }
+
+            return numChildren(storeE);
+    }
+
+    /**
+     * @return String representation of the tree
+     */
+    public String toString(){
+        StringBuilder result = new StringBuilder("[");
+        Iterator<E> iter = iterator();
+        if(iter.hasNext()){
+            result.append(iter.next());
+        }
+        while(iter.hasNext()){
+            result.append(", ").append(iter.next());
+        }
+        return result.append("]").toString();
+    }
+
+    /*--------------------------Node pool--------------------------*/
+    /**
+     * Create the Node arrays
+     * @param capacity number of slots
+     */
+    private void allocate(int capacity){
+        elements = new Object[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        black = new long[(capacity + 63) >>> 6];
+        root = NIL;
+        size = 0;
+        nextSlot = 0;
+        freeHead = NIL;
+    }
+
+    /**
+     * Take a slot for a new red Node, growing the arrays when they are full
+     * @param e the element of the Node
+     * @return the index of the Node
+     */
+    private int newNode(E e){
+        int node;
+        if(freeHead != NIL){
+            node = freeHead;
+            freeHead = left[node];
+        }else{
+            if(nextSlot == elements.length){
+                int capacity = elements.length + (elements.length >> 1) + 1;
+                elements = Arrays.copyOf(elements, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                black = Arrays.copyOf(black, (capacity + 63) >>> 6);
+            }
+            node = nextSlot++;
+        }
+        //default setting for new Node, color is initialized to be red
+        elements[node] = e;
+        left[node] = NIL;
+        right[node] = NIL;
+        parent[node] = NIL;
+        setBlack(node, false);
+        return node;
+    }
+
+    /**
+     * Put the slot of a Node that left the tree back on the free list
+     * @param node the removed Node
+     */
+    private void freeNode(int node){
+        elements[node] = null;
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E element(int node){
+        return (E)elements[node];
+    }
+
+    private boolean isBlack(int node){
+        return (black[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private void setBlack(int node, boolean isBlack){
+        if(isBlack){
+            black[node >>> 6] |= 1L << node;
+        }else{
+            black[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * private helper method for remove, see BST12RB.remove(Node)
+     * @param toRemove node to remove
+     * @return true if the Node is removed
+     */
+    private boolean removeNode(int toRemove){
+        //When the toRemove node is red
+        if(!isBlack(toRemove)){
+            //Red node can be leaf only when both children are null
+            if(left[toRemove] == NIL && right[toRemove] == NIL){
+                //Directly forget this Node
+                int curParent = parent[toRemove];
+                if(left[curParent] == toRemove){
+                    left[curParent] = NIL;
+                }else{
+                    right[curParent] = NIL;
+                }
+                freeNode(toRemove);
+                return true;
+            }else{
+                //When it's an inner red node
+                int successor = getNext(toRemove);
+                elements[toRemove] = elements[successor];
+                return removeNode(successor);
+            }
+        }
+        //When toRemove is the root Node
+        else if(toRemove == root){
+            //If there's no Child
+            if(left[toRemove] == NIL && right[toRemove] == NIL){
+                this.root = NIL;
+                freeNode(toRemove);
+                return true;
+            }
+            //If there's only one Child
+            if(left[toRemove] == NIL && right[toRemove] != NIL){
+                this.root = right[toRemove];
+                parent[root] = NIL;
+                balanceRB(this.root);
+                freeNode(toRemove);
+                return true;
+            }
+            if(right[toRemove] == NIL && left[toRemove] != NIL){
+                this.root = left[toRemove];
+                parent[root] = NIL;
+                balanceRB(this.root);
+                freeNode(toRemove);
+                return true;
+            }
+            //If there are two Children
+            int successor = getNext(root);
+            elements[root] = elements[successor];
+            removeNode(successor);
+        }
+        //Black Node to be removed
+        else{
+            //When at least one child is null(base case)
+            if(left[toRemove] == NIL || right[toRemove] == NIL){
+                int curParent = parent[toRemove];
+                int child = left[toRemove] == NIL ? right[toRemove] : left[toRemove];
+                //When there's a red child, it takes the place of toRemove
+                if(child != NIL){
+                    elements[toRemove] = elements[child];
+                    if(left[toRemove] != NIL){
+                        left[toRemove] = NIL;
+                    }else{
+                        right[toRemove] = NIL;
+                    }
+                    freeNode(child);
+                }
+                //When the parent is red(easy)
+                else if(!isBlack(curParent)){
+                    if(toRemove == left[curParent]){
+                        //Before rotation, remember the left Child of sibling
+                        int nephew = left[right[curParent]];
+                        rotateCClockWise(curParent);
+                        left[curParent] = NIL;
+                        //Whereever the nephew is now balance it
+                        if(nephew != NIL && !isBlack(nephew)){
+                            balanceRB(nephew);
+                        }
+                    }else{
+                        //Before rotation, remember the right Child of sibling
+                        int nephew = right[left[curParent]];
+                        rotateClockWise(curParent);
+                        right[curParent] = NIL;
+                        //Whereever the nephew is now, balance it
+                        if(nephew != NIL){
+                            balanceRB(nephew);
+                        }
+                    }
+                    freeNode(toRemove);
+                    return true;
+                }
+                //When the parent Node is black and there's no red Child
+                //sibling cannot be null
+                else{
+                    int sibling = toRemove == left[curParent] ?
+                        right[curParent] : left[curParent];
+                    //If parent is root and the sibling is black
+                    if(curParent == root && isBlack(sibling)){
+                        if(sibling == left[curParent]){
+                            right[curParent] = NIL;
+                        }else{
+                            left[curParent] = NIL;
+                        }
+                        setBlack(sibling, false);
+                        int nephew1 = left[sibling];
+                        int nephew2 = right[sibling];
+                        if(nephew1 != NIL) balanceRB(nephew1);
+                        if(nephew2 != NIL) balanceRB(nephew2);
+                        freeNode(toRemove);
+                        return true;
+                    }
+                    //When the sibling is red
+                    if(!isBlack(sibling)){
+                        if(toRemove == right[curParent]){
+                            right[curParent] = NIL;
+                            rotateClockWise(curParent);
+                        }else{
+                            left[curParent] = NIL;
+                            rotateCClockWise(curParent);
+                        }
+                        //Recolor
+                        setBlack(sibling, true);
+
+                        int child1 = left[curParent];
+                        int child2 = right[curParent];
+                        if(child1 != NIL) setBlack(child1, false);
+                        if(child2 != NIL) setBlack(child2, false);
+                        if(child1 != NIL){
+                            if(left[child1] != NIL) balanceRB(left[child1]);
+                            if(right[child1] != NIL) balanceRB(right[child1]);
+                        }
+                        if(child2 != NIL){
+                            if(left[child2] != NIL) balanceRB(left[child2]);
+                            if(right[child2] != NIL) balanceRB(right[child2]);
+                        }
+                        freeNode(toRemove);
+                        return true;
+                    }
+                    //When the sibling is black and curParent is not root
+                    boolean siblingOnLeft = left[curParent] == sibling;
+                    boolean redOnLeft =
+                        left[sibling] != NIL && !isBlack(left[sibling]);
+                    boolean redOnRight =
+                        right[sibling] != NIL && !isBlack(right[sibling]);
+                    //Stop parentship
+                    if(siblingOnLeft){
+                        right[curParent] = NIL;
+                    }else{
+                        left[curParent] = NIL;
+                    }
+                    freeNode(toRemove);
+                    //When the sibling still has a red child
+                    if(redOnLeft || redOnRight){
+                        if(siblingOnLeft){
+                            if(!redOnLeft){
+                                rotateCClockWise(sibling);
+                                setBlack(parent[sibling], true);
+                                rotateClockWise(curParent);
+                            }else{
+                                setBlack(left[sibling], true);
+                                rotateClockWise(curParent);
+                            }
+                        }else{
+                            if(!redOnRight){
+                                rotateClockWise(sibling);
+                                setBlack(parent[sibling], true);
+                                rotateCClockWise(curParent);
+                            }else{
+                                setBlack(right[sibling], true);
+                                rotateCClockWise(curParent);
+                            }
+                        }
+                        return true;
+                    }
+                    //When sibling has no red child
+                    setBlack(sibling, false);
+                    hasLessBlack(curParent);
+                    return true;
+                }
+            }else{
+                //When the toRemove black Node is inner
+                int successor = getNext(toRemove);
+                elements[toRemove] = elements[successor];
+                return removeNode(successor);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to balance a Node when paths through it has one less
+     * black then others, see BST12RB.hasLessBlack(Node)
+     * @param defect the Node with 1 black Node less
+     */
+    private void hasLessBlack(int defect){
+            if(!isBlack(defect)){
+                setBlack(defect, true);
+                return;
+            }
+
+            //Base case
+            if(defect == root){
+                return;
+            }
+            int curParent = parent[defect];
+            int sibling = defect == left[curParent] ?
+                right[curParent] : left[curParent];
+            //Also a base case(curParent is red)
+            if(!isBlack(curParent)){
+                //Remember the nephew that will be taken by CurParent
+                int stepSibling;
+                if(left[curParent] == sibling){
+                    stepSibling = right[sibling];
+                    rotateClockWise(curParent);
+                }else{
+                    stepSibling = left[sibling];
+                    rotateCClockWise(curParent);
+                }
+                balanceRB(stepSibling);
+                return;
+            }
+            //Another base case that repels the previous one
+            //(sibling is red)
+            if(!isBlack(sibling)){
+                if(sibling == left[curParent]){
+                    rotateClockWise(curParent);
+                }else{
+                    rotateCClockWise(curParent);
+                }
+                setBlack(sibling, true);
+                setBlack(curParent, false);
+                hasLessBlack(defect);
+                return;
+            }
+            //Or if the sibling is black but both its children are red
+            if(left[sibling] != NIL && !isBlack(left[sibling])
+                    && right[sibling] != NIL && !isBlack(right[sibling])){
+                setBlack(sibling, false);
+                setBlack(left[sibling], true);
+                setBlack(right[sibling], true);
+                //Now fits in the previous situation
+                hasLessBlack(defect);
+                return;
+            }
+            //If one of its child is red, it's still base case(almost)
+            if(sibling == right[curParent]){
+                if(left[sibling] != NIL && !isBlack(left[sibling])){
+                    setBlack(left[sibling], true);
+                    rotateClockWise(sibling);
+                    rotateCClockWise(curParent);
+                    return;
+                }
+                if(right[sibling] != NIL && !isBlack(right[sibling])){
+                    setBlack(right[sibling], true);
+                    rotateCClockWise(curParent);
+                    return;
+                }
+            }
+            if(sibling == left[curParent]){
+                if(left[sibling] != NIL && !isBlack(left[sibling])){
+                    setBlack(left[sibling], true);
+                    rotateClockWise(curParent);
+                    return;
+                }
+                if(right[sibling] != NIL && !isBlack(right[sibling])){
+                    setBlack(right[sibling], true);
+                    rotateCClockWise(sibling);
+                    rotateClockWise(curParent);
+                    return;
+                }
+            }
+
+            //When the parent,sibling, nephews are all black
+            setBlack(sibling, false);
+            hasLessBlack(curParent);
+    }
+
+    /**
+     * find the successor of current Node
+     * @param curNode the node whose successor is needed
+     * @return the node with value that is JUST after the passed in Node
+     */
+    private int getNext(int curNode){
+        //The best choice is the smallest Child of right Child
+        if(right[curNode] != NIL){
+            curNode = right[curNode];
+            while(left[curNode] != NIL){
+                curNode = left[curNode];
+            }
+            return curNode;
+        }
+        //Or the first ancestor that has curNode on its left
+        int curParent = parent[curNode];
+        while(curParent != NIL && curNode == right[curParent]){
+            curNode = curParent;
+            curParent = parent[curNode];
+        }
+        return curParent;
+    }
+
+    /**
+     * This method searches for the appropriate parent for the given element
+     * Precondition: The tree should not be empty
+     * @param e the element who needs a parent
+     * @return the parent for the passed in element
+     * (NIL if the element already exists)
+     */
+    private int searchParent(E e) throws NullPointerException{
+        if(this.isEmpty() || e == null){
+            throw new NullPointerException();
+        }
+
+        int curParent = NIL;
+        int current = root;
+        while(current != NIL){
+            curParent = current;
+            int cmp = e.compareTo(element(curParent));
+            if(cmp < 0){
+                current = left[curParent];
+            }else if(cmp > 0){
+                current = right[curParent];
+            }else{
+                return NIL;
+            }
+        }
+
+        return curParent;
+    }
+
+    /**
+     * Unlike searchParent, this searches the Node itself
+     * @param e the element in the tree
+     * @return the Node that stores e
+     */
+    private int search(E e) throws NullPointerException{
+        if(this.isEmpty() || e == null){
+            throw new NullPointerException();
+        }
+
+        int current = root;
+        while(current != NIL){
+            int cmp = element(current).compareTo(e);
+            if(cmp == 0){
+                break;
+            }
+            current = cmp < 0 ? right[current] : left[current];
+        }
+
+        return current;
+    }
+
+    /**
+     * balances the possible 2-red defect brought by the new Node,
+     * see BST12RB.balanceRB(Node)
+     * @param newNode the newly implemanted Node
+     */
+    private void balanceRB(int newNode){
+        if(isBlack(newNode)){
+            return;
+        }
+        //If the node itself is the root, simply change it to black
+        if(root == newNode){
+            setBlack(newNode, true);
+            return;
+        }
+        //If the parent Node is black, return
+        if(isBlack(parent[newNode])){
+            return;
+        }
+
+        int curParent = parent[newNode];
+        int grandParent = parent[curParent];
+        int uncle = curParent == left[grandParent] ?
+            right[grandParent] : left[grandParent];
+
+        //If the uncle is black or null
+        if(uncle == NIL || isBlack(uncle)){
+            setBlack(newNode, true);
+            int recursiveBalance = curParent;
+            //Rotate, make parent become the new root of this partial tree
+            if(left[grandParent] == curParent){
+                if(right[curParent] == newNode){
+                    rotateCClockWise(curParent);
+                    setBlack(curParent, true);
+                    setBlack(newNode, false);
+                    recursiveBalance = newNode;
+                }
+                rotateClockWise(grandParent);
+            }else{
+                if(left[curParent] == newNode){
+                    rotateClockWise(curParent);
+                    setBlack(curParent, true);
+                    setBlack(newNode, false);
+                    recursiveBalance = newNode;
+                }
+                rotateCClockWise(grandParent);
+            }
+            balanceRB(recursiveBalance);
+            return;
+        }
+
+        //If the uncle is red, change both parent and uncle to black,
+        //change grandparent to red and recursively call
+        setBlack(curParent, true);
+        setBlack(uncle, true);
+        setBlack(grandParent, false);
+        balanceRB(grandParent);
+    }
+
+    /**
+     * rotates a part of the tree based on the pivot given clockwisely
+     * @param pivot the Node that will be readopted by its left child
+     */
+    private void rotateClockWise(int pivot) throws IllegalStateException{
+        int child = left[pivot];
+        if(child == NIL){
+            throw new IllegalStateException();
+        }
+
+        int curParent = parent[pivot];
+        if(curParent == NIL){
+            root = child;
+        }else if(left[curParent] == pivot){
+            left[curParent] = child;
+        }else{
+            right[curParent] = child;
+        }
+        parent[child] = curParent;
+        //pivot adopt the right child of its previous left child
+        left[pivot] = right[child];
+        if(left[pivot] != NIL) parent[left[pivot]] = pivot;
+        //previous left child adopt pivot
+        right[child] = pivot;
+        parent[pivot] = child;
+    }
+
+    /**
+     * rotates a part of the tree based on the pivot counter clockwisely
+     * @param pivot the Node that will be readopted by its right child
+     */
+    private void rotateCClockWise(int pivot) throws IllegalStateException{
+        int child = right[pivot];
+        if(child == NIL){
+            throw new IllegalStateException();
+        }
+
+        int curParent = parent[pivot];
+        if(curParent == NIL){
+            root = child;
+        }else if(left[curParent] == pivot){
+            left[curParent] = child;
+        }else{
+            right[curParent] = child;
+        }
+        parent[child] = curParent;
+        //pivot adopt the left child of its previous right child
+        right[pivot] = left[child];
+        if(right[pivot] != NIL) parent[right[pivot]] = pivot;
+        //previous right child adopt pivot
+        left[child] = pivot;
+        parent[pivot] = child;
+    }
+
+    /**
+     * @return the height of the given node
+     */
+    private int height(int n){
+        if(n == NIL){
+            return 0;
+        }
+        return 1 + Math.max(height(left[n]), height(right[n]));
+    }
+
+    /**
+     * @return the number of children under current given Node
+     */
+    private int numChildren(int n){
+        if(n == NIL){
+            return 0;
+        }
+        int directChild = 0;
+        if(left[n] != NIL) directChild++;
+        if(right[n] != NIL) directChild++;
+        return numChildren(left[n]) + numChildren(right[n]) + directChild;
+    }
+
+    /**
+     * @return true if there are two continuous red Nodes under n
+     */
+    private boolean hasTwoRed(int n){
+        if(n == NIL) return false;
+        if(!isBlack(n)){
+            if(left[n] != NIL && !isBlack(left[n])) return true;
+            if(right[n] != NIL && !isBlack(right[n])) return true;
+        }
+        return hasTwoRed(left[n]) || hasTwoRed(right[n]);
+    }
+
+    /**
+     * @return the black height of n, NIL is considered as 0
+     */
+    private int blackHeight(int n) throws IllegalStateException{
+        if(n == NIL) return 0;
+
+        int leftBlack = blackHeight(left[n]);
+        int rightBlack = blackHeight(right[n]);
+        if(leftBlack != rightBlack){
+            throw new IllegalStateException();
+        }
+        return isBlack(n) ? 1 + leftBlack : leftBlack;
+    }
+
+    /**
+     * this class defines the iterator for this tree
+     */
+    private class PoolIterator implements Iterator<E>{
+        int cursor = isEmpty() ? NIL : search(first());
+
+        /**
+         * @return true if there's still next element
+         */
+        public boolean hasNext(){
+            return cursor != NIL;
+        }
+
+        /**
+         * @return next value in ascending order
+         */
+        public E next() throws NoSuchElementException{
+            if(cursor == NIL){
+                throw new NoSuchElementException();
+            }
+
+            E toReturn = element(cursor);
+            cursor = getNext(cursor);
+            return toReturn;
+        }
+
+        /**
+         * remove method that will be disabled
+         */
+        public void remove() throws UnsupportedOperationException{
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * This class is used for BST12RBPool's specific tests
+     */
+    public static class PoolTester extends junit.framework.TestCase{
+        @Test
+        //The pool must build exactly the same trees as BST12RB
+        public void testSameShapeAsBST12RB(){
+            Random generator = new Random();
+            for(int i = 0; i < 50; i++){
+                BST12RB<Integer> model = new BST12RB<Integer>();
+                BST12RBPool<Integer> tree = new BST12RBPool<Integer>(0);
+                int range = 1 + generator.nextInt(2000);
+                for(int j = 0; j < 2000; j++){
+                    Integer e = generator.nextInt(range);
+                    if(generator.nextInt(3) == 0 && !model.isEmpty()){
+                        assertEquals(model.remove(e), tree.remove(e));
+                    }else{
+                        assertEquals(model.add(e), tree.add(e));
+                    }
+                    assertEquals(model.size(), tree.size());
+                    assertEquals(model.height(), tree.height());
+                    assertFalse(tree.hasTwoRed(tree.root));
+                    tree.blackHeight(tree.root);
+                }
+                assertEquals(model.toString(), tree.toString());
+                if(!model.isEmpty()){
+                    assertEquals(model.numChildren(model.first()),
+                            tree.numChildren(tree.first()));
+                }
+            }
+        }
+
+        @Test
+        public void testSlotsAreReused(){
+            BST12RBPool<Integer> tree = new BST12RBPool<Integer>(100);
+            for(int round = 0; round < 10; round++){
+                for(int i = 0; i < 100; i++){
+                    tree.add(i);
+                }
+                for(int i = 0; i < 100; i++){
+                    assertTrue(tree.remove(i));
+                }
+            }
+            assertTrue(tree.isEmpty());
+            assertEquals(100, tree.elements.length);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/**
+ * This file contains a NavigableSet backed by a BST12RB.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.TreeSet;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class exposes a BST12RB as a java.util.NavigableSet, so a tree can
+ * be handed to any code that expects one without copying it into a
+ * TreeSet. Wrapping a tree is O(1) and the two share every change.
+ * The views, the descending set and the poll methods come from the tree,
+ * equals and hashCode follow the contract of Set.
+ */
+public class BST12RBSet<E extends Comparable<? super E>> extends AbstractSet<E>
+    implements NavigableSet<E>{
+    private final BST12RB<E> tree;
+
+    /**
+     * no-arg Constructor
+     */
+    public BST12RBSet(){
+        this(new BST12RB<E>());
+    }
+
+    /**
+     * Constructor that copies a whole collection
+     * @param c the collection with elements to be copied
+     */
+    public BST12RBSet(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            this(new BST12RB<E>(c));
+    }
+
+    /**
+     * Constructor that wraps a tree without copying it
+     * @param tree the tree holding the elements
+     */
+    public BST12RBSet(BST12RB<E> tree) throws NullPointerException{
+        if(tree == null){
+            throw new NullPointerException();
+        }
+        this.tree = tree;
+    }
+
+    /**
+     * @return the tree behind this set
+     */
+    public BST12RB<E> tree(){
+        return tree;
+    }
+
+    /*--------------------------Delegated methods--------------------------*/
+    public boolean add(E e){
+        return tree.add(e);
+    }
+
+    /**
+     * BST12RB.addAll tells whether every element was new, a Collection
+     * tells whether any was
+     */
+    public boolean addAll(Collection<? extends E> c){
+        int before = tree.size();
+        tree.addAll(c);
+        return tree.size() != before;
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o){
+        return !tree.isEmpty() && tree.contains((E)o);
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o){
+        return !tree.isEmpty() && tree.remove((E)o);
+    }
+
+    public boolean removeAll(Collection<?> c){
+        return tree.removeAll(c);
+    }
+
+    public boolean retainAll(Collection<?> c){
+        return tree.retainAll(c);
+    }
+
+    public int size(){
+        return tree.size();
+    }
+
+    public boolean isEmpty(){
+        return tree.isEmpty();
+    }
+
+    public void clear(){
+        tree.clear();
+    }
+
+    public Iterator<E> iterator(){
+        return tree.iterator();
+    }
+
+    public Iterator<E> descendingIterator(){
+        return tree.descendingIterator();
+    }
+
+    public Spliterator<E> spliterator(){
+        return tree.spliterator();
+    }
+
+    public Comparator<? super E> comparator(){
+        return tree.comparator();
+    }
+
+    public E first(){
+        return tree.first();
+    }
+
+    public E last(){
+        return tree.last();
+    }
+
+    public E lower(E e){
+        return tree.lower(e);
+    }
+
+    public E floor(E e){
+        return tree.floor(e);
+    }
+
+    public E ceiling(E e){
+        return tree.ceiling(e);
+    }
+
+    public E higher(E e){
+        return tree.higher(e);
+    }
+
+    public E pollFirst(){
+        return tree.pollFirst();
+    }
+
+    public E pollLast(){
+        return tree.pollLast();
+    }
+
+    /*--------------------------Views--------------------------*/
+    public NavigableSet<E> descendingSet(){
+        return tree.descendingSet();
+    }
+
+    public NavigableSet<E> subSet(E from, boolean fromInclusive,
+            E to, boolean toInclusive){
+        return tree.subSet(from, fromInclusive, to, toInclusive);
+    }
+
+    public NavigableSet<E> headSet(E to, boolean inclusive){
+        return tree.headSet(to, inclusive);
+    }
+
+    public NavigableSet<E> tailSet(E from, boolean inclusive){
+        return tree.tailSet(from, inclusive);
+    }
+
+    public SortedSet<E> subSet(E from, E to){
+        return tree.subSet(from, to);
+    }
+
+    public SortedSet<E> headSet(E to){
+        return tree.headSet(to);
+    }
+
+    public SortedSet<E> tailSet(E from){
+        return tree.tailSet(from);
+    }
+
+    /**
+     * Two sets in the same order are compared in one walk instead of a
+     * lookup per element
+     * @param o the object to be compared
+     * @return true if o is a Set with the same elements
+     */
+    public boolean equals(Object o){
+        if(o == this){
+            return true;
+        }
+        if(!(o instanceof SortedSet)
+                || !Objects.equals(((SortedSet<?>)o).comparator(), comparator())){
+            return super.equals(o);
+        }
+        SortedSet<?> other = (SortedSet<?>)o;
+        if(other.size() != size()){
+            return false;
+        }
+        Iterator<E> mine = iterator();
+        Iterator<?> theirs = other.iterator();
+        while(mine.hasNext()){
+            if(!mine.next().equals(theirs.next())){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode(){
+        return super.hashCode();
+    }
+
+    /**
+     * This class is used for BST12RBSet's specific tests
+     */
+    public static class SetTester extends junit.framework.TestCase{
+        @Test
+        public void testAgainstTreeSet(){
+            BST12RBSet<Integer> set = new BST12RBSet<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            assertNull(set.pollFirst());
+            assertNull(set.pollLast());
+            assertFalse(set.contains(1));
+            assertFalse(set.remove(1));
+            for(int i = 0; i < 20000; i++){
+                Integer e = generator.nextInt(2000);
+                switch(generator.nextInt(6)){
+                    case 0:
+                    case 1:
+                        assertEquals(model.add(e), set.add(e));
+                        break;
+                    case 2:
+                        assertEquals(model.remove(e), set.remove(e));
+                        break;
+                    case 3:
+                        assertEquals(model.pollFirst(), set.pollFirst());
+                        break;
+                    case 4:
+                        assertEquals(model.pollLast(), set.pollLast());
+                        break;
+                    default:
+                        assertEquals(model.lower(e), set.lower(e));
+                        assertEquals(model.floor(e), set.floor(e));
+                        assertEquals(model.ceiling(e), set.ceiling(e));
+                        assertEquals(model.higher(e), set.higher(e));
+                }
+                assertEquals(model.size(), set.size());
+            }
+            assertEquals(model, set);
+            assertEquals(set, model);
+            assertEquals(model.hashCode(), set.hashCode());
+            assertEquals(model.toString(), set.toString());
+            assertNull(set.comparator());
+        }
+
+        @Test
+        public void testViews(){
+            Random generator = new Random();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            for(int i = 0; i < 2000; i++){
+                model.add(generator.nextInt(5000));
+            }
+            BST12RBSet<Integer> set = new BST12RBSet<Integer>(model);
+            for(int i = 0; i < 300; i++){
+                int from = generator.nextInt(5000);
+                int to = from + generator.nextInt(1000);
+                boolean fromInclusive = generator.nextBoolean();
+                boolean toInclusive = generator.nextBoolean();
+                NavigableSet<Integer> expected =
+                    model.subSet(from, fromInclusive, to, toInclusive);
+                NavigableSet<Integer> view =
+                    set.subSet(from, fromInclusive, to, toInclusive);
+                checkView(expected, view, from, to);
+                checkView(expected.descendingSet(), view.descendingSet(), from, to);
+                checkView(model.headSet(to, toInclusive),
+                        set.headSet(to, toInclusive), from, to);
+                checkView(model.tailSet(from, fromInclusive).descendingSet(),
+                        set.tailSet(from, fromInclusive).descendingSet(), from, to);
+
+                //A view within a view, read from both ends
+                int middle = from + (to - from) / 2;
+                if(expected.isEmpty() || middle == from || middle == to){
+                    continue;
+                }
+                checkView(expected.descendingSet().headSet(middle, true),
+                        view.descendingSet().headSet(middle, true), from, to);
+                checkView(expected.tailSet(middle, false),
+                        view.tailSet(middle, false), from, to);
+            }
+
+            //Polling a view changes the set behind it
+            NavigableSet<Integer> expected = model.subSet(1000, true, 2000, false);
+            NavigableSet<Integer> view = set.subSet(1000, true, 2000, false);
+            for(int i = 0; i < 10; i++){
+                assertEquals(expected.pollFirst(), view.pollFirst());
+                assertEquals(expected.descendingSet().pollFirst(),
+                        view.descendingSet().pollFirst());
+            }
+            assertEquals(model, set);
+            view.clear();
+            expected.clear();
+            assertEquals(model, set);
+            try{
+                view.add(2000);
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+            try{
+                view.subSet(999, 1500);
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+            try{
+                view.descendingSet().subSet(1000, 1500);
+                fail();
+            }catch(IllegalArgumentException ex){
+            }
+        }
+
+        @Test
+        public void testSharedTree(){
+            BST12RB<Integer> tree = new BST12RB<Integer>();
+            BST12RBSet<Integer> set = new BST12RBSet<Integer>(tree);
+            NavigableSet<Integer> whole = tree.asSet();
+            assertTrue(set.addAll(java.util.Arrays.asList(3, 1, 2)));
+            assertFalse(set.addAll(java.util.Arrays.asList(1, 2)));
+            assertTrue(set.addAll(java.util.Arrays.asList(2, 4)));
+            assertEquals(4, tree.size());
+            assertEquals(set, whole);
+            assertEquals("[4, 3, 2, 1]", set.descendingSet().toString());
+            assertEquals(4, (int)set.descendingSet().first());
+            assertEquals(3, (int)set.descendingSet().higher(4));
+            assertEquals(4, (int)tree.pollLast());
+            assertEquals(1, (int)tree.pollFirst());
+            assertEquals("[2, 3]", whole.toString());
+            assertFalse(set.equals(new TreeSet<Integer>(java.util.Arrays.asList(2, 4))));
+            whole.clear();
+            assertTrue(tree.isEmpty());
+            try{
+                set.first();
+                fail();
+            }catch(NoSuchElementException ex){
+            }
+        }
+
+        /**
+         * Compare a view with the TreeSet view it should behave as
+         * @param expected the TreeSet view
+         * @param view the view under test
+         * @param from the lowest element probed
+         * @param to the highest element probed
+         */
+        private static void checkView(NavigableSet<Integer> expected,
+                NavigableSet<Integer> view, int from, int to){
+            assertEquals(expected.size(), view.size());
+            assertEquals(expected.isEmpty(), view.isEmpty());
+            assertEquals(expected, view);
+            assertEquals(expected.toString(), view.toString());
+            assertEquals(expected.hashCode(), view.hashCode());
+            assertEquals(expected.descendingSet().toString(),
+                    view.descendingSet().toString());
+            if(!expected.isEmpty()){
+                assertEquals(expected.first(), view.first());
+                assertEquals(expected.last(), view.last());
+            }
+            for(int e = from - 2; e <= to + 2; e++){
+                assertEquals(expected.contains(e), view.contains(e));
+                assertEquals(expected.lower(e), view.lower(e));
+                assertEquals(expected.floor(e), view.floor(e));
+                assertEquals(expected.ceiling(e), view.ceiling(e));
+                assertEquals(expected.higher(e), view.higher(e));
+            }
+        }
+    }
+}
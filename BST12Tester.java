@@ -225,6 +225,13 @@ public class BST12Tester extends junit.framework.TestCase{
     public void testIterRemove(){
         Iterator iter = tree.iterator();
         iter.next();
+        if(tree instanceof BST12RB){
+            iter.remove();
+            assertTrue(!tree.contains(1));
+            assertEquals(tree.size(), 5);
+            assertEquals(iter.next(), 2);
+            return;
+        }
         try{
             iter.remove();
             fail("No Exception");
@@ -0,0 +1,460 @@
+/**
+ * This file contains a red-black tree that can be shared between threads.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines a BST12RB guarded by a StampedLock.
+ * Readers of contains, first, last, size and isEmpty take no lock: they
+ * walk the tree under an optimistic stamp and only retry when a writer ran
+ * in the meantime, in the end under the read lock. A walk that meets a
+ * rotation in progress is bounded, so at worst it gives an answer that the
+ * stamp then throws away.
+ * Writers hold the lock exclusively, because a removal moves elements
+ * between Nodes as well as rotating them. An add of an element already
+ * there, or a remove of one that is not, is answered like a read and never
+ * blocks the readers.
+ */
+public class ConcurrentBST12RB<E extends Comparable<? super E>>
+    implements BinSearchTree12<E>{
+    //Optimistic tries before a reader waits for the read lock
+    private static final int OPTIMISTIC_TRIES = 4;
+
+    private final BST12RB<E> tree;
+    private final StampedLock lock;
+
+    /**
+     * no-arg Constructor
+     */
+    public ConcurrentBST12RB(){
+        this.tree = new BST12RB<E>();
+        this.lock = new StampedLock();
+    }
+
+    /**
+     * Constructor that copies a whole collection
+     * @param c the collection with elements to be copied
+     */
+    public ConcurrentBST12RB(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            this.tree = new BST12RB<E>(c);
+            this.lock = new StampedLock();
+    }
+
+    /*--------------------------Overriding methods--------------------------*/
+    /**
+     * adding a new element to the tree
+     * @param e the element to be added
+     * @return whether the adding is successful(w/o repetitive element)
+     */
+    public boolean add(E e) throws NullPointerException, ClassCastException{
+        if(contains(e)){
+            return false;
+        }
+
+        long stamp = lock.writeLock();
+        try{
+            return tree.add(e);
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * addAll elements from a given Collection to the tree at once
+     * @param c collection with elements
+     * @return true if the set is changed based on this call
+     */
+    public boolean addAll(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            long stamp = lock.writeLock();
+            try{
+                return tree.addAll(c);
+            }finally{
+                lock.unlockWrite(stamp);
+            }
+    }
+
+    /**
+     * clear the current tree
+     */
+    public void clear(){
+        long stamp = lock.writeLock();
+        try{
+            tree.clear();
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * check if a particular element is contained in the tree
+     * @param o the element to be searched
+     * @return true if the passed-in element exists
+     */
+    public boolean contains(E o) throws NullPointerException, ClassCastException{
+        if(o == null){
+            throw new NullPointerException();
+        }
+
+        for(int i = 0; i < OPTIMISTIC_TRIES; i++){
+            long stamp = lock.tryOptimisticRead();
+            boolean found = tree.containsUnlocked(o);
+            if(stamp != 0 && lock.validate(stamp)){
+                return found;
+            }
+        }
+        long stamp = lock.readLock();
+        try{
+            return tree.containsUnlocked(o);
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * return the lowest element in the tree
+     * @return lowest element
+     */
+    public E first() throws NoSuchElementException{
+        return edge(true);
+    }
+
+    /**
+     * Tests if the tree is empty
+     * @return true if the tree is empty
+     */
+    public boolean isEmpty(){
+        return size() == 0;
+    }
+
+    /**
+     * The iterator copies nothing and holds no lock between steps. Each
+     * next looks up the lowest element above the previous one under the
+     * read lock, O(log n), so it never fails on a change. Elements added
+     * or removed while it runs may or may not be seen
+     * @return an iterator over the elements in ascending order
+     */
+    public Iterator<E> iterator(){
+        return new ConcurrentIterator();
+    }
+
+    /**
+     * gives the last element in the tree
+     * @return the last element
+     */
+    public E last() throws NoSuchElementException{
+        return edge(false);
+    }
+
+    /**
+     * remove the given element if it exists
+     * @param o the element to be removed
+     * @return true if it exists and is removed
+     */
+    public boolean remove(E o) throws NullPointerException, ClassCastException{
+        if(!contains(o)){
+            return false;
+        }
+
+        long stamp = lock.writeLock();
+        try{
+            return !tree.isEmpty() && tree.remove(o);
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the number of elements in the tree
+     */
+    public int size(){
+        long stamp = lock.tryOptimisticRead();
+        int size = tree.size();
+        if(stamp != 0 && lock.validate(stamp)){
+            return size;
+        }
+
+        stamp = lock.readLock();
+        try{
+            return tree.size();
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * The root keeps the height of the tree, so like size it is one read
+     * that only falls back to the read lock if a writer got in between
+     * @return the height of current tree
+     */
+    public int height(){
+        long stamp = lock.tryOptimisticRead();
+        int height = tree.height();
+        if(stamp != 0 && lock.validate(stamp)){
+            return height;
+        }
+
+        stamp = lock.readLock();
+        try{
+            return tree.height();
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return number of Children under the Node holding target
+     */
+    public int numChildren(E target)
+            throws IllegalArgumentException, NoSuchElementException{
+            long stamp = lock.readLock();
+            try{
+                return tree.numChildren(target);
+            }finally{
+                lock.unlockRead(stamp);
+            }
+    }
+
+    /**
+     * @return String representation of the tree
+     */
+    public String toString(){
+        long stamp = lock.readLock();
+        try{
+            return tree.toString();
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * first and last share the same optimistic walk
+     * @param lowest true for the lowest element, false for the highest
+     * @return the element at that end of the tree
+     */
+    private E edge(boolean lowest) throws NoSuchElementException{
+        E found = null;
+        boolean valid = false;
+        for(int i = 0; i < OPTIMISTIC_TRIES && !valid; i++){
+            long stamp = lock.tryOptimisticRead();
+            found = tree.edgeUnlocked(lowest);
+            valid = stamp != 0 && lock.validate(stamp);
+        }
+        if(!valid){
+            long stamp = lock.readLock();
+            try{
+                found = tree.edgeUnlocked(lowest);
+            }finally{
+                lock.unlockRead(stamp);
+            }
+        }
+
+        //A validated walk is cut off only by an empty tree
+        if(found == null){
+            throw new NoSuchElementException();
+        }
+        return found;
+    }
+
+    /**
+     * @param e an element, null for the lowest element of the tree
+     * @return the lowest element higher than e, null if none
+     */
+    private E higher(E e){
+        long stamp = lock.readLock();
+        try{
+            if(e == null){
+                return tree.isEmpty() ? null : tree.first();
+            }
+            return tree.higher(e);
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * This class defines an iterator that finds each element from the one
+     * before it, so writers may change the tree under it
+     */
+    private class ConcurrentIterator implements Iterator<E>{
+        //The element next returns, null at the end
+        E upcoming;
+        //The element returned by the last next, null after a remove
+        E lastReturned = null;
+
+        /**
+         * Constructor
+         */
+        public ConcurrentIterator(){
+            this.upcoming = higher(null);
+        }
+
+        /**
+         * @return true if there's still next element
+         */
+        public boolean hasNext(){
+            return upcoming != null;
+        }
+
+        /**
+         * @return the next element
+         */
+        public E next() throws NoSuchElementException{
+            if(upcoming == null){
+                throw new NoSuchElementException();
+            }
+            lastReturned = upcoming;
+            upcoming = higher(lastReturned);
+            return lastReturned;
+        }
+
+        /**
+         * remove the element returned by the last next from the tree
+         */
+        public void remove() throws IllegalStateException{
+            if(lastReturned == null){
+                throw new IllegalStateException();
+            }
+            ConcurrentBST12RB.this.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * This class is used for ConcurrentBST12RB's specific tests
+     */
+    public static class ConcurrentTester extends junit.framework.TestCase{
+        @Test
+        public void testSingleThread(){
+            ConcurrentBST12RB<Integer> tree = new ConcurrentBST12RB<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            assertFalse(tree.contains(1));
+            assertFalse(tree.remove(1));
+            for(int i = 0; i < 20000; i++){
+                Integer e = generator.nextInt(3000);
+                if(generator.nextBoolean()){
+                    assertEquals(model.add(e), tree.add(e));
+                }else{
+                    assertEquals(model.remove(e), tree.remove(e));
+                }
+                assertEquals(model.size(), tree.size());
+            }
+            assertEquals(model.first(), tree.first());
+            assertEquals(model.last(), tree.last());
+            assertEquals(model.toString(), tree.toString());
+            tree.clear();
+            try{
+                tree.first();
+                fail();
+            }catch(NoSuchElementException ex){
+            }
+        }
+
+        @Test
+        //Writers add and remove odd keys while readers look at the even
+        //ones, which never change
+        public void testReadersDuringWrites() throws InterruptedException{
+            final int keys = 1 << 14;
+            final ConcurrentBST12RB<Integer> tree = new ConcurrentBST12RB<Integer>();
+            for(int i = 0; i < keys; i++){
+                tree.add(2 * i);
+            }
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for(int t = 0; t < 6; t++){
+                final int id = t;
+                threads.add(new Thread(){
+                    public void run(){
+                        try{
+                            Random generator = new Random(id);
+                            if(id < 2){
+                                //Writer, each one owns half of the odd keys
+                                for(int round = 0; round < 20; round++){
+                                    for(int i = id; i < keys - 1; i += 2){
+                                        assertTrue(tree.add(2 * i + 1));
+                                    }
+                                    for(int i = id; i < keys - 1; i += 2){
+                                        assertTrue(tree.remove(2 * i + 1));
+                                    }
+                                }
+                            }else if(id == 2){
+                                //The iterator sees every even key, in
+                                //order, whatever the writers do
+                                for(int round = 0; round < 5; round++){
+                                    int expected = 0;
+                                    int previous = -1;
+                                    for(Integer each: toList(tree)){
+                                        assertTrue(each > previous);
+                                        previous = each;
+                                        if(each % 2 == 0){
+                                            assertEquals(expected, (int)each);
+                                            expected += 2;
+                                        }
+                                    }
+                                    assertEquals(2 * keys, expected);
+                                }
+                            }else{
+                                for(int i = 0; i < 200000; i++){
+                                    int key = generator.nextInt(keys);
+                                    assertTrue(tree.contains(2 * key));
+                                    assertFalse(tree.contains(-1 - key));
+                                    assertEquals(0, (int)tree.first());
+                                    assertEquals(2 * keys - 2, (int)tree.last());
+                                }
+                            }
+                        }catch(Throwable ex){
+                            failure.compareAndSet(null, ex);
+                        }
+                    }
+                });
+            }
+            for(Thread each: threads){
+                each.start();
+            }
+            for(Thread each: threads){
+                each.join();
+            }
+            if(failure.get() != null){
+                throw new AssertionError(failure.get());
+            }
+
+            assertEquals(keys, tree.size());
+            int expected = 0;
+            for(Integer each: toList(tree)){
+                assertEquals(expected, (int)each);
+                expected += 2;
+            }
+            assertEquals(2 * keys, expected);
+        }
+
+        /**
+         * @param tree a tree
+         * @return its elements in ascending order
+         */
+        private static List<Integer> toList(ConcurrentBST12RB<Integer> tree){
+            List<Integer> list = new ArrayList<Integer>();
+            Iterator<Integer> iter = tree.iterator();
+            while(iter.hasNext()){
+                list.add(iter.next());
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,631 @@
+/**
+ * This file contains a red-black tree specialized for int keys.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines a red-black tree of int keys with the same operations
+ * as BinSearchTree12, but without boxing.
+ * A node is an index into parallel arrays instead of an object, so one
+ * entry costs a key, three int links and one color bit. Index 0 is the
+ * black NIL sentinel and slots released by remove are reused.
+ */
+public class IntRBTree{
+    //Index of the sentinel that stands for every null link
+    private static final int NIL = 0;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    //Parallel node arrays, the sentinel occupies slot 0
+    private int[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    //One bit per node, set when the node is red
+    private long[] red;
+
+    private int root;
+    private int size;
+    //Next never used slot
+    private int nextSlot;
+    //Head of the list of released slots, chained through left
+    private int freeHead;
+
+    /**
+     * no-arg Constructor
+     */
+    public IntRBTree(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor that reserves room for a number of keys
+     * @param capacity the number of keys the tree can hold before growing
+     */
+    public IntRBTree(int capacity) throws IllegalArgumentException{
+        if(capacity < 0){
+            throw new IllegalArgumentException();
+        }
+        allocate(capacity + 1);
+    }
+
+    /*--------------------------Public methods--------------------------*/
+    /**
+     * adding a new key to the tree
+     * @param key the key to be added
+     * @return whether the adding is successful(w/o repetitive key)
+     */
+    public boolean add(int key){
+        int curParent = NIL;
+        int current = root;
+        while(current != NIL){
+            curParent = current;
+            if(key < keys[current]){
+                current = left[current];
+            }else if(key > keys[current]){
+                current = right[current];
+            }else{
+                return false;
+            }
+        }
+
+        int toAdd = newNode(key);
+        parent[toAdd] = curParent;
+        if(curParent == NIL){
+            root = toAdd;
+        }else if(key < keys[curParent]){
+            left[curParent] = toAdd;
+        }else{
+            right[curParent] = toAdd;
+        }
+        balanceRB(toAdd);
+        size++;
+        return true;
+    }
+
+    /**
+     * add every key of an array to the tree
+     * @param c the keys to be added
+     * @return true if all keys were added(w/o repetitive key)
+     */
+    public boolean addAll(int[] c) throws NullPointerException{
+        if(c == null){
+            throw new NullPointerException();
+        }
+        boolean result = true;
+        for(int each: c){
+            result &= add(each);
+        }
+        return result;
+    }
+
+    /**
+     * clear the current tree, the allocated arrays are kept
+     */
+    public void clear(){
+        Arrays.fill(red, 0L);
+        root = NIL;
+        size = 0;
+        nextSlot = 1;
+        freeHead = NIL;
+    }
+
+    /**
+     * check if a particular key is contained in the tree
+     * @param key the key to be searched
+     * @return true if the key exists
+     */
+    public boolean contains(int key){
+        return search(key) != NIL;
+    }
+
+    /**
+     * @return lowest key in the tree
+     */
+    public int first() throws NoSuchElementException{
+        if(isEmpty()){
+            throw new NoSuchElementException();
+        }
+        return keys[min(root)];
+    }
+
+    /**
+     * @return highest key in the tree
+     */
+    public int last() throws NoSuchElementException{
+        if(isEmpty()){
+            throw new NoSuchElementException();
+        }
+        int current = root;
+        while(right[current] != NIL){
+            current = right[current];
+        }
+        return keys[current];
+    }
+
+    /**
+     * @return true if the tree is empty
+     */
+    public boolean isEmpty(){
+        return root == NIL;
+    }
+
+    /**
+     * @return the number of keys in the tree
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return an iterator that traverses the keys in ascending order
+     */
+    public PrimitiveIterator.OfInt iterator(){
+        return new IntIterator();
+    }
+
+    /**
+     * remove the given key if it exists
+     * @param key the key to be removed
+     * @return true if it exists and is removed
+     */
+    public boolean remove(int key){
+        int toRemove = search(key);
+        if(toRemove == NIL){
+            return false;
+        }
+        removeNode(toRemove);
+        size--;
+        return true;
+    }
+
+    /**
+     * height: 0(empty); 1(one key)
+     * @return the height of current tree
+     */
+    public int height(){
+        return height(root);
+    }
+
+    /**
+     * @param key a key in the tree
+     * @return number of nodes under the node storing key
+     */
+    public int numChildren(int key) throws NoSuchElementException{
+        int node = search(key);
+        if(node == NIL){
+            throw new NoSuchElementException();
+        }
+        return count(node) - 1;
+    }
+
+    /**
+     * @return String representation of the tree
+     */
+    public String toString(){
+        StringBuilder result = new StringBuilder("[");
+        PrimitiveIterator.OfInt iter = iterator();
+        while(iter.hasNext()){
+            result.append(iter.nextInt());
+            if(iter.hasNext()){
+                result.append(", ");
+            }
+        }
+        return result.append("]").toString();
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * Create the node arrays
+     * @param capacity number of slots including the sentinel
+     */
+    private void allocate(int capacity){
+        keys = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        red = new long[(capacity + 63) >>> 6];
+        root = NIL;
+        size = 0;
+        nextSlot = 1;
+        freeHead = NIL;
+    }
+
+    /**
+     * Take a slot for a new red node, growing the arrays when they are full
+     * @param key the key of the node
+     * @return the index of the node
+     */
+    private int newNode(int key){
+        int node;
+        if(freeHead != NIL){
+            node = freeHead;
+            freeHead = left[node];
+        }else{
+            if(nextSlot == keys.length){
+                int capacity = keys.length + (keys.length >> 1) + 1;
+                keys = Arrays.copyOf(keys, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+            }
+            node = nextSlot++;
+        }
+        keys[node] = key;
+        left[node] = NIL;
+        right[node] = NIL;
+        parent[node] = NIL;
+        setRed(node, true);
+        return node;
+    }
+
+    /**
+     * Put a slot back on the free list
+     * @param node the slot no longer in the tree
+     */
+    private void freeNode(int node){
+        setRed(node, false);
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    private boolean isRed(int node){
+        return (red[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private void setRed(int node, boolean isRed){
+        if(isRed){
+            red[node >>> 6] |= 1L << node;
+        }else{
+            red[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    /**
+     * @param key the key in the tree
+     * @return the node that stores key, NIL if there is none
+     */
+    private int search(int key){
+        int current = root;
+        while(current != NIL && keys[current] != key){
+            current = key < keys[current] ? left[current] : right[current];
+        }
+        return current;
+    }
+
+    /**
+     * @param node root of a non-empty subtree
+     * @return the lowest node of that subtree
+     */
+    private int min(int node){
+        while(left[node] != NIL){
+            node = left[node];
+        }
+        return node;
+    }
+
+    /**
+     * find the successor of current node
+     * @param node the node whose successor is needed
+     * @return the node just after node, NIL if node is the last
+     */
+    private int getNext(int node){
+        if(right[node] != NIL){
+            return min(right[node]);
+        }
+        int curParent = parent[node];
+        while(curParent != NIL && node == right[curParent]){
+            node = curParent;
+            curParent = parent[node];
+        }
+        return curParent;
+    }
+
+    /**
+     * Unlink a node that is in the tree and restore the red-black property
+     * @param toRemove the node to be removed
+     */
+    private void removeNode(int toRemove){
+        int moved = toRemove;
+        boolean movedWasRed = isRed(moved);
+        int child;
+        if(left[toRemove] == NIL){
+            child = right[toRemove];
+            replace(toRemove, child);
+        }else if(right[toRemove] == NIL){
+            child = left[toRemove];
+            replace(toRemove, child);
+        }else{
+            //The successor takes the place of the removed node
+            moved = min(right[toRemove]);
+            movedWasRed = isRed(moved);
+            child = right[moved];
+            if(parent[moved] == toRemove){
+                //the sentinel may be the child, it remembers its parent
+                parent[child] = moved;
+            }else{
+                replace(moved, child);
+                right[moved] = right[toRemove];
+                parent[right[moved]] = moved;
+            }
+            replace(toRemove, moved);
+            left[moved] = left[toRemove];
+            parent[left[moved]] = moved;
+            setRed(moved, isRed(toRemove));
+        }
+        if(!movedWasRed){
+            hasLessBlack(child);
+        }
+        freeNode(toRemove);
+    }
+
+    /**
+     * Hang replacement where node used to be
+     * @param node the node leaving its position
+     * @param replacement the node taking its place, may be NIL
+     */
+    private void replace(int node, int replacement){
+        int curParent = parent[node];
+        if(curParent == NIL){
+            root = replacement;
+        }else if(node == left[curParent]){
+            left[curParent] = replacement;
+        }else{
+            right[curParent] = replacement;
+        }
+        parent[replacement] = curParent;
+    }
+
+    /**
+     * balance the 2-red defect brought by a new red node
+     * @param newNode the newly added node
+     */
+    private void balanceRB(int newNode){
+        while(isRed(parent[newNode])){
+            int curParent = parent[newNode];
+            int grandParent = parent[curParent];
+            if(curParent == left[grandParent]){
+                int uncle = right[grandParent];
+                if(isRed(uncle)){
+                    setRed(curParent, false);
+                    setRed(uncle, false);
+                    setRed(grandParent, true);
+                    newNode = grandParent;
+                }else{
+                    if(newNode == right[curParent]){
+                        newNode = curParent;
+                        rotateCClockWise(newNode);
+                        curParent = parent[newNode];
+                    }
+                    setRed(curParent, false);
+                    setRed(grandParent, true);
+                    rotateClockWise(grandParent);
+                }
+            }else{
+                int uncle = left[grandParent];
+                if(isRed(uncle)){
+                    setRed(curParent, false);
+                    setRed(uncle, false);
+                    setRed(grandParent, true);
+                    newNode = grandParent;
+                }else{
+                    if(newNode == left[curParent]){
+                        newNode = curParent;
+                        rotateClockWise(newNode);
+                        curParent = parent[newNode];
+                    }
+                    setRed(curParent, false);
+                    setRed(grandParent, true);
+                    rotateCClockWise(grandParent);
+                }
+            }
+        }
+        setRed(root, false);
+    }
+
+    /**
+     * balance a node whose paths have one black node less than its sibling's
+     * @param defect the node with 1 black node less, may be NIL
+     */
+    private void hasLessBlack(int defect){
+        while(defect != root && !isRed(defect)){
+            int curParent = parent[defect];
+            if(defect == left[curParent]){
+                int sibling = right[curParent];
+                if(isRed(sibling)){
+                    setRed(sibling, false);
+                    setRed(curParent, true);
+                    rotateCClockWise(curParent);
+                    sibling = right[curParent];
+                }
+                if(!isRed(left[sibling]) && !isRed(right[sibling])){
+                    setRed(sibling, true);
+                    defect = curParent;
+                }else{
+                    if(!isRed(right[sibling])){
+                        setRed(left[sibling], false);
+                        setRed(sibling, true);
+                        rotateClockWise(sibling);
+                        sibling = right[curParent];
+                    }
+                    setRed(sibling, isRed(curParent));
+                    setRed(curParent, false);
+                    setRed(right[sibling], false);
+                    rotateCClockWise(curParent);
+                    defect = root;
+                }
+            }else{
+                int sibling = left[curParent];
+                if(isRed(sibling)){
+                    setRed(sibling, false);
+                    setRed(curParent, true);
+                    rotateClockWise(curParent);
+                    sibling = left[curParent];
+                }
+                if(!isRed(left[sibling]) && !isRed(right[sibling])){
+                    setRed(sibling, true);
+                    defect = curParent;
+                }else{
+                    if(!isRed(left[sibling])){
+                        setRed(right[sibling], false);
+                        setRed(sibling, true);
+                        rotateCClockWise(sibling);
+                        sibling = left[curParent];
+                    }
+                    setRed(sibling, isRed(curParent));
+                    setRed(curParent, false);
+                    setRed(left[sibling], false);
+                    rotateClockWise(curParent);
+                    defect = root;
+                }
+            }
+        }
+        setRed(defect, false);
+    }
+
+    /**
+     * rotate clockwisely, the left child of pivot takes its place
+     * @param pivot the node that will be readopted by its child
+     */
+    private void rotateClockWise(int pivot){
+        int child = left[pivot];
+        left[pivot] = right[child];
+        if(right[child] != NIL){
+            parent[right[child]] = pivot;
+        }
+        replace(pivot, child);
+        right[child] = pivot;
+        parent[pivot] = child;
+    }
+
+    /**
+     * rotate counter clockwisely, the right child of pivot takes its place
+     * @param pivot the node that will be readopted by its child
+     */
+    private void rotateCClockWise(int pivot){
+        int child = right[pivot];
+        right[pivot] = left[child];
+        if(left[child] != NIL){
+            parent[left[child]] = pivot;
+        }
+        replace(pivot, child);
+        left[child] = pivot;
+        parent[pivot] = child;
+    }
+
+    /**
+     * @return the height of the subtree under node
+     */
+    private int height(int node){
+        if(node == NIL){
+            return 0;
+        }
+        return 1 + Math.max(height(left[node]), height(right[node]));
+    }
+
+    /**
+     * @return the number of nodes in the subtree under node
+     */
+    private int count(int node){
+        if(node == NIL){
+            return 0;
+        }
+        return 1 + count(left[node]) + count(right[node]);
+    }
+
+    /**
+     * @return the black height of node, -1 if its paths disagree or if
+     * two red nodes are adjacent
+     */
+    private int blackHeight(int node){
+        if(node == NIL){
+            return 0;
+        }
+        if(isRed(node) && (isRed(left[node]) || isRed(right[node]))){
+            return -1;
+        }
+        int leftBlack = blackHeight(left[node]);
+        int rightBlack = blackHeight(right[node]);
+        if(leftBlack < 0 || leftBlack != rightBlack){
+            return -1;
+        }
+        return isRed(node) ? leftBlack : leftBlack + 1;
+    }
+
+    /**
+     * this class defines the iterator for this tree
+     */
+    private class IntIterator implements PrimitiveIterator.OfInt{
+        int cursor = isEmpty() ? NIL : min(root);
+
+        /**
+         * @return true if there's still next key
+         */
+        public boolean hasNext(){
+            return cursor != NIL;
+        }
+
+        /**
+         * @return next key in ascending order
+         */
+        public int nextInt() throws NoSuchElementException{
+            if(cursor == NIL){
+                throw new NoSuchElementException();
+            }
+            int toReturn = keys[cursor];
+            cursor = getNext(cursor);
+            return toReturn;
+        }
+    }
+
+    /**
+     * This class is used for IntRBTree's specific tests
+     */
+    public static class IntRBTester extends junit.framework.TestCase{
+        @Test
+        public void testAgainstTreeSet(){
+            IntRBTree tree = new IntRBTree(4);
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            for(int i = 0; i < 20000; i++){
+                int key = generator.nextInt(2000) - 1000;
+                if(generator.nextInt(3) == 0){
+                    assertEquals(model.remove(key), tree.remove(key));
+                }else{
+                    assertEquals(model.add(key), tree.add(key));
+                }
+                assertEquals(model.size(), tree.size());
+                assertTrue(tree.blackHeight(tree.root) >= 0);
+            }
+            assertEquals(model.toString(), tree.toString());
+            assertEquals((int)model.first(), tree.first());
+            assertEquals((int)model.last(), tree.last());
+        }
+
+        @Test
+        public void testSequentialHeight(){
+            IntRBTree tree = new IntRBTree();
+            for(int i = 0; i < 1000; i++){
+                tree.add(i);
+            }
+            assertTrue(tree.height() <= 20);
+            assertEquals(999, tree.numChildren(tree.keys[tree.root]));
+            assertEquals(0, tree.numChildren(999));
+            for(int i = 0; i < 1000; i++){
+                assertTrue(tree.remove(i));
+            }
+            assertTrue(tree.isEmpty());
+            assertEquals("[]", tree.toString());
+        }
+    }
+}
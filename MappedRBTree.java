@@ -0,0 +1,442 @@
+/**
+ * This file contains a red-black tree kept in a memory-mapped file.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines an OffHeapRBTree whose chunks are mapped from a file,
+ * so the tree survives a restart. Reopening a cleanly closed file only maps
+ * it again, nothing is re-inserted, so it costs the same for any tree size.
+ *
+ * The file starts with a header page holding the root, size and free list
+ * of the tree, a state flag and a CRC32 of the header. The first change
+ * after a sync() marks the header DIRTY on disk before any slot is
+ * touched, and sync() or close() marks it CLEAN again. Opening a DIRTY
+ * file, or one whose header checksum does not match, means the process
+ * died in the middle of a change or of a header write. The tree is then
+ * rebuilt in linear time from every slot still marked live.
+ *
+ * Only sync() is a durability point. After a crash every key that was in
+ * the tree at the last sync and has not been removed since is found
+ * again. The adds and removes made after it may each be kept or lost,
+ * so a removed key can come back. This holds as long as the disk writes
+ * a 32 byte slot whole, which an aligned slot inside one sector gets
+ * from most disks, and it costs a force of one page for every removal
+ * that moves a key between slots.
+ */
+public class MappedRBTree extends OffHeapRBTree implements Closeable{
+    //Header layout
+    private static final long MAGIC = 0x4253543132524246L;
+    private static final int VERSION = 2;
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 8;
+    private static final int STATE_AT = 12;
+    private static final int ROOT_AT = 16;
+    private static final int SIZE_AT = 20;
+    private static final int NEXT_SLOT_AT = 24;
+    private static final int FREE_HEAD_AT = 28;
+    private static final int CHUNKS_AT = 32;
+    private static final int CHECKSUM_AT = 40;
+    private static final int HEADER_BYTES = 4096;
+
+    private static final int CLEAN = 1;
+    private static final int DIRTY = 2;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    //True while the header on disk says DIRTY
+    private boolean dirty;
+    //True if opening the file needed a rebuild
+    private final boolean recovered;
+
+    /**
+     * Open the tree stored in a file, creating an empty one if the file
+     * does not exist or is empty
+     * @param path the file of the tree
+     */
+    public MappedRBTree(File path) throws IOException{
+        super();
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        boolean isNew = channel.size() == 0;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        if(isNew){
+            header.putLong(MAGIC_AT, MAGIC);
+            header.putInt(VERSION_AT, VERSION);
+            writeHeader(CLEAN);
+            recovered = false;
+            return;
+        }
+        if(header.getLong(MAGIC_AT) != MAGIC || header.getInt(VERSION_AT) != VERSION){
+            close();
+            throw new IOException(path + " does not hold a MappedRBTree");
+        }
+
+        if(header.getLong(CHECKSUM_AT) == checksum()
+                && header.getInt(STATE_AT) == CLEAN){
+            //Clean reopen: the header describes the tree as it is
+            root = header.getInt(ROOT_AT);
+            size = header.getInt(SIZE_AT);
+            nextSlot = header.getInt(NEXT_SLOT_AT);
+            freeHead = header.getInt(FREE_HEAD_AT);
+            growChunks(header.getInt(CHUNKS_AT));
+            recovered = false;
+        }else{
+            //Torn header or interrupted change: trust only the slots
+            growChunks((int)((channel.size() - HEADER_BYTES) / CHUNK_BYTES));
+            rebuild();
+            sync();
+            recovered = true;
+        }
+    }
+
+    /**
+     * @return true if the file was not closed cleanly and had to be rebuilt
+     */
+    public boolean recovered(){
+        return recovered;
+    }
+
+    /**
+     * clear the current tree. Every slot is marked free so a later
+     * recovery does not bring the keys back
+     */
+    public void clear(){
+        super.clear();
+        for(int i = 0; i < chunkCount(); i++){
+            ByteBuffer chunk = chunk(i);
+            for(int slot = 0; slot < CHUNK_NODES; slot++){
+                chunk.putInt(slot * NODE_BYTES + FLAGS, 0);
+            }
+        }
+    }
+
+    /**
+     * Write every changed slot and then a CLEAN header to the disk
+     */
+    public void sync(){
+        checkOpen();
+        for(int i = 0; i < chunkCount(); i++){
+            ((MappedByteBuffer)chunk(i)).force();
+        }
+        writeHeader(CLEAN);
+        dirty = false;
+    }
+
+    /**
+     * sync the tree and unmap the file
+     */
+    public void close() throws IOException{
+        try{
+            if(header.getLong(MAGIC_AT) == MAGIC && !isFreed()){
+                sync();
+            }
+        }finally{
+            super.free();
+            release(header);
+            channel.close();
+            file.close();
+        }
+    }
+
+    /**
+     * unmapping the file without closing it would leak the channel
+     */
+    public void free(){
+        try{
+            close();
+        }catch(IOException ex){
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /*--------------------------Overriding hooks--------------------------*/
+    /**
+     * Chunk i is mapped right after the header, growing the file
+     */
+    protected ByteBuffer allocateChunk(int index){
+        try{
+            long position = HEADER_BYTES + (long)index * CHUNK_BYTES;
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }catch(IOException ex){
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * The header must say DIRTY on the disk before the first slot changes
+     */
+    protected void beforeWrite(){
+        if(!dirty){
+            writeHeader(DIRTY);
+            dirty = true;
+        }
+    }
+
+    /**
+     * A removal copies a key up and then clears the slot it came from. The
+     * two slots may sit in different pages, which the OS writes back in
+     * any order, so the copy is forced out before the clear can be
+     * @param node the slot that now holds the copied key
+     */
+    protected void keyCopied(int node){
+        if(dirty){
+            ((MappedByteBuffer)chunk(node >>> CHUNK_SHIFT))
+                .force((node & (CHUNK_NODES - 1)) * NODE_BYTES, NODE_BYTES);
+        }
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * Store the tree fields and a state in the header and force it out
+     * @param state CLEAN or DIRTY
+     */
+    private void writeHeader(int state){
+        header.putInt(STATE_AT, state);
+        header.putInt(ROOT_AT, root);
+        header.putInt(SIZE_AT, size);
+        header.putInt(NEXT_SLOT_AT, nextSlot);
+        header.putInt(FREE_HEAD_AT, freeHead);
+        header.putInt(CHUNKS_AT, chunkCount());
+        header.putLong(CHECKSUM_AT, checksum());
+        header.force();
+    }
+
+    /**
+     * @return the CRC32 of the header fields in front of the checksum
+     */
+    private long checksum(){
+        CRC32 crc = new CRC32();
+        for(int i = 0; i < CHECKSUM_AT; i++){
+            crc.update(header.get(i));
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Rebuild the tree from the keys of the live slots. The links may be
+     * half rotated after a crash, so only the keys and flags are read. A
+     * key that moved may be live in two slots and is kept once.
+     * The old slots stay live until the new tree is forced past all of
+     * them, so a crash in here leaves every key in one of the two copies.
+     * The caller publishes the new tree by a sync
+     */
+    private void rebuild(){
+        long[] keys = new long[16];
+        int count = 0;
+        //Every slot below used may hold a live key
+        int used = 0;
+        int slots = chunkCount() * CHUNK_NODES;
+        for(int n = 0; n < slots; n++){
+            if((flags(n) & LIVE) != 0){
+                if(count == keys.length){
+                    keys = Arrays.copyOf(keys, count * 2);
+                }
+                keys[count++] = key(n);
+                used = n + 1;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        int unique = 0;
+        for(int i = 0; i < count; i++){
+            if(unique == 0 || keys[i] != keys[unique - 1]){
+                keys[unique++] = keys[i];
+            }
+        }
+
+        //Nodes on the deepest, incomplete level are red, all others black
+        int redLevel = 0;
+        for(int m = unique - 1; m >= 0; m = m / 2 - 1){
+            redLevel++;
+        }
+        growChunks((used + unique + CHUNK_NODES - 1) / CHUNK_NODES);
+        root = build(keys, 0, unique - 1, NIL, 0, redLevel, used);
+        for(int i = 0; i < chunkCount(); i++){
+            ((MappedByteBuffer)chunk(i)).force();
+        }
+
+        //Only now the old copies go, their slots are kept for later adds
+        freeHead = NIL;
+        for(int n = used - 1; n >= 0; n--){
+            setFlags(n, 0);
+            setLeft(n, freeHead);
+            freeHead = n;
+        }
+        size = unique;
+        nextSlot = used + unique;
+    }
+
+    /**
+     * Build a balanced subtree from sorted keys, slot base+i holds keys[i]
+     * @param keys the sorted keys
+     * @param lo first index of the subtree
+     * @param hi last index of the subtree
+     * @param curParent the parent of the subtree root
+     * @param level depth of the subtree root, the root is at 0
+     * @param redLevel depth whose nodes are colored red
+     * @param base the slot of keys[0]
+     * @return the root of the subtree
+     */
+    private int build(long[] keys, int lo, int hi, int curParent,
+            int level, int redLevel, int base){
+        if(lo > hi){
+            return NIL;
+        }
+        int mid = (lo + hi) >>> 1;
+        int slot = base + mid;
+        setKey(slot, keys[mid]);
+        setParent(slot, curParent);
+        setLeft(slot, build(keys, lo, mid - 1, slot, level + 1, redLevel, base));
+        setRight(slot, build(keys, mid + 1, hi, slot, level + 1, redLevel, base));
+        setFlags(slot, level == redLevel ? LIVE : LIVE | BLACK);
+        return slot;
+    }
+
+    /**
+     * This class is used for MappedRBTree's specific tests
+     */
+    public static class MappedTester extends junit.framework.TestCase{
+        File path;
+
+        @Before
+        public void setUp() throws IOException{
+            path = File.createTempFile("rbtree", ".map");
+            path.delete();
+        }
+
+        @After
+        public void tearDown(){
+            path.delete();
+        }
+
+        @Test
+        public void testCleanReopen() throws IOException{
+            TreeSet<Long> model = new TreeSet<Long>();
+            Random generator = new Random();
+            MappedRBTree tree = new MappedRBTree(path);
+            for(int i = 0; i < 100000; i++){
+                long key = generator.nextInt(200000);
+                assertEquals(model.add(key), tree.add(key));
+                if(i % 3 == 0){
+                    key = generator.nextInt(200000);
+                    assertEquals(model.remove(key), tree.remove(key));
+                }
+            }
+            int height = tree.height();
+            tree.close();
+
+            tree = new MappedRBTree(path);
+            assertFalse(tree.recovered());
+            assertEquals(model.size(), tree.size());
+            assertEquals(height, tree.height());
+            assertEquals(model.toString(), tree.toString());
+            assertTrue(tree.add(-1));
+            tree.close();
+        }
+
+        @Test
+        //A second mapping sees the file as a crashed process leaves it
+        public void testRecoverInterruptedChanges() throws IOException{
+            TreeSet<Long> model = new TreeSet<Long>();
+            MappedRBTree tree = new MappedRBTree(path);
+            for(long i = 0; i < 5000; i++){
+                tree.add(i * 31 % 5000);
+                model.add(i * 31 % 5000);
+            }
+            tree.sync();
+            for(long i = 0; i < 5000; i += 2){
+                tree.remove(i);
+                model.remove(i);
+            }
+            tree.add(123456);
+            model.add(123456L);
+
+            MappedRBTree reopened = new MappedRBTree(path);
+            assertTrue(reopened.recovered());
+            assertEquals(model.toString(), reopened.toString());
+            assertFalse(reopened.hasTwoRed(reopened.root));
+            reopened.blackHeight(reopened.root);
+            //The new tree sits past the slots the crashed one used, which
+            //are all free now
+            int used = reopened.nextSlot - model.size();
+            assertTrue(used <= tree.nextSlot);
+            assertTrue(reopened.root >= used);
+            int free = 0;
+            for(int n = reopened.freeHead; n != NIL; n = reopened.left(n)){
+                assertEquals(0, reopened.flags(n) & LIVE);
+                free++;
+            }
+            assertEquals(used, free);
+            for(long i = 0; i < 3000; i++){
+                assertEquals(model.add(i + 10000), reopened.add(i + 10000));
+            }
+            assertEquals(used + model.size() - 3000, reopened.nextSlot);
+            assertEquals(model.toString(), reopened.toString());
+            reopened.close();
+            //The crashed tree is never closed, closing it would sync its
+            //stale header over the recovered one
+        }
+
+        @Test
+        public void testRecoverTornHeader() throws IOException{
+            MappedRBTree tree = new MappedRBTree(path);
+            for(long i = 0; i < 1000; i++){
+                tree.add(i);
+            }
+            tree.close();
+
+            RandomAccessFile raw = new RandomAccessFile(path, "rw");
+            raw.seek(SIZE_AT);
+            raw.writeInt(7);
+            raw.close();
+
+            tree = new MappedRBTree(path);
+            assertTrue(tree.recovered());
+            assertEquals(1000, tree.size());
+            assertEquals(0, tree.first());
+            assertEquals(999, tree.last());
+            tree.close();
+        }
+
+        @Test
+        //A change that changes nothing leaves the file clean
+        public void testNoOpStaysClean() throws IOException{
+            assertEquals(0, HEADER_BYTES % NODE_BYTES);
+            assertEquals(0, 4096 % NODE_BYTES);
+            MappedRBTree tree = new MappedRBTree(path);
+            for(long i = 0; i < 100; i++){
+                tree.add(i);
+            }
+            tree.sync();
+            assertFalse(tree.remove(1000));
+            assertFalse(tree.add(5));
+
+            MappedRBTree reopened = new MappedRBTree(path);
+            assertFalse(reopened.recovered());
+            assertEquals(100, reopened.size());
+            reopened.close();
+            tree.close();
+        }
+    }
+}
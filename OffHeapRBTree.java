@@ -0,0 +1,1077 @@
+/**
+ * This file contains a red-black tree whose nodes live outside the Java heap.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines the BST12RB black-red balanced tree for fixed-width
+ * long keys, with every Node stored in direct ByteBuffers instead of the
+ * Java heap. A Node is a 32 byte slot holding the key, the left, right
+ * and parent slot numbers and the color, and the insert and delete
+ * balancing of BST12RB runs on slot numbers instead of Node references.
+ *
+ * Slots are grouped in chunks of CHUNK_NODES, so the tree grows by adding
+ * chunks and never copies the slots it already has. The memory is only
+ * given back by free(), after which the tree cannot be used any more.
+ */
+public class OffHeapRBTree{
+    //Slot number that stands for a null Node
+    protected static final int NIL = -1;
+
+    //Layout of one Node slot
+    protected static final int KEY = 0;
+    protected static final int LEFT = 8;
+    protected static final int RIGHT = 12;
+    protected static final int PARENT = 16;
+    protected static final int FLAGS = 20;
+    //Padded to a power of 2, so no slot straddles a disk sector or a page
+    //of a mapped file
+    protected static final int NODE_BYTES = 32;
+    //Bit of FLAGS set when the Node is black
+    protected static final int BLACK = 1;
+    //Bit of FLAGS set while the slot holds a Node of the tree
+    protected static final int LIVE = 2;
+
+    //Slots per chunk, a power of 2
+    protected static final int CHUNK_SHIFT = 16;
+    protected static final int CHUNK_NODES = 1 << CHUNK_SHIFT;
+    protected static final int CHUNK_BYTES = CHUNK_NODES * NODE_BYTES;
+
+    //Method that releases the memory of a direct buffer right away
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static{
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try{
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        }catch(ReflectiveOperationException | RuntimeException ex){
+            //Without it the buffers are released when the GC collects them
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private ByteBuffer[] chunks;
+    private int chunkCount;
+
+    protected int root;
+    protected int size;
+    //Next never used slot
+    protected int nextSlot;
+    //Head of the list of released slots, chained through LEFT
+    protected int freeHead;
+
+    /**
+     * no-arg Constructor, no memory is reserved before the first add
+     */
+    public OffHeapRBTree(){
+        this.chunks = new ByteBuffer[4];
+        this.chunkCount = 0;
+        this.root = NIL;
+        this.size = 0;
+        this.nextSlot = 0;
+        this.freeHead = NIL;
+    }
+
+    /*--------------------------Public methods--------------------------*/
+    /**
+     * adding a new key to the tree
+     * @param key the key to be added
+     * @return whether the adding is successful(w/o repetitive key)
+     */
+    public boolean add(long key) throws IllegalStateException{
+        checkOpen();
+        //If the tree is still empty
+        if(this.isEmpty()){
+            beforeWrite();
+            root = newNode(key);
+            setBlack(root, true);
+            size++;
+            return true;
+        }
+        //If not, find the place to add the new Node
+        int curParent = searchParent(key);
+        //When the key already exists
+        if(curParent == NIL){
+            return false;
+        }
+
+        beforeWrite();
+        int toAdd = newNode(key);
+        if(key < key(curParent)){
+            setLeft(curParent, toAdd);
+        }else{
+            setRight(curParent, toAdd);
+        }
+        setParent(toAdd, curParent);
+        //Balance the effects brought by the newly added Node
+        balanceRB(toAdd);
+
+        size++;
+        return true;
+    }
+
+    /**
+     * clear the current tree, the chunks are kept for reuse
+     */
+    public void clear() throws IllegalStateException{
+        checkOpen();
+        beforeWrite();
+        this.root = NIL;
+        this.size = 0;
+        this.nextSlot = 0;
+        this.freeHead = NIL;
+    }
+
+    /**
+     * check if a particular key is contained in the tree
+     * @param key the key to be searched
+     * @return true if the key exists
+     */
+    public boolean contains(long key) throws IllegalStateException{
+        checkOpen();
+        return !isEmpty() && search(key) != NIL;
+    }
+
+    /**
+     * @return lowest key in the tree
+     */
+    public long first() throws NoSuchElementException, IllegalStateException{
+        checkOpen();
+        if(this.isEmpty()){
+            throw new NoSuchElementException();
+        }
+        int current = root;
+        while(left(current) != NIL){
+            current = left(current);
+        }
+        return key(current);
+    }
+
+    /**
+     * @return highest key in the tree
+     */
+    public long last() throws NoSuchElementException, IllegalStateException{
+        checkOpen();
+        if(this.isEmpty()){
+            throw new NoSuchElementException();
+        }
+        int current = root;
+        while(right(current) != NIL){
+            current = right(current);
+        }
+        return key(current);
+    }
+
+    /**
+     * @return true if the tree is empty
+     */
+    public boolean isEmpty(){
+        return this.root == NIL;
+    }
+
+    /**
+     * @return the number of keys in the tree
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * @return an iterator that traverses the keys in ascending order
+     */
+    public PrimitiveIterator.OfLong iterator() throws IllegalStateException{
+        checkOpen();
+        return new OffHeapIterator();
+    }
+
+    /**
+     * remove the given key if it exists
+     * @param key the key to be removed
+     * @return true if it exists and is removed
+     */
+    public boolean remove(long key) throws IllegalStateException{
+        checkOpen();
+        if(this.isEmpty()){
+            return false;
+        }
+        int toRemove = search(key);
+        if(toRemove == NIL){
+            return false;
+        }
+        beforeWrite();
+        removeNode(toRemove);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * height: 0(empty); 1(one key)
+     * @return the height of current tree
+     */
+    public int height() throws IllegalStateException{
+        checkOpen();
+        return height(root);
+    }
+
+    /**
+     * @param key a key in the tree
+     * @return number of Children under the Node of key
+     */
+    public int numChildren(long key)
+            throws NoSuchElementException, IllegalStateException{
+        checkOpen();
+        int node = isEmpty() ? NIL : search(key);
+        if(node == NIL){
+            throw new NoSuchElementException();
+        }
+        return numChildren(node);
+    }
+
+    /**
+     * @return the number of bytes reserved outside the Java heap
+     */
+    public long offHeapBytes(){
+        return (long)chunkCount * CHUNK_BYTES;
+    }
+
+    /**
+     * Give the off-heap memory back to the system right away.
+     * The tree cannot be used after this call
+     */
+    public void free(){
+        if(chunks == null){
+            return;
+        }
+        for(int i = 0; i < chunkCount; i++){
+            release(chunks[i]);
+            chunks[i] = null;
+        }
+        chunks = null;
+        chunkCount = 0;
+        root = NIL;
+        size = 0;
+    }
+
+    /**
+     * @return String representation of the tree
+     */
+    public String toString(){
+        if(chunks == null){
+            return "[freed]";
+        }
+        StringBuilder result = new StringBuilder("[");
+        PrimitiveIterator.OfLong iter = iterator();
+        while(iter.hasNext()){
+            result.append(iter.nextLong());
+            if(iter.hasNext()){
+                result.append(", ");
+            }
+        }
+        return result.append("]").toString();
+    }
+
+    /*--------------------------Chunk storage--------------------------*/
+    /**
+     * Create the memory of one chunk. Overridden by trees that keep
+     * their chunks somewhere else
+     * @param index the number of the chunk
+     * @return a buffer of CHUNK_BYTES bytes in native order
+     */
+    protected ByteBuffer allocateChunk(int index){
+        return ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Called before the tree changes any slot. Trees that keep their
+     * chunks in a file use it to note that the file is being modified
+     */
+    protected void beforeWrite(){
+    }
+
+    /**
+     * Called when a removal has copied a key into node and will free the
+     * slot the key came from. Trees that keep their chunks in a file use
+     * it to have the copy on the disk before the old slot is cleared
+     * @param node the slot that now holds the copied key
+     */
+    protected void keyCopied(int node){
+    }
+
+    /**
+     * Add chunks until the tree has count of them
+     * @param count the number of chunks wanted
+     */
+    protected final void growChunks(int count){
+        while(chunkCount < count){
+            if(chunkCount == chunks.length){
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount] = allocateChunk(chunkCount);
+            chunkCount++;
+        }
+    }
+
+    /**
+     * Release a direct buffer without waiting for the GC
+     * @param buffer the buffer that is not used any more
+     */
+    protected static void release(ByteBuffer buffer){
+        if(INVOKE_CLEANER == null || buffer == null || !buffer.isDirect()){
+            return;
+        }
+        try{
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        }catch(ReflectiveOperationException | RuntimeException ex){
+            //Left to the GC
+        }
+    }
+
+    /**
+     * @return the number of chunks allocated so far
+     */
+    protected int chunkCount(){
+        return chunkCount;
+    }
+
+    /**
+     * @param index number of an allocated chunk
+     * @return the chunk
+     */
+    protected ByteBuffer chunk(int index){
+        return chunks[index];
+    }
+
+    /**
+     * @return true once free() has released the chunks
+     */
+    protected boolean isFreed(){
+        return chunks == null;
+    }
+
+    /**
+     * Make sure the tree has not been freed
+     */
+    protected void checkOpen() throws IllegalStateException{
+        if(isFreed()){
+            throw new IllegalStateException("tree has been freed");
+        }
+    }
+
+    /**
+     * Take a slot for a new red Node, adding a chunk when all are full
+     * @param key the key of the Node
+     * @return the slot of the Node
+     */
+    protected int newNode(long key){
+        int node;
+        if(freeHead != NIL){
+            node = freeHead;
+            freeHead = left(node);
+        }else{
+            if(nextSlot == chunkCount * CHUNK_NODES){
+                growChunks(chunkCount + 1);
+            }
+            node = nextSlot++;
+        }
+        //default setting for new Node, color is initialized to be red
+        //The slot is marked live only once the key is in place
+        setKey(node, key);
+        setLeft(node, NIL);
+        setRight(node, NIL);
+        setParent(node, NIL);
+        setFlags(node, LIVE);
+        return node;
+    }
+
+    /**
+     * Put the slot of a Node that left the tree back on the free list
+     * @param node the removed Node
+     */
+    protected void freeNode(int node){
+        setFlags(node, 0);
+        setLeft(node, freeHead);
+        freeHead = node;
+    }
+
+    /*--------------------------Slot accessors--------------------------*/
+    protected final long key(int n){
+        return chunks[n >>> CHUNK_SHIFT].getLong(offset(n) + KEY);
+    }
+
+    protected final void setKey(int n, long key){
+        chunks[n >>> CHUNK_SHIFT].putLong(offset(n) + KEY, key);
+    }
+
+    protected final int left(int n){
+        return chunks[n >>> CHUNK_SHIFT].getInt(offset(n) + LEFT);
+    }
+
+    protected final void setLeft(int n, int child){
+        chunks[n >>> CHUNK_SHIFT].putInt(offset(n) + LEFT, child);
+    }
+
+    protected final int right(int n){
+        return chunks[n >>> CHUNK_SHIFT].getInt(offset(n) + RIGHT);
+    }
+
+    protected final void setRight(int n, int child){
+        chunks[n >>> CHUNK_SHIFT].putInt(offset(n) + RIGHT, child);
+    }
+
+    protected final int parent(int n){
+        return chunks[n >>> CHUNK_SHIFT].getInt(offset(n) + PARENT);
+    }
+
+    protected final void setParent(int n, int curParent){
+        chunks[n >>> CHUNK_SHIFT].putInt(offset(n) + PARENT, curParent);
+    }
+
+    protected final int flags(int n){
+        return chunks[n >>> CHUNK_SHIFT].getInt(offset(n) + FLAGS);
+    }
+
+    protected final void setFlags(int n, int flags){
+        chunks[n >>> CHUNK_SHIFT].putInt(offset(n) + FLAGS, flags);
+    }
+
+    protected final boolean isBlack(int n){
+        return (flags(n) & BLACK) != 0;
+    }
+
+    protected final void setBlack(int n, boolean isBlack){
+        int flags = flags(n);
+        setFlags(n, isBlack ? flags | BLACK : flags & ~BLACK);
+    }
+
+    /**
+     * @param n a slot number
+     * @return the byte position of the slot inside its chunk
+     */
+    private static int offset(int n){
+        return (n & (CHUNK_NODES - 1)) * NODE_BYTES;
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * private helper method for remove, see BST12RB.remove(Node)
+     * @param toRemove node to remove
+     * @return true if the Node is removed
+     */
+    private boolean removeNode(int toRemove){
+        //When the toRemove node is red
+        if(!isBlack(toRemove)){
+            //Red node can be leaf only when both children are null
+            if(left(toRemove) == NIL && right(toRemove) == NIL){
+                //Directly forget this Node
+                int curParent = parent(toRemove);
+                if(left(curParent) == toRemove){
+                    setLeft(curParent, NIL);
+                }else{
+                    setRight(curParent, NIL);
+                }
+                freeNode(toRemove);
+                return true;
+            }else{
+                //When it's an inner red node
+                int successor = getNext(toRemove);
+                setKey(toRemove, key(successor));
+                keyCopied(toRemove);
+                return removeNode(successor);
+            }
+        }
+        //When toRemove is the root Node
+        else if(toRemove == root){
+            //If there's no Child
+            if(left(toRemove) == NIL && right(toRemove) == NIL){
+                this.root = NIL;
+                freeNode(toRemove);
+                return true;
+            }
+            //If there's only one Child
+            if(left(toRemove) == NIL && right(toRemove) != NIL){
+                this.root = right(toRemove);
+                setParent(root, NIL);
+                balanceRB(this.root);
+                freeNode(toRemove);
+                return true;
+            }
+            if(right(toRemove) == NIL && left(toRemove) != NIL){
+                this.root = left(toRemove);
+                setParent(root, NIL);
+                balanceRB(this.root);
+                freeNode(toRemove);
+                return true;
+            }
+            //If there are two Children
+            int successor = getNext(root);
+            setKey(root, key(successor));
+            keyCopied(root);
+            removeNode(successor);
+        }
+        //Black Node to be removed
+        else{
+            //When at least one child is null(base case)
+            if(left(toRemove) == NIL || right(toRemove) == NIL){
+                int curParent = parent(toRemove);
+                int child = left(toRemove) == NIL ? right(toRemove) : left(toRemove);
+                //When there's a red child, it takes the place of toRemove
+                if(child != NIL){
+                    setKey(toRemove, key(child));
+                    keyCopied(toRemove);
+                    if(left(toRemove) != NIL){
+                        setLeft(toRemove, NIL);
+                    }else{
+                        setRight(toRemove, NIL);
+                    }
+                    freeNode(child);
+                }
+                //When the parent is red(easy)
+                else if(!isBlack(curParent)){
+                    if(toRemove == left(curParent)){
+                        //Before rotation, remember the left Child of sibling
+                        int nephew = left(right(curParent));
+                        rotateCClockWise(curParent);
+                        setLeft(curParent, NIL);
+                        //Whereever the nephew is now balance it
+                        if(nephew != NIL && !isBlack(nephew)){
+                            balanceRB(nephew);
+                        }
+                    }else{
+                        //Before rotation, remember the right Child of sibling
+                        int nephew = right(left(curParent));
+                        rotateClockWise(curParent);
+                        setRight(curParent, NIL);
+                        //Whereever the nephew is now, balance it
+                        if(nephew != NIL){
+                            balanceRB(nephew);
+                        }
+                    }
+                    freeNode(toRemove);
+                    return true;
+                }
+                //When the parent Node is black and there's no red Child
+                //sibling cannot be null
+                else{
+                    int sibling = toRemove == left(curParent) ?
+                        right(curParent) : left(curParent);
+                    //If parent is root and the sibling is black
+                    if(curParent == root && isBlack(sibling)){
+                        if(sibling == left(curParent)){
+                            setRight(curParent, NIL);
+                        }else{
+                            setLeft(curParent, NIL);
+                        }
+                        setBlack(sibling, false);
+                        int nephew1 = left(sibling);
+                        int nephew2 = right(sibling);
+                        if(nephew1 != NIL) balanceRB(nephew1);
+                        if(nephew2 != NIL) balanceRB(nephew2);
+                        freeNode(toRemove);
+                        return true;
+                    }
+                    //When the sibling is red
+                    if(!isBlack(sibling)){
+                        if(toRemove == right(curParent)){
+                            setRight(curParent, NIL);
+                            rotateClockWise(curParent);
+                        }else{
+                            setLeft(curParent, NIL);
+                            rotateCClockWise(curParent);
+                        }
+                        //Recolor
+                        setBlack(sibling, true);
+
+                        int child1 = left(curParent);
+                        int child2 = right(curParent);
+                        if(child1 != NIL) setBlack(child1, false);
+                        if(child2 != NIL) setBlack(child2, false);
+                        if(child1 != NIL){
+                            if(left(child1) != NIL) balanceRB(left(child1));
+                            if(right(child1) != NIL) balanceRB(right(child1));
+                        }
+                        if(child2 != NIL){
+                            if(left(child2) != NIL) balanceRB(left(child2));
+                            if(right(child2) != NIL) balanceRB(right(child2));
+                        }
+                        freeNode(toRemove);
+                        return true;
+                    }
+                    //When the sibling is black and curParent is not root
+                    boolean siblingOnLeft = left(curParent) == sibling;
+                    boolean redOnLeft =
+                        left(sibling) != NIL && !isBlack(left(sibling));
+                    boolean redOnRight =
+                        right(sibling) != NIL && !isBlack(right(sibling));
+                    //Stop parentship
+                    if(siblingOnLeft){
+                        setRight(curParent, NIL);
+                    }else{
+                        setLeft(curParent, NIL);
+                    }
+                    freeNode(toRemove);
+                    //When the sibling still has a red child
+                    if(redOnLeft || redOnRight){
+                        if(siblingOnLeft){
+                            if(!redOnLeft){
+                                rotateCClockWise(sibling);
+                                setBlack(parent(sibling), true);
+                                rotateClockWise(curParent);
+                            }else{
+                                setBlack(left(sibling), true);
+                                rotateClockWise(curParent);
+                            }
+                        }else{
+                            if(!redOnRight){
+                                rotateClockWise(sibling);
+                                setBlack(parent(sibling), true);
+                                rotateCClockWise(curParent);
+                            }else{
+                                setBlack(right(sibling), true);
+                                rotateCClockWise(curParent);
+                            }
+                        }
+                        return true;
+                    }
+                    //When sibling has no red child
+                    setBlack(sibling, false);
+                    hasLessBlack(curParent);
+                    return true;
+                }
+            }else{
+                //When the toRemove black Node is inner
+                int successor = getNext(toRemove);
+                setKey(toRemove, key(successor));
+                keyCopied(toRemove);
+                return removeNode(successor);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to balance a Node when paths through it has one less
+     * black then others, see BST12RB.hasLessBlack(Node)
+     * @param defect the Node with 1 black Node less
+     */
+    private void hasLessBlack(int defect){
+            if(!isBlack(defect)){
+                setBlack(defect, true);
+                return;
+            }
+
+            //Base case
+            if(defect == root){
+                return;
+            }
+            int curParent = parent(defect);
+            int sibling = defect == left(curParent) ?
+                right(curParent) : left(curParent);
+            //Also a base case(curParent is red)
+            if(!isBlack(curParent)){
+                //Remember the nephew that will be taken by CurParent
+                int stepSibling;
+                if(left(curParent) == sibling){
+                    stepSibling = right(sibling);
+                    rotateClockWise(curParent);
+                }else{
+                    stepSibling = left(sibling);
+                    rotateCClockWise(curParent);
+                }
+                balanceRB(stepSibling);
+                return;
+            }
+            //Another base case that repels the previous one
+            //(sibling is red)
+            if(!isBlack(sibling)){
+                if(sibling == left(curParent)){
+                    rotateClockWise(curParent);
+                }else{
+                    rotateCClockWise(curParent);
+                }
+                setBlack(sibling, true);
+                setBlack(curParent, false);
+                hasLessBlack(defect);
+                return;
+            }
+            //Or if the sibling is black but both its children are red
+            if(left(sibling) != NIL && !isBlack(left(sibling))
+                    && right(sibling) != NIL && !isBlack(right(sibling))){
+                setBlack(sibling, false);
+                setBlack(left(sibling), true);
+                setBlack(right(sibling), true);
+                //Now fits in the previous situation
+                hasLessBlack(defect);
+                return;
+            }
+            //If one of its child is red, it's still base case(almost)
+            if(sibling == right(curParent)){
+                if(left(sibling) != NIL && !isBlack(left(sibling))){
+                    setBlack(left(sibling), true);
+                    rotateClockWise(sibling);
+                    rotateCClockWise(curParent);
+                    return;
+                }
+                if(right(sibling) != NIL && !isBlack(right(sibling))){
+                    setBlack(right(sibling), true);
+                    rotateCClockWise(curParent);
+                    return;
+                }
+            }
+            if(sibling == left(curParent)){
+                if(left(sibling) != NIL && !isBlack(left(sibling))){
+                    setBlack(left(sibling), true);
+                    rotateClockWise(curParent);
+                    return;
+                }
+                if(right(sibling) != NIL && !isBlack(right(sibling))){
+                    setBlack(right(sibling), true);
+                    rotateCClockWise(sibling);
+                    rotateClockWise(curParent);
+                    return;
+                }
+            }
+
+            //When the parent,sibling, nephews are all black
+            setBlack(sibling, false);
+            hasLessBlack(curParent);
+    }
+
+    /**
+     * find the successor of current Node
+     * @param curNode the node whose successor is needed
+     * @return the node with value that is JUST after the passed in Node
+     */
+    private int getNext(int curNode){
+        //The best choice is the smallest Child of right Child
+        if(right(curNode) != NIL){
+            curNode = right(curNode);
+            while(left(curNode) != NIL){
+                curNode = left(curNode);
+            }
+            return curNode;
+        }
+        //Or the first ancestor that has curNode on its left
+        int curParent = parent(curNode);
+        while(curParent != NIL && curNode == right(curParent)){
+            curNode = curParent;
+            curParent = parent(curNode);
+        }
+        return curParent;
+    }
+
+    /**
+     * This method searches for the appropriate parent for the given key
+     * Precondition: The tree should not be empty
+     * @param key the key who needs a parent
+     * @return the parent for the passed in key
+     * (NIL if the key already exists)
+     */
+    protected int searchParent(long key){
+        int curParent = NIL;
+        int current = root;
+        while(current != NIL){
+            curParent = current;
+            long curKey = key(curParent);
+            if(key < curKey){
+                current = left(curParent);
+            }else if(key > curKey){
+                current = right(curParent);
+            }else{
+                return NIL;
+            }
+        }
+        return curParent;
+    }
+
+    /**
+     * Unlike searchParent, this searches the Node itself
+     * Precondition: The tree should not be empty
+     * @param key the key in the tree
+     * @return the Node that stores key, NIL if there is none
+     */
+    protected int search(long key){
+        int current = root;
+        while(current != NIL){
+            long curKey = key(current);
+            if(curKey == key){
+                break;
+            }
+            current = curKey < key ? right(current) : left(current);
+        }
+        return current;
+    }
+
+    /**
+     * balances the possible 2-red defect brought by the new Node,
+     * see BST12RB.balanceRB(Node)
+     * @param newNode the newly implemanted Node
+     */
+    private void balanceRB(int newNode){
+        if(isBlack(newNode)){
+            return;
+        }
+        //If the node itself is the root, simply change it to black
+        if(root == newNode){
+            setBlack(newNode, true);
+            return;
+        }
+        //If the parent Node is black, return
+        if(isBlack(parent(newNode))){
+            return;
+        }
+
+        int curParent = parent(newNode);
+        int grandParent = parent(curParent);
+        int uncle = curParent == left(grandParent) ?
+            right(grandParent) : left(grandParent);
+
+        //If the uncle is black or null
+        if(uncle == NIL || isBlack(uncle)){
+            setBlack(newNode, true);
+            int recursiveBalance = curParent;
+            //Rotate, make parent become the new root of this partial tree
+            if(left(grandParent) == curParent){
+                if(right(curParent) == newNode){
+                    rotateCClockWise(curParent);
+                    setBlack(curParent, true);
+                    setBlack(newNode, false);
+                    recursiveBalance = newNode;
+                }
+                rotateClockWise(grandParent);
+            }else{
+                if(left(curParent) == newNode){
+                    rotateClockWise(curParent);
+                    setBlack(curParent, true);
+                    setBlack(newNode, false);
+                    recursiveBalance = newNode;
+                }
+                rotateCClockWise(grandParent);
+            }
+            balanceRB(recursiveBalance);
+            return;
+        }
+
+        //If the uncle is red, change both parent and uncle to black,
+        //change grandparent to red and recursively call
+        setBlack(curParent, true);
+        setBlack(uncle, true);
+        setBlack(grandParent, false);
+        balanceRB(grandParent);
+    }
+
+    /**
+     * rotates a part of the tree based on the pivot given clockwisely
+     * @param pivot the Node that will be readopted by its left child
+     */
+    private void rotateClockWise(int pivot) throws IllegalStateException{
+        int child = left(pivot);
+        if(child == NIL){
+            throw new IllegalStateException();
+        }
+
+        int curParent = parent(pivot);
+        if(curParent == NIL){
+            root = child;
+        }else if(left(curParent) == pivot){
+            setLeft(curParent, child);
+        }else{
+            setRight(curParent, child);
+        }
+        setParent(child, curParent);
+        //pivot adopt the right child of its previous left child
+        setLeft(pivot, right(child));
+        if(left(pivot) != NIL) setParent(left(pivot), pivot);
+        //previous left child adopt pivot
+        setRight(child, pivot);
+        setParent(pivot, child);
+    }
+
+    /**
+     * rotates a part of the tree based on the pivot counter clockwisely
+     * @param pivot the Node that will be readopted by its right child
+     */
+    private void rotateCClockWise(int pivot) throws IllegalStateException{
+        int child = right(pivot);
+        if(child == NIL){
+            throw new IllegalStateException();
+        }
+
+        int curParent = parent(pivot);
+        if(curParent == NIL){
+            root = child;
+        }else if(left(curParent) == pivot){
+            setLeft(curParent, child);
+        }else{
+            setRight(curParent, child);
+        }
+        setParent(child, curParent);
+        //pivot adopt the left child of its previous right child
+        setRight(pivot, left(child));
+        if(right(pivot) != NIL) setParent(right(pivot), pivot);
+        //previous right child adopt pivot
+        setLeft(child, pivot);
+        setParent(pivot, child);
+    }
+
+    /**
+     * @return the height of the given node
+     */
+    private int height(int n){
+        if(n == NIL){
+            return 0;
+        }
+        return 1 + Math.max(height(left(n)), height(right(n)));
+    }
+
+    /**
+     * @return the number of children under current given Node
+     */
+    private int numChildren(int n){
+        if(n == NIL){
+            return 0;
+        }
+        int directChild = 0;
+        if(left(n) != NIL) directChild++;
+        if(right(n) != NIL) directChild++;
+        return numChildren(left(n)) + numChildren(right(n)) + directChild;
+    }
+
+    /**
+     * @return true if there are two continuous red Nodes under n
+     */
+    boolean hasTwoRed(int n){
+        if(n == NIL) return false;
+        if(!isBlack(n)){
+            if(left(n) != NIL && !isBlack(left(n))) return true;
+            if(right(n) != NIL && !isBlack(right(n))) return true;
+        }
+        return hasTwoRed(left(n)) || hasTwoRed(right(n));
+    }
+
+    /**
+     * @return the black height of n, NIL is considered as 0
+     */
+    int blackHeight(int n) throws IllegalStateException{
+        if(n == NIL) return 0;
+
+        int leftBlack = blackHeight(left(n));
+        int rightBlack = blackHeight(right(n));
+        if(leftBlack != rightBlack){
+            throw new IllegalStateException();
+        }
+        return isBlack(n) ? 1 + leftBlack : leftBlack;
+    }
+
+    /**
+     * this class defines the iterator for this tree
+     */
+    private class OffHeapIterator implements PrimitiveIterator.OfLong{
+        int cursor = NIL;
+
+        OffHeapIterator(){
+            if(!isEmpty()){
+                cursor = root;
+                while(left(cursor) != NIL){
+                    cursor = left(cursor);
+                }
+            }
+        }
+
+        /**
+         * @return true if there's still next key
+         */
+        public boolean hasNext(){
+            return cursor != NIL;
+        }
+
+        /**
+         * @return next key in ascending order
+         */
+        public long nextLong() throws NoSuchElementException{
+            if(cursor == NIL){
+                throw new NoSuchElementException();
+            }
+            long toReturn = key(cursor);
+            cursor = getNext(cursor);
+            return toReturn;
+        }
+    }
+
+    /**
+     * This class is used for OffHeapRBTree's specific tests
+     */
+    public static class OffHeapTester extends junit.framework.TestCase{
+        @Test
+        //The off-heap tree must build exactly the same trees as BST12RB
+        public void testSameShapeAsBST12RB(){
+            Random generator = new Random();
+            OffHeapRBTree tree = new OffHeapRBTree();
+            for(int i = 0; i < 20; i++){
+                BST12RB<Long> model = new BST12RB<Long>();
+                tree.clear();
+                int range = 1 + generator.nextInt(2000);
+                for(int j = 0; j < 2000; j++){
+                    long key = generator.nextInt(range) - range / 2;
+                    if(generator.nextInt(3) == 0 && !model.isEmpty()){
+                        assertEquals(model.remove(key), tree.remove(key));
+                    }else{
+                        assertEquals(model.add(key), tree.add(key));
+                    }
+                    assertEquals(model.size(), tree.size());
+                    assertEquals(model.height(), tree.height());
+                    assertFalse(tree.hasTwoRed(tree.root));
+                    tree.blackHeight(tree.root);
+                }
+                assertEquals(model.toString(), tree.toString());
+            }
+            tree.free();
+        }
+
+        @Test
+        public void testFootprintAndFree(){
+            OffHeapRBTree tree = new OffHeapRBTree();
+            assertEquals(0, tree.offHeapBytes());
+            TreeSet<Long> model = new TreeSet<Long>();
+            for(long i = 0; i < 3 * CHUNK_NODES; i++){
+                long key = i * 7919 % (3 * CHUNK_NODES);
+                tree.add(key);
+                model.add(key);
+            }
+            assertEquals(3L * CHUNK_BYTES, tree.offHeapBytes());
+            assertEquals(model.size(), tree.size());
+            assertEquals((long)model.first(), tree.first());
+            assertEquals((long)model.last(), tree.last());
+            assertEquals(model.size() - 1, tree.numChildren(tree.key(tree.root)));
+
+            tree.free();
+            assertEquals(0, tree.offHeapBytes());
+            try{
+                tree.add(1);
+                fail("No Exception");
+            }catch(IllegalStateException e){
+                //correct
+            }
+        }
+    }
+}
@@ -0,0 +1,738 @@
+/**
+ * This file contains a persistent red-black tree and its immutable Node.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines a red-black tree whose Nodes never change.
+ * add and remove copy only the Nodes on the search path and share every
+ * other subtree with the previous version, so an update allocates
+ * O(log n) Nodes and snapshot() is O(1). A version nobody refers to any
+ * more is left to the garbage collector.
+ *
+ * Insertion follows Okasaki and deletion follows Kahrs, both without
+ * parent links, which cannot be shared between versions. The root is
+ * swapped with compareAndSet, so snapshots, iterators and reads are safe
+ * from any thread and writers from several threads never block.
+ */
+public class PersistentBST12RB<E extends Comparable<? super E>>
+    implements BinSearchTree12<E>{
+    //The current version
+    private final AtomicReference<Node<E>> root;
+
+    /**
+     * no-arg Constructor
+     */
+    public PersistentBST12RB(){
+        this.root = new AtomicReference<Node<E>>(null);
+    }
+
+    /**
+     * Constructor that copies a whole collection, built bottom-up
+     * @param c the collection with elements to be copied
+     */
+    public PersistentBST12RB(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            this();
+            this.addAll(c);
+    }
+
+    /**
+     * A version shares all its Nodes
+     * @param top the root of the version
+     */
+    private PersistentBST12RB(Node<E> top){
+        this.root = new AtomicReference<Node<E>>(top);
+    }
+
+    /**
+     * @return a tree holding the current elements, which later changes to
+     * either tree do not affect
+     */
+    public PersistentBST12RB<E> snapshot(){
+        return new PersistentBST12RB<E>(root.get());
+    }
+
+    /*--------------------------Overriding methods--------------------------*/
+    /**
+     * adding a new element to the tree
+     * @param e the element to be added
+     * @return whether the adding is successful(w/o repetitive element)
+     */
+    public boolean add(E e) throws NullPointerException, ClassCastException{
+        if(e == null){
+            throw new NullPointerException();
+        }
+
+        while(true){
+            Node<E> current = root.get();
+            //Nothing is copied for an element already there
+            if(search(current, e) != null){
+                return false;
+            }
+            if(root.compareAndSet(current, blacken(insert(current, e)))){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * addAll elements from a given Collection to the tree. An empty tree
+     * is built bottom-up from the sorted elements
+     * @param c collection with elements
+     * @return true only if every element was added, like BST12RB
+     */
+    public boolean addAll(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            if(c == null){
+                throw new NullPointerException();
+            }
+
+            Object[] batch = c.toArray();
+            for(Object each: batch){
+                if(each == null){
+                    throw new NullPointerException();
+                }
+            }
+            Arrays.sort(batch);
+            int unique = 0;
+            for(int i = 0; i < batch.length; i++){
+                if(unique == 0
+                        || element(batch[i]).compareTo(element(batch[unique - 1])) != 0){
+                    batch[unique++] = batch[i];
+                }
+            }
+
+            //Only an empty tree is worth building for, a race lost after the
+            //build falls back to adding one by one
+            if(unique > 1 && root.get() == null && root.compareAndSet(null,
+                        build(batch, 0, unique - 1, 0, redLevel(unique)))){
+                return unique == batch.length;
+            }
+            int added = 0;
+            for(int i = 0; i < unique; i++){
+                if(this.add(element(batch[i]))) added++;
+            }
+            return added == batch.length;
+    }
+
+    /**
+     * clear the current tree
+     */
+    public void clear(){
+        root.set(null);
+    }
+
+    /**
+     * check if a particular element is contained in the tree
+     * @param o the element to be searched
+     * @return true if the passed-in element exists
+     */
+    public boolean contains(E o) throws NullPointerException, ClassCastException{
+        if(o == null){
+            throw new NullPointerException();
+        }
+        return search(root.get(), o) != null;
+    }
+
+    /**
+     * return the lowest element in the tree
+     * @return lowest element
+     */
+    public E first() throws NoSuchElementException{
+        Node<E> current = root.get();
+        if(current == null){
+            throw new NoSuchElementException();
+        }
+        while(current.left != null){
+            current = current.left;
+        }
+        return current.element;
+    }
+
+    /**
+     * Tests if the tree is empty
+     * @return true if the tree is empty
+     */
+    public boolean isEmpty(){
+        return root.get() == null;
+    }
+
+    /**
+     * The iterator walks the version current when it was created
+     * @return an iterator that traverses the tree
+     */
+    public Iterator<E> iterator(){
+        return new PersistentIterator(root.get());
+    }
+
+    /**
+     * gives the last element in the tree
+     * @return the last element
+     */
+    public E last() throws NoSuchElementException{
+        Node<E> current = root.get();
+        if(current == null){
+            throw new NoSuchElementException();
+        }
+        while(current.right != null){
+            current = current.right;
+        }
+        return current.element;
+    }
+
+    /**
+     * remove the given element if it exists
+     * @param o the element to be removed
+     * @return true if it exists and is removed
+     */
+    public boolean remove(E o) throws NullPointerException, ClassCastException{
+        if(o == null){
+            throw new NullPointerException();
+        }
+
+        while(true){
+            Node<E> current = root.get();
+            if(search(current, o) == null){
+                return false;
+            }
+            if(root.compareAndSet(current, blacken(delete(current, o)))){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of elements in the tree
+     */
+    public int size(){
+        return sizeOf(root.get());
+    }
+
+    /**
+     * Every Node knows its height, so this is O(1)
+     * @return the height of current tree
+     */
+    public int height(){
+        return heightOf(root.get());
+    }
+
+    /**
+     * @return number of Children under the Node holding target
+     */
+    public int numChildren(E target)
+            throws IllegalArgumentException, NoSuchElementException{
+            if(target == null){
+                throw new IllegalStateException();
+            }
+            Node<E> found = search(root.get(), target);
+            if(found == null){
+                throw new NoSuchElementException();
+            }
+            return found.size - 1;
+    }
+
+    /**
+     * @return String representation of the tree
+     */
+    public String toString(){
+        Iterator<E> iter = iterator();
+        StringBuilder result = new StringBuilder("[");
+        while(iter.hasNext()){
+            result.append(iter.next());
+            if(iter.hasNext()){
+                result.append(", ");
+            }
+        }
+        return result.append("]").toString();
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * @param n the root of a version
+     * @param e the element to be searched
+     * @return the Node holding e, null if there is none
+     */
+    private Node<E> search(Node<E> n, E e){
+        while(n != null){
+            int cmp = e.compareTo(n.element);
+            if(cmp == 0){
+                return n;
+            }
+            n = cmp < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    /**
+     * Okasaki's insertion, a red-red defect is fixed by balance at the
+     * black Node above it
+     * Precondition: e is not in the subtree
+     * @param n the root of a subtree, may be null
+     * @param e the element to be added
+     * @return the copied subtree, its root may be red
+     */
+    private Node<E> insert(Node<E> n, E e){
+        if(n == null){
+            return new Node<E>(null, e, null, false);
+        }
+
+        boolean goLeft = e.compareTo(n.element) < 0;
+        if(n.color){
+            return goLeft ? balance(insert(n.left, e), n.element, n.right)
+                : balance(n.left, n.element, insert(n.right, e));
+        }
+        return goLeft ? new Node<E>(insert(n.left, e), n.element, n.right, false)
+            : new Node<E>(n.left, n.element, insert(n.right, e), false);
+    }
+
+    /**
+     * Kahrs's deletion, every subtree the path leaves is one black short
+     * at most, which balanceLeft and balanceRight make up for
+     * Precondition: e is in the subtree
+     * @param n the root of a subtree
+     * @param e the element to be removed
+     * @return the copied subtree, its root may be red
+     */
+    private Node<E> delete(Node<E> n, E e){
+        int cmp = e.compareTo(n.element);
+        if(cmp < 0){
+            if(isBlack(n.left)){
+                return balanceLeft(delete(n.left, e), n.element, n.right);
+            }
+            return new Node<E>(delete(n.left, e), n.element, n.right, false);
+        }
+        if(cmp > 0){
+            if(isBlack(n.right)){
+                return balanceRight(n.left, n.element, delete(n.right, e));
+            }
+            return new Node<E>(n.left, n.element, delete(n.right, e), false);
+        }
+        return append(n.left, n.right);
+    }
+
+    /**
+     * Build a black Node, rotating away a red child with a red child
+     * @param l the left subtree
+     * @param e the element of the Node
+     * @param r the right subtree
+     * @return the balanced subtree
+     */
+    private Node<E> balance(Node<E> l, E e, Node<E> r){
+        if(isRed(l) && isRed(r)){
+            return new Node<E>(blacken(l), e, blacken(r), false);
+        }
+        if(isRed(l)){
+            if(isRed(l.left)){
+                return new Node<E>(blacken(l.left), l.element,
+                        new Node<E>(l.right, e, r, true), false);
+            }
+            if(isRed(l.right)){
+                return new Node<E>(new Node<E>(l.left, l.element, l.right.left, true),
+                        l.right.element, new Node<E>(l.right.right, e, r, true), false);
+            }
+        }
+        if(isRed(r)){
+            if(isRed(r.right)){
+                return new Node<E>(new Node<E>(l, e, r.left, true), r.element,
+                        blacken(r.right), false);
+            }
+            if(isRed(r.left)){
+                return new Node<E>(new Node<E>(l, e, r.left.left, true),
+                        r.left.element, new Node<E>(r.left.right, r.element, r.right, true),
+                        false);
+            }
+        }
+        return new Node<E>(l, e, r, true);
+    }
+
+    /**
+     * Make up for a left subtree that lost one black
+     * @param l the left subtree, one black short
+     * @param e the element of the Node
+     * @param r the right subtree
+     * @return the balanced subtree
+     */
+    private Node<E> balanceLeft(Node<E> l, E e, Node<E> r){
+        if(isRed(l)){
+            return new Node<E>(blacken(l), e, r, false);
+        }
+        if(isBlack(r)){
+            return balance(l, e, redden(r));
+        }
+        if(isRed(r) && isBlack(r.left)){
+            return new Node<E>(new Node<E>(l, e, r.left.left, true), r.left.element,
+                    balance(r.left.right, r.element, redden(r.right)), false);
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Make up for a right subtree that lost one black
+     * @param l the left subtree
+     * @param e the element of the Node
+     * @param r the right subtree, one black short
+     * @return the balanced subtree
+     */
+    private Node<E> balanceRight(Node<E> l, E e, Node<E> r){
+        if(isRed(r)){
+            return new Node<E>(l, e, blacken(r), false);
+        }
+        if(isBlack(l)){
+            return balance(redden(l), e, r);
+        }
+        if(isRed(l) && isBlack(l.right)){
+            return new Node<E>(balance(redden(l.left), l.element, l.right.left),
+                    l.right.element, new Node<E>(l.right.right, e, r, true), false);
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Glue the two children of a removed Node
+     * @param l the left subtree
+     * @param r the right subtree, of the same black height
+     * @return the glued subtree
+     */
+    private Node<E> append(Node<E> l, Node<E> r){
+        if(l == null){
+            return r;
+        }
+        if(r == null){
+            return l;
+        }
+
+        if(isRed(l) && isRed(r)){
+            Node<E> middle = append(l.right, r.left);
+            if(isRed(middle)){
+                return new Node<E>(new Node<E>(l.left, l.element, middle.left, false),
+                        middle.element, new Node<E>(middle.right, r.element, r.right, false),
+                        false);
+            }
+            return new Node<E>(l.left, l.element,
+                    new Node<E>(middle, r.element, r.right, false), false);
+        }
+        if(isBlack(l) && isBlack(r)){
+            Node<E> middle = append(l.right, r.left);
+            if(isRed(middle)){
+                return new Node<E>(new Node<E>(l.left, l.element, middle.left, true),
+                        middle.element, new Node<E>(middle.right, r.element, r.right, true),
+                        false);
+            }
+            return balanceLeft(l.left, l.element,
+                    new Node<E>(middle, r.element, r.right, true));
+        }
+        if(isRed(r)){
+            return new Node<E>(append(l, r.left), r.element, r.right, false);
+        }
+        return new Node<E>(l.left, l.element, append(l.right, r), false);
+    }
+
+    /**
+     * Link a balanced subtree over a sorted range, the deepest incomplete
+     * level red, like BST12RB's buildFromSorted
+     * @param sorted distinct elements in ascending order
+     * @param lo first index of the range
+     * @param hi last index of the range
+     * @param level depth of the subtree root
+     * @param redLevel the depth to color red
+     * @return the root of the subtree, null for an empty range
+     */
+    private Node<E> build(Object[] sorted, int lo, int hi, int level, int redLevel){
+        if(lo > hi){
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        return new Node<E>(build(sorted, lo, mid - 1, level + 1, redLevel),
+                element(sorted[mid]), build(sorted, mid + 1, hi, level + 1, redLevel),
+                level != redLevel);
+    }
+
+    /**
+     * @param n number of Nodes of a tree built by build
+     * @return the depth of its deepest level
+     */
+    private static int redLevel(int n){
+        int level = 0;
+        for(int m = n - 1; m >= 0; m = m / 2 - 1){
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @param n a Node, may be null
+     * @return n, or a black copy of it if it is red
+     */
+    private Node<E> blacken(Node<E> n){
+        return n == null || n.color ? n : new Node<E>(n.left, n.element, n.right, true);
+    }
+
+    /**
+     * @param n a black Node
+     * @return a red copy of n
+     */
+    private Node<E> redden(Node<E> n){
+        if(!isBlack(n)){
+            throw new IllegalStateException();
+        }
+        return new Node<E>(n.left, n.element, n.right, false);
+    }
+
+    private static boolean isRed(Node<?> n){
+        return n != null && !n.color;
+    }
+
+    private static boolean isBlack(Node<?> n){
+        return n != null && n.color;
+    }
+
+    private static int sizeOf(Node<?> n){
+        return n == null ? 0 : n.size;
+    }
+
+    private static int heightOf(Node<?> n){
+        return n == null ? 0 : n.height;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E element(Object o){
+        return (E)o;
+    }
+
+    /**
+     * This helper method checks the red-black properties of a version
+     * @param n the Node whose subtree is checked
+     * @return the black height of n
+     */
+    int blackHeight(Node<E> n) throws IllegalStateException{
+        if(n == null) return 0;
+
+        if(isRed(n) && (isRed(n.left) || isRed(n.right))){
+            throw new IllegalStateException();
+        }
+        if(n.size != sizeOf(n.left) + sizeOf(n.right) + 1){
+            throw new IllegalStateException();
+        }
+        int leftBlack = blackHeight(n.left);
+        if(leftBlack != blackHeight(n.right)){
+            throw new IllegalStateException();
+        }
+        return n.color ? leftBlack + 1 : leftBlack;
+    }
+
+    /**
+     * This class defines the Nodes shared between versions. Once built a
+     * Node never changes
+     */
+    private static final class Node<E>{
+        final Node<E> left;
+        final Node<E> right;
+        final E element;
+        //true means black
+        final boolean color;
+        //Number of Nodes and height of the subtree rooted here
+        final int size;
+        final int height;
+
+        /**
+         * Constructor
+         * @param left the left subtree
+         * @param element the element
+         * @param right the right subtree
+         * @param color true for a black Node
+         */
+        Node(Node<E> left, E element, Node<E> right, boolean color){
+            this.left = left;
+            this.right = right;
+            this.element = element;
+            this.color = color;
+            this.size = sizeOf(left) + sizeOf(right) + 1;
+            this.height = Math.max(heightOf(left), heightOf(right)) + 1;
+        }
+    }
+
+    /**
+     * this class defines the iterator for one version, with a stack of the
+     * Nodes whose left side has been visited
+     */
+    private class PersistentIterator implements Iterator<E>{
+        Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+
+        /**
+         * Constructor
+         * @param top the root of the version to walk
+         */
+        public PersistentIterator(Node<E> top){
+            pushLeft(top);
+        }
+
+        /**
+         * @return true if there's still next element
+         */
+        public boolean hasNext(){
+            return !stack.isEmpty();
+        }
+
+        /**
+         * @return next value in ascending order
+         */
+        public E next() throws NoSuchElementException{
+            if(stack.isEmpty()){
+                throw new NoSuchElementException();
+            }
+            Node<E> current = stack.pop();
+            pushLeft(current.right);
+            return current.element;
+        }
+
+        /**
+         * remove method that will be disabled
+         */
+        public void remove() throws UnsupportedOperationException{
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(Node<E> n){
+            for(; n != null; n = n.left){
+                stack.push(n);
+            }
+        }
+    }
+
+    /**
+     * This class is used for PersistentBST12RB's specific tests
+     */
+    public static class PersistentTester extends junit.framework.TestCase{
+        @Test
+        public void testAgainstTreeSet(){
+            PersistentBST12RB<Integer> tree = new PersistentBST12RB<Integer>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            for(int i = 0; i < 50000; i++){
+                Integer e = generator.nextInt(5000);
+                if(generator.nextInt(3) != 0){
+                    assertEquals(model.add(e), tree.add(e));
+                }else{
+                    assertEquals(model.remove(e), tree.remove(e));
+                }
+                if(i % 1000 == 0){
+                    tree.blackHeight(tree.root.get());
+                    assertEquals(model.toString(), tree.toString());
+                }
+            }
+            assertEquals(model.size(), tree.size());
+            assertEquals(model.first(), tree.first());
+            assertEquals(model.last(), tree.last());
+            tree.blackHeight(tree.root.get());
+            while(!model.isEmpty()){
+                assertTrue(tree.remove(model.pollFirst()));
+            }
+            assertTrue(tree.isEmpty());
+
+            //addAll is true only when no element was dropped, whether the
+            //tree is built or added to
+            assertFalse(tree.addAll(Arrays.asList(1, 2, 2, 3)));
+            assertEquals(3, tree.size());
+            assertFalse(tree.addAll(Arrays.asList(3, 4)));
+            assertTrue(tree.addAll(Arrays.asList(5, 6)));
+            assertEquals(6, tree.size());
+        }
+
+        @Test
+        public void testSnapshotsAreFrozen(){
+            PersistentBST12RB<Integer> tree = new PersistentBST12RB<Integer>();
+            List<PersistentBST12RB<Integer>> versions =
+                new ArrayList<PersistentBST12RB<Integer>>();
+            List<String> expected = new ArrayList<String>();
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            for(int i = 0; i < 2000; i++){
+                Integer e = generator.nextInt(300);
+                if(generator.nextBoolean()){
+                    tree.add(e);
+                    model.add(e);
+                }else{
+                    tree.remove(e);
+                    model.remove(e);
+                }
+                if(i % 100 == 0){
+                    versions.add(tree.snapshot());
+                    expected.add(model.toString());
+                }
+            }
+            for(int i = 0; i < versions.size(); i++){
+                assertEquals(expected.get(i), versions.get(i).toString());
+            }
+
+            //A snapshot changes on its own
+            PersistentBST12RB<Integer> copy = tree.snapshot();
+            copy.clear();
+            copy.add(-1);
+            assertEquals(model.toString(), tree.toString());
+            assertEquals("[-1]", copy.toString());
+        }
+
+        @Test
+        //An add copies the search path only
+        public void testPathCopying(){
+            List<Integer> elements = new ArrayList<Integer>();
+            for(int i = 0; i < 100000; i++){
+                elements.add(2 * i);
+            }
+            PersistentBST12RB<Integer> tree = new PersistentBST12RB<Integer>(elements);
+            tree.blackHeight(tree.root.get());
+            assertTrue(tree.height() <= 17);
+            PersistentBST12RB<Integer> before = tree.snapshot();
+            tree.add(777);
+            assertEquals(100001, tree.size());
+            assertEquals(100000, before.size());
+            assertTrue(copied(tree.root.get(), before.root.get()) <= 2 * tree.height());
+            assertFalse(before.contains(777));
+            assertTrue(tree.contains(777));
+        }
+
+        /**
+         * @param version the root of a newer version
+         * @param old the root of an older version
+         * @return number of Nodes of version that are not shared with old
+         */
+        private static int copied(Node<Integer> version, Node<Integer> old){
+            Set<Node<Integer>> shared = Collections.newSetFromMap(
+                    new IdentityHashMap<Node<Integer>, Boolean>());
+            collect(old, shared);
+            return countMissing(version, shared);
+        }
+
+        private static void collect(Node<Integer> n, Set<Node<Integer>> into){
+            if(n == null) return;
+            into.add(n);
+            collect(n.left, into);
+            collect(n.right, into);
+        }
+
+        private static int countMissing(Node<Integer> n, Set<Node<Integer>> shared){
+            if(n == null || shared.contains(n)) return 0;
+            return 1 + countMissing(n.left, shared) + countMissing(n.right, shared);
+        }
+    }
+}
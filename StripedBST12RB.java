@@ -0,0 +1,776 @@
+/**
+ * This file contains a red-black tree partitioned into key ranges.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * This class defines a tree made of BST12RB shards, each covering a range
+ * of keys and guarded by its own lock, so writers to different ranges do
+ * not wait for each other.
+ *
+ * The shard table is copied on every change and never modified in place.
+ * An operation finds its shard in the table, locks it and checks it is
+ * still in use. A shard that has been split or merged is retired under
+ * its lock, and the operation looks it up again in the new table.
+ *
+ * A shard that doubles in size is split at its median with
+ * BST12RB.split. Once the table is full, a shard has to grow past twice
+ * the average size, and the two neighbours with the fewest elements are
+ * joined first to make room.
+ *
+ * first, last and size go over the shards in key order. Every shard is
+ * seen consistently, but not all shards at the same moment. The iterator
+ * copies nothing: each step looks up the lowest element above the last
+ * one in the shard that covers it, so it sees every element that stays in
+ * the tree while it runs and never fails on a change.
+ */
+public class StripedBST12RB<E extends Comparable<? super E>>
+    implements BinSearchTree12<E>{
+    //Shards smaller than this are never split
+    static final int MIN_SPLIT = 1 << 10;
+
+    private final int maxShards;
+    //Shards in key order, replaced as a whole
+    private volatile List<Shard> shards;
+    //Serializes the changes to the table
+    private final Object tableLock = new Object();
+
+    /**
+     * no-arg Constructor, up to 4 shards per processor
+     */
+    public StripedBST12RB(){
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param maxShards the largest number of shards
+     */
+    public StripedBST12RB(int maxShards) throws IllegalArgumentException{
+        if(maxShards < 1){
+            throw new IllegalArgumentException();
+        }
+        this.maxShards = maxShards;
+        this.shards = Collections.singletonList(new Shard(new BST12RB<E>(), null));
+    }
+
+    /**
+     * Constructor that copies a whole collection
+     * @param c the collection with elements to be copied
+     */
+    public StripedBST12RB(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            this();
+            this.addAll(c);
+    }
+
+    /*--------------------------Overriding methods--------------------------*/
+    /**
+     * adding a new element to the tree
+     * @param e the element to be added
+     * @return whether the adding is successful(w/o repetitive element)
+     */
+    public boolean add(E e) throws NullPointerException, ClassCastException{
+        if(e == null){
+            throw new NullPointerException();
+        }
+
+        while(true){
+            Shard shard = route(e);
+            boolean added;
+            int size;
+            long stamp = shard.lock.writeLock();
+            try{
+                if(shard.retired){
+                    continue;
+                }
+                added = shard.tree.add(e);
+                size = shard.tree.size();
+            }finally{
+                shard.lock.unlockWrite(stamp);
+            }
+
+            if(added && size >= shard.splitAt){
+                rebalance(shard);
+            }
+            return added;
+        }
+    }
+
+    /**
+     * addAll elements from a given Collection to the tree
+     * @param c collection with elements
+     * @return true only if every element was added, like BST12RB
+     */
+    public boolean addAll(Collection<? extends E> c)
+            throws NullPointerException, ClassCastException{
+            if(c == null){
+                throw new NullPointerException();
+            }
+
+            boolean all = true;
+            for(E each: c){
+                all &= this.add(each);
+            }
+            return all;
+    }
+
+    /**
+     * clear the current tree, back to a single shard
+     */
+    public void clear(){
+        synchronized(tableLock){
+            List<Shard> table = shards;
+            long[] stamps = new long[table.size()];
+            for(int i = 0; i < table.size(); i++){
+                stamps[i] = table.get(i).lock.writeLock();
+            }
+            for(Shard each: table){
+                each.retired = true;
+            }
+            shards = Collections.singletonList(new Shard(new BST12RB<E>(), null));
+            for(int i = 0; i < table.size(); i++){
+                table.get(i).lock.unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * check if a particular element is contained in the tree
+     * The shard is read under an optimistic stamp, see ConcurrentBST12RB
+     * @param o the element to be searched
+     * @return true if the passed-in element exists
+     */
+    public boolean contains(E o) throws NullPointerException, ClassCastException{
+        if(o == null){
+            throw new NullPointerException();
+        }
+
+        while(true){
+            Shard shard = route(o);
+            long stamp = shard.lock.tryOptimisticRead();
+            boolean found = shard.tree.containsUnlocked(o);
+            boolean retired = shard.retired;
+            if(stamp != 0 && shard.lock.validate(stamp)){
+                if(!retired){
+                    return found;
+                }
+                continue;
+            }
+
+            stamp = shard.lock.readLock();
+            try{
+                if(!shard.retired){
+                    return shard.tree.containsUnlocked(o);
+                }
+            }finally{
+                shard.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * return the lowest element in the tree
+     * @return lowest element
+     */
+    public E first() throws NoSuchElementException{
+        return edge(true);
+    }
+
+    /**
+     * Tests if the tree is empty
+     * @return true if the tree is empty
+     */
+    public boolean isEmpty(){
+        return size() == 0;
+    }
+
+    /**
+     * The iterator holds no lock between steps, each next costs one
+     * O(log n) lookup in a shard. Elements added or removed while it runs
+     * may or may not be seen
+     * @return an iterator over the elements in ascending order
+     */
+    public Iterator<E> iterator(){
+        return new StripedIterator();
+    }
+
+    /**
+     * gives the last element in the tree
+     * @return the last element
+     */
+    public E last() throws NoSuchElementException{
+        return edge(false);
+    }
+
+    /**
+     * remove the given element if it exists
+     * @param o the element to be removed
+     * @return true if it exists and is removed
+     */
+    public boolean remove(E o) throws NullPointerException, ClassCastException{
+        if(o == null){
+            throw new NullPointerException();
+        }
+
+        while(true){
+            Shard shard = route(o);
+            long stamp = shard.lock.writeLock();
+            try{
+                if(!shard.retired){
+                    return !shard.tree.isEmpty() && shard.tree.remove(o);
+                }
+            }finally{
+                shard.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * @return the number of elements in the tree
+     */
+    public int size(){
+        while(true){
+            int total = 0;
+            boolean stale = false;
+            for(Shard each: shards){
+                int size = each.size();
+                if(size < 0){
+                    stale = true;
+                    break;
+                }
+                total += size;
+            }
+            if(!stale){
+                return total;
+            }
+        }
+    }
+
+    /**
+     * The shard is found by a binary search over the table, so the longest
+     * search path is the one of the highest shard
+     * @return the height of the highest shard
+     */
+    public int height(){
+        while(true){
+            int highest = 0;
+            boolean stale = false;
+            for(Shard each: shards){
+                long stamp = each.lock.readLock();
+                try{
+                    //A retired shard may share its tree with a live one
+                    if(each.retired){
+                        stale = true;
+                        break;
+                    }
+                    highest = Math.max(highest, each.tree.height());
+                }finally{
+                    each.lock.unlockRead(stamp);
+                }
+            }
+            if(!stale){
+                return highest;
+            }
+        }
+    }
+
+    /**
+     * @return number of Children under the Node holding target in its shard
+     */
+    public int numChildren(E target)
+            throws IllegalArgumentException, NoSuchElementException{
+            while(true){
+                Shard shard = route(target);
+                long stamp = shard.lock.readLock();
+                try{
+                    if(!shard.retired){
+                        return shard.tree.numChildren(target);
+                    }
+                }finally{
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+    }
+
+    /**
+     * @return String representation of the tree
+     */
+    public String toString(){
+        Iterator<E> iter = iterator();
+        StringBuilder result = new StringBuilder("[");
+        while(iter.hasNext()){
+            result.append(iter.next());
+            if(iter.hasNext()){
+                result.append(", ");
+            }
+        }
+        return result.append("]").toString();
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * @return the number of shards in use
+     */
+    int shardCount(){
+        return shards.size();
+    }
+
+    /**
+     * Binary search for the last shard whose lower bound is not above e
+     * @param e an element
+     * @return the shard that covers e in the current table
+     */
+    private Shard route(E e){
+        List<Shard> table = shards;
+        return table.get(locate(table, e));
+    }
+
+    /**
+     * @param table a shard table
+     * @param e an element
+     * @return the index of the shard that covers e in table
+     */
+    private int locate(List<Shard> table, E e){
+        int lo = 0;
+        int hi = table.size() - 1;
+        while(lo < hi){
+            //The first shard has no lower bound and is never probed
+            int mid = (lo + hi + 1) >>> 1;
+            if(table.get(mid).low.compareTo(e) <= 0){
+                lo = mid;
+            }else{
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * first and last look for the first shard that is not empty from
+     * either end
+     * @param lowest true for the lowest element, false for the highest
+     * @return the element at that end of the tree
+     */
+    private E edge(boolean lowest) throws NoSuchElementException{
+        while(true){
+            List<Shard> table = shards;
+            boolean stale = false;
+            for(int i = 0; i < table.size() && !stale; i++){
+                Shard shard = table.get(lowest ? i : table.size() - 1 - i);
+                long stamp = shard.lock.readLock();
+                try{
+                    if(shard.retired){
+                        stale = true;
+                    }else if(!shard.tree.isEmpty()){
+                        return lowest ? shard.tree.first() : shard.tree.last();
+                    }
+                }finally{
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+            if(!stale){
+                throw new NoSuchElementException();
+            }
+        }
+    }
+
+    /**
+     * Look for the lowest element above e in the shard that covers it and
+     * then in the ones after it. A retired shard means the table changed,
+     * and the search starts again in the new one
+     * @param e an element, null for the lowest element of the tree
+     * @return the lowest element higher than e, null if none
+     */
+    private E higher(E e){
+        while(true){
+            List<Shard> table = shards;
+            boolean stale = false;
+            int i = e == null ? 0 : locate(table, e);
+            for(; i < table.size() && !stale; i++){
+                Shard shard = table.get(i);
+                long stamp = shard.lock.readLock();
+                try{
+                    if(shard.retired){
+                        stale = true;
+                    }else if(!shard.tree.isEmpty()){
+                        E found = e == null
+                            ? shard.tree.first() : shard.tree.higher(e);
+                        if(found != null){
+                            return found;
+                        }
+                    }
+                }finally{
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+            if(!stale){
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Split a shard that reached its split size. Once the table is full it
+     * is only split when it is more than twice the average, and the two
+     * smallest neighbours are joined first to make room
+     * @param hot the shard that grew
+     */
+    private void rebalance(Shard hot){
+        synchronized(tableLock){
+            List<Shard> table = shards;
+            int index = table.indexOf(hot);
+            if(index < 0){
+                return;
+            }
+            long total = 0;
+            for(Shard each: table){
+                total += Math.max(0, each.size());
+            }
+            int average = (int)(total / table.size());
+            int size = Math.max(0, hot.size());
+            if(size < MIN_SPLIT
+                    || table.size() >= maxShards && size <= 2 * average){
+                //Not hot compared to the others, look again when it is
+                hot.splitAt = Math.max(MIN_SPLIT, 2 * average + 1);
+                return;
+            }
+
+            List<Shard> next = new ArrayList<Shard>(table);
+            if(next.size() >= maxShards){
+                if(!mergeColdest(next, index)){
+                    hot.splitAt = Math.max(MIN_SPLIT, 2 * size);
+                    return;
+                }
+                index = next.indexOf(hot);
+            }
+
+            long stamp = hot.lock.writeLock();
+            try{
+                BST12RB<E> lower = hot.tree;
+                E median = lower.select(lower.size() / 2);
+                BST12RB<E> upper = lower.split(median);
+                hot.retired = true;
+                next.set(index, new Shard(lower, hot.low));
+                next.add(index + 1, new Shard(upper, median));
+                shards = next;
+            }finally{
+                hot.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Join the two neighbouring shards with the fewest elements into one,
+     * leaving the hot shard alone. Called with the table lock held
+     * @param next the table being built, changed in place
+     * @param hot index of the hot shard
+     * @return false if there was no pair to join
+     */
+    private boolean mergeColdest(List<Shard> next, int hot){
+        int best = -1;
+        long fewest = Long.MAX_VALUE;
+        for(int i = 0; i + 1 < next.size(); i++){
+            if(i == hot || i + 1 == hot){
+                continue;
+            }
+            long pair = (long)Math.max(0, next.get(i).size())
+                + Math.max(0, next.get(i + 1).size());
+            if(pair < fewest){
+                fewest = pair;
+                best = i;
+            }
+        }
+        if(best < 0){
+            return false;
+        }
+
+        Shard lower = next.get(best);
+        Shard upper = next.get(best + 1);
+        //Locked in key order, like clear
+        long lowerStamp = lower.lock.writeLock();
+        long upperStamp = upper.lock.writeLock();
+        try{
+            BST12RB<E> merged = lower.tree;
+            if(!upper.tree.isEmpty()){
+                E pivot = upper.tree.first();
+                upper.tree.remove(pivot);
+                merged = BST12RB.join(lower.tree, pivot, upper.tree);
+            }
+            lower.retired = true;
+            upper.retired = true;
+            next.set(best, new Shard(merged, lower.low));
+            next.remove(best + 1);
+        }finally{
+            upper.lock.unlockWrite(upperStamp);
+            lower.lock.unlockWrite(lowerStamp);
+        }
+        return true;
+    }
+
+    /**
+     * This class defines an iterator that finds each element from the one
+     * before it, so the shards may be split or joined under it
+     */
+    private class StripedIterator implements Iterator<E>{
+        //The element next returns, null at the end
+        E upcoming;
+        //The element returned by the last next, null after a remove
+        E lastReturned = null;
+
+        /**
+         * Constructor
+         */
+        public StripedIterator(){
+            this.upcoming = higher(null);
+        }
+
+        /**
+         * @return true if there's still next element
+         */
+        public boolean hasNext(){
+            return upcoming != null;
+        }
+
+        /**
+         * @return the next element
+         */
+        public E next() throws NoSuchElementException{
+            if(upcoming == null){
+                throw new NoSuchElementException();
+            }
+            lastReturned = upcoming;
+            upcoming = higher(lastReturned);
+            return lastReturned;
+        }
+
+        /**
+         * remove the element returned by the last next from the tree
+         */
+        public void remove() throws IllegalStateException{
+            if(lastReturned == null){
+                throw new IllegalStateException();
+            }
+            StripedBST12RB.this.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * This class defines one key range of the tree
+     */
+    private class Shard{
+        final BST12RB<E> tree;
+        //Lowest element the shard may hold, null for the first shard
+        final E low;
+        final StampedLock lock;
+        //Set under the write lock once the shard left the table
+        volatile boolean retired;
+        //Size at which rebalance looks at this shard
+        volatile int splitAt;
+
+        /**
+         * Constructor
+         * @param tree the elements of the shard
+         * @param low its lower bound, null for the first shard
+         */
+        public Shard(BST12RB<E> tree, E low){
+            this.tree = tree;
+            this.low = low;
+            this.lock = new StampedLock();
+            this.retired = false;
+            this.splitAt = Math.max(MIN_SPLIT, 2 * tree.size());
+        }
+
+        /**
+         * @return the number of elements, -1 if the shard is retired
+         */
+        int size(){
+            long stamp = lock.tryOptimisticRead();
+            int size = tree.size();
+            boolean gone = retired;
+            if(stamp == 0 || !lock.validate(stamp)){
+                stamp = lock.readLock();
+                try{
+                    size = tree.size();
+                    gone = retired;
+                }finally{
+                    lock.unlockRead(stamp);
+                }
+            }
+            return gone ? -1 : size;
+        }
+    }
+
+    /**
+     * This class is used for StripedBST12RB's specific tests
+     */
+    public static class StripedTester extends junit.framework.TestCase{
+        @Test
+        public void testSingleThread(){
+            StripedBST12RB<Integer> tree = new StripedBST12RB<Integer>(8);
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            Random generator = new Random();
+            for(int i = 0; i < 60000; i++){
+                Integer e = generator.nextInt(40000);
+                if(generator.nextInt(4) != 0){
+                    assertEquals(model.add(e), tree.add(e));
+                }else{
+                    assertEquals(model.remove(e), tree.remove(e));
+                }
+                assertEquals(model.contains(i), tree.contains(i));
+            }
+            assertTrue(tree.shardCount() > 1);
+            assertTrue(tree.shardCount() <= 8);
+            assertEquals(model.size(), tree.size());
+            assertEquals(model.first(), tree.first());
+            assertEquals(model.last(), tree.last());
+            assertEquals(model.toString(), tree.toString());
+
+            tree.clear();
+            assertTrue(tree.isEmpty());
+            assertEquals(1, tree.shardCount());
+
+            //addAll is true only when no element was there already
+            assertTrue(tree.addAll(Arrays.asList(1, 2, 3)));
+            assertFalse(tree.addAll(Arrays.asList(3, 4)));
+            assertEquals(4, tree.size());
+        }
+
+        @Test
+        //Keys arriving in order keep hitting the last shard, which has to
+        //be split again and again once the table is full
+        public void testSequentialKeys(){
+            StripedBST12RB<Integer> tree = new StripedBST12RB<Integer>(4);
+            for(int i = 0; i < 50000; i++){
+                tree.add(i);
+            }
+            assertEquals(4, tree.shardCount());
+            assertEquals(50000, tree.size());
+            assertEquals(0, (int)tree.first());
+            assertEquals(49999, (int)tree.last());
+            for(int i = 0; i < 50000; i += 7){
+                assertTrue(tree.contains(i));
+            }
+            assertTrue(tree.height() < 2 * 16);
+        }
+
+        @Test
+        //Shards are split under a running iterator, which goes on from
+        //the last element it returned in the new table
+        public void testIteratorFollowsSplits(){
+            StripedBST12RB<Integer> tree = new StripedBST12RB<Integer>(64);
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            for(int i = 0; i < 4000; i += 2){
+                tree.add(i);
+                model.add(i);
+            }
+            int shards = tree.shardCount();
+            Iterator<Integer> iter = tree.iterator();
+            Integer previous = -1;
+            int seen = 0;
+            while(iter.hasNext()){
+                Integer e = iter.next();
+                assertTrue(e > previous);
+                previous = e;
+                if(e % 2 == 0){
+                    assertTrue(model.contains(e));
+                    seen++;
+                }
+                if(e % 200 == 0 && e < 2000){
+                    //Odd keys all over the tree, enough to split shards
+                    for(int j = 1; j < 4000; j += 20){
+                        tree.add(j + e / 100);
+                    }
+                }
+                if(e % 3 == 0){
+                    iter.remove();
+                    model.remove(e);
+                }
+            }
+            assertTrue(tree.shardCount() > shards);
+            assertEquals(2000, seen);
+            for(Integer each: model){
+                assertTrue(tree.contains(each));
+            }
+            assertFalse(tree.contains(6));
+            try{
+                iter.next();
+                fail();
+            }catch(NoSuchElementException ex){
+            }
+        }
+
+        @Test
+        public void testConcurrentWriters() throws InterruptedException{
+            final StripedBST12RB<Integer> tree = new StripedBST12RB<Integer>(16);
+            final int threads = 8;
+            final int keys = 1 << 17;
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            List<Thread> workers = new ArrayList<Thread>();
+            for(int t = 0; t < threads; t++){
+                final int id = t;
+                workers.add(new Thread(){
+                    public void run(){
+                        try{
+                            //Each thread owns the keys equal to id mod threads,
+                            //spread over the whole range
+                            Random generator = new Random(id);
+                            List<Integer> mine = new ArrayList<Integer>();
+                            for(int k = id; k < keys; k += threads){
+                                mine.add(k);
+                            }
+                            Collections.shuffle(mine, generator);
+                            for(Integer each: mine){
+                                assertTrue(tree.add(each));
+                            }
+                            for(Integer each: mine){
+                                if(each % 3 == 0){
+                                    assertTrue(tree.remove(each));
+                                }
+                                assertEquals(each % 3 != 0, tree.contains(each));
+                            }
+                        }catch(Throwable ex){
+                            failure.compareAndSet(null, ex);
+                        }
+                    }
+                });
+            }
+            for(Thread each: workers){
+                each.start();
+            }
+            for(Thread each: workers){
+                each.join();
+            }
+            if(failure.get() != null){
+                throw new AssertionError(failure.get());
+            }
+
+            TreeSet<Integer> model = new TreeSet<Integer>();
+            for(int k = 0; k < keys; k++){
+                if(k % 3 != 0){
+                    model.add(k);
+                }
+            }
+            assertEquals(model.size(), tree.size());
+            assertEquals(model.toString(), tree.toString());
+            assertTrue(tree.shardCount() > 1);
+        }
+    }
+}
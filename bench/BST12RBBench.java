@@ -0,0 +1,252 @@
+/**
+ * This file contains the JMH benchmarks for BST12RB.
+ * @author Cheng Shen
+ * @version 1.0
+ */
+package bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This class measures add, contains, remove, first/last, full iteration and
+ * addAll of BST12RB, with java.util.TreeSet run as the baseline on every
+ * configuration.
+ *
+ * The tree always holds the even keys 0, 2, ..., 2(size-1). Lookups probe
+ * [0, 2*size) so about half of them miss, and add/remove work on distinct
+ * odd keys so that they never collide with the resident elements or with
+ * each other. Only the measured operation is timed: the keys of add are
+ * removed, and those of remove inserted, outside the invocation.
+ *
+ * JMH does not accept benchmarks in the default package, and a named package
+ * cannot see BST12RB, so the tree is loaded by name through the BST12RBSet
+ * adapter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BST12RBBench{
+    //Number of adds/removes done by one invocation of add and remove
+    static final int BATCH = 1024;
+    //Number of precomputed lookup keys, must be a power of 2
+    static final int PROBES = 1 << 16;
+    //Skew of the Zipfian distribution
+    static final double ZIPF_SKEW = 0.99;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int size;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPF"})
+    String distribution;
+
+    @Param({"BST12RB", "TreeSet"})
+    String impl;
+
+    SortedSet<Integer> tree;
+    //The resident keys in the order they were inserted
+    List<Integer> inserted;
+    //Lookup keys that follow the chosen distribution
+    Integer[] probes;
+    int nextProbe;
+
+    /**
+     * Build the tree and the key arrays once per trial
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial(){
+        Random generator = new Random(42);
+        inserted = new ArrayList<Integer>(size);
+        for(int i = 0; i < size; i++){
+            inserted.add(2 * i);
+        }
+        if(!distribution.equals("SEQUENTIAL")){
+            Collections.shuffle(inserted, generator);
+        }
+
+        tree = newTarget(impl);
+        for(Integer each: inserted){
+            tree.add(each);
+        }
+
+        probes = new Integer[PROBES];
+        for(int i = 0; i < PROBES; i++){
+            probes[i] = nextKey(generator, i);
+        }
+    }
+
+    /**
+     * Odd keys for the add/remove benchmarks. It is a separate state so the
+     * per-invocation setup does not slow down the other benchmarks
+     */
+    public static class Batch{
+        Integer[] keys = new Integer[BATCH];
+        int window;
+
+        /**
+         * Pick a fresh window of distinct odd keys. The key next to a probe
+         * follows the distribution, a hot key already taken moves on to the
+         * next odd key that is not
+         * @param bench the benchmark state holding the probes
+         */
+        void fill(BST12RBBench bench){
+            int offset = (window++ * BATCH) & (PROBES - 1);
+            Set<Integer> taken = new HashSet<Integer>(2 * BATCH);
+            for(int i = 0; i < BATCH; i++){
+                int key = bench.probes[(offset + i) & (PROBES - 1)] | 1;
+                while(!taken.add(key)){
+                    key += 2;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+
+    /**
+     * The keys add inserts, taken out again after every invocation so each
+     * one sees a tree of the same size
+     */
+    @State(Scope.Thread)
+    public static class AddBatch extends Batch{
+        @Setup(Level.Invocation)
+        public void setUp(BST12RBBench bench){
+            fill(bench);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(BST12RBBench bench){
+            for(Integer each: keys){
+                bench.tree.remove(each);
+            }
+        }
+    }
+
+    /**
+     * The keys remove takes out, inserted before every invocation
+     */
+    @State(Scope.Thread)
+    public static class RemoveBatch extends Batch{
+        @Setup(Level.Invocation)
+        public void setUp(BST12RBBench bench){
+            fill(bench);
+            for(Integer each: keys){
+                bench.tree.add(each);
+            }
+        }
+    }
+
+    /*--------------------------Benchmarks--------------------------*/
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void add(AddBatch batch, Blackhole bh){
+        for(Integer each: batch.keys){
+            bh.consume(tree.add(each));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void remove(RemoveBatch batch, Blackhole bh){
+        for(Integer each: batch.keys){
+            bh.consume(tree.remove(each));
+        }
+    }
+
+    @Benchmark
+    public boolean contains(){
+        return tree.contains(probes[nextProbe++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public Integer first(){
+        return tree.first();
+    }
+
+    @Benchmark
+    public Integer last(){
+        return tree.last();
+    }
+
+    @Benchmark
+    public long iterate(){
+        long sum = 0;
+        Iterator<Integer> iter = tree.iterator();
+        while(iter.hasNext()){
+            sum += iter.next();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public SortedSet<Integer> addAll(){
+        SortedSet<Integer> copy = newTarget(impl);
+        copy.addAll(inserted);
+        return copy;
+    }
+
+    /*--------------------------Helper methods--------------------------*/
+    /**
+     * Draw the i-th lookup key of the chosen distribution
+     * @param generator the random source
+     * @param i the index of the probe
+     * @return a key in [0, 2*size)
+     */
+    private Integer nextKey(Random generator, int i){
+        if(distribution.equals("SEQUENTIAL")){
+            return (int)(((long)i * 2 * size / PROBES) % (2L * size));
+        }
+        if(distribution.equals("RANDOM")){
+            return generator.nextInt(2 * size);
+        }
+        //Zipfian: rank 0 is the hottest key. Ranks are scattered over the
+        //key space with a multiplicative hash so the hot keys are not
+        //neighbours in the tree
+        long rank = zipfRank(generator.nextDouble(), size);
+        long scattered = (rank * 0x9E3779B1L) % size;
+        return (int)(2 * scattered + (generator.nextBoolean() ? 0 : 1));
+    }
+
+    /**
+     * Inverse of the continuous approximation of the Zipfian CDF
+     * @param u a uniform number in [0, 1)
+     * @param n the number of ranks
+     * @return a rank in [0, n)
+     */
+    static long zipfRank(double u, int n){
+        double exp = 1 - ZIPF_SKEW;
+        double harmonic = (Math.pow(n, exp) - 1) / exp;
+        double x = Math.pow(1 + u * exp * harmonic, 1 / exp);
+        return Math.min(n - 1, Math.max(0, (long)x - 1));
+    }
+
+    /**
+     * @param name the implementation name from the impl parameter
+     * @return an empty tree of that implementation
+     */
+    @SuppressWarnings("unchecked")
+    static SortedSet<Integer> newTarget(String name){
+        if(name.equals("TreeSet")){
+            return new TreeSet<Integer>();
+        }
+        try{
+            return (SortedSet<Integer>)Class.forName(name + "Set")
+                .getDeclaredConstructor().newInstance();
+        }catch(ReflectiveOperationException ex){
+            throw new IllegalStateException("No adapter for " + name, ex);
+        }
+    }
+}